@@ -18,17 +18,41 @@
 package ca.islandora.alpaca.driver;
 
 import org.apache.camel.spring.javaconfig.CamelConfiguration;
-import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import ca.islandora.alpaca.connector.derivative.DerivativeOptions;
+import ca.islandora.alpaca.indexing.fcrepo.FcrepoIndexerOptions;
+import ca.islandora.alpaca.indexing.triplestore.TriplestoreIndexerOptions;
+import ca.islandora.alpaca.support.config.ActivemqConfig;
+import ca.islandora.alpaca.support.config.AutoscaleConfig;
+import ca.islandora.alpaca.support.config.JfrConfig;
+import ca.islandora.alpaca.support.config.MemoryConfig;
+import ca.islandora.alpaca.support.config.MetricsConfig;
+import ca.islandora.alpaca.support.config.RequestConfigurerConfig;
 
 /**
- * A configuration class for the application, scans for other configuration classes.
+ * A configuration class for the application, imports the configuration classes of each module.
+ *
+ * The classes are listed rather than found by a classpath scan to keep startup fast, a new module's configuration
+ * class must be added here. Modules which are not enabled are skipped by their @Conditional before any of their beans
+ * are created.
  *
  * @author dbernstein
  * @author whikloj
  */
 @Configuration
-@ComponentScan(basePackages = {"ca.islandora.alpaca"})
+@Import({
+    ActivemqConfig.class,
+    RequestConfigurerConfig.class,
+    MetricsConfig.class,
+    JfrConfig.class,
+    MemoryConfig.class,
+    AutoscaleConfig.class,
+    FcrepoIndexerOptions.class,
+    TriplestoreIndexerOptions.class,
+    DerivativeOptions.class
+})
 public class AlpacaConfig extends CamelConfiguration {
 
 }
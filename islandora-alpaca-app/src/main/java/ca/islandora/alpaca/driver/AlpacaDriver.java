@@ -20,11 +20,18 @@ package ca.islandora.alpaca.driver;
 import static ca.islandora.alpaca.support.config.PropertyConfig.ALPACA_CONFIG_PROPERTY;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 
+import org.apache.camel.CamelContext;
 import org.slf4j.Logger;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
 
 import picocli.CommandLine;
 
@@ -41,6 +48,13 @@ public class AlpacaDriver implements Callable<Integer> {
      */
     private static final Logger LOGGER = getLogger(AlpacaDriver.class);
 
+    /**
+     * Property for how long to wait for pending exchanges on shutdown, in milliseconds.
+     */
+    public static final String SHUTDOWN_TIMEOUT_PROPERTY = "shutdown.timeout";
+
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT = 30000;
+
     /**
      * Configuration file.
      */
@@ -48,36 +62,91 @@ public class AlpacaDriver implements Callable<Integer> {
             description = "The path to the configuration file")
     private Path configurationFilePath;
 
+    /**
+     * Stop once started, to measure the startup time.
+     */
+    @CommandLine.Option(names = {"--exit-after-startup"}, required = false, order = 2,
+            description = "Stop as soon as Alpaca has started, used to measure the startup time")
+    private boolean exitAfterStartup;
+
     @Override
     public Integer call() throws Exception {
         if (configurationFilePath != null) {
             System.setProperty(ALPACA_CONFIG_PROPERTY, configurationFilePath.toFile().getAbsolutePath());
         }
-        final var appContext = new AnnotationConfigApplicationContext("ca.islandora.alpaca");
+        final var appContext = new AnnotationConfigApplicationContext(AlpacaConfig.class);
+        final CountDownLatch closed = new CountDownLatch(1);
+        appContext.addApplicationListener(new ApplicationListener<ContextClosedEvent>() {
+            @Override
+            public void onApplicationEvent(final ContextClosedEvent event) {
+                closed.countDown();
+            }
+        });
         try {
             appContext.start();
-            LOGGER.info("Alpaca started.");
-
-            while (appContext.isRunning()) {
-                try {
-                    Thread.sleep(1000);
-                } catch (final InterruptedException e) {
-                    throw new RuntimeException("This should never happen");
-                }
+            LOGGER.info("Alpaca started in {} ms, resident memory {} MB.",
+                    ManagementFactory.getRuntimeMXBean().getUptime(), residentMemory());
+            if (exitAfterStartup) {
+                return 0;
             }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(appContext), "AlpacaShutdown"));
+            closed.await();
             return 0;
         } finally {
             appContext.close();
         }
     }
 
+    /**
+     * Drain pending exchanges and close the application context, run on SIGTERM or SIGINT.
+     * @param appContext
+     *   The application context.
+     */
+    private static void shutdown(final AnnotationConfigApplicationContext appContext) {
+        if (!appContext.isActive()) {
+            return;
+        }
+        LOGGER.info("Alpaca stopping.");
+        final long timeout = appContext.getEnvironment().getProperty(SHUTDOWN_TIMEOUT_PROPERTY, Long.class,
+                DEFAULT_SHUTDOWN_TIMEOUT);
+        try {
+            new ShutdownDrainer(appContext.getBean(CamelContext.class), timeout).drain();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            LOGGER.error("Error draining exchanges: {}", e.getMessage(), e);
+        } finally {
+            appContext.close();
+        }
+        LOGGER.info("Alpaca stopped.");
+    }
+
+    /**
+     * @return the resident set size of this process in megabytes, or -1 if it is not available.
+     */
+    private static long residentMemory() {
+        final Path status = Path.of("/proc/self/status");
+        try {
+            for (final String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    // In the form "VmRSS:    123456 kB"
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024;
+                }
+            }
+        } catch (final IOException | NumberFormatException e) {
+            LOGGER.debug("Unable to read {}: {}", status, e.getMessage());
+        }
+        return -1;
+    }
+
     /**
      * @param args Command line arguments
      */
     public static void main(final String[] args) {
         final AlpacaDriver driver = new AlpacaDriver();
         final CommandLine cmd = new CommandLine(driver);
-        cmd.execute(args);
+        // Exit explicitly, the broker client can leave non-daemon threads behind for a while after closing.
+        System.exit(cmd.execute(args));
     }
 
 }
@@ -0,0 +1,172 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.driver;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Endpoint;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExtendedCamelContext;
+import org.apache.camel.Route;
+import org.apache.camel.component.seda.SedaEndpoint;
+import org.apache.camel.spi.CamelEvent;
+import org.apache.camel.spi.RouteStartupOrder;
+import org.apache.camel.spi.ShutdownStrategy;
+import org.apache.camel.support.EventNotifierSupport;
+import org.apache.camel.support.service.ServiceHelper;
+import org.slf4j.Logger;
+
+/**
+ * Drains the Camel context before it is stopped.
+ *
+ * Routes consuming from outside Alpaca (the message broker) are suspended together first so no new work arrives,
+ * then this waits until the SEDA queues are empty and no exchanges are in flight. All of it shares one deadline, the
+ * timeout; anything still pending at the deadline is abandoned when the context stops.
+ *
+ * @author agent
+ */
+public class ShutdownDrainer {
+
+    private static final Logger LOGGER = getLogger(ShutdownDrainer.class);
+
+    /**
+     * Endpoint schemes which only carry work between Alpaca's own routes.
+     */
+    private static final Set<String> INTERNAL_SCHEMES = Set.of("direct", "seda", "vm");
+
+    private static final long POLL_MILLIS = 100;
+
+    private final CamelContext camelContext;
+
+    private final long timeoutMillis;
+
+    /**
+     * Basic constructor.
+     * @param camelContext
+     *   The camel context.
+     * @param timeoutMillis
+     *   How long to wait for pending exchanges in milliseconds.
+     */
+    public ShutdownDrainer(final CamelContext camelContext, final long timeoutMillis) {
+        this.camelContext = camelContext;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Suspend the consumers and wait for pending exchanges to finish.
+     * @throws Exception
+     *   If a route cannot be suspended.
+     */
+    public void drain() throws Exception {
+        final CompletionCounter counter = new CompletionCounter();
+        camelContext.getManagementStrategy().addEventNotifier(counter);
+        camelContext.adapt(ExtendedCamelContext.class).setEventNotificationApplicable(true);
+        ServiceHelper.startService(counter);
+
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        // Suspend the consumers all at once, waiting for their in flight exchanges within the deadline.
+        final List<RouteStartupOrder> external = new ArrayList<>();
+        for (final RouteStartupOrder order : camelContext.adapt(ExtendedCamelContext.class).getRouteStartupOrder()) {
+            final Route route = order.getRoute();
+            if (!INTERNAL_SCHEMES.contains(route.getEndpoint().getEndpointUri().split(":", 2)[0])) {
+                LOGGER.info("Suspending consumer of route {}", route.getRouteId());
+                external.add(order);
+            }
+        }
+        final ShutdownStrategy strategy = camelContext.getShutdownStrategy();
+        strategy.setShutdownNowOnTimeout(true);
+        if (!external.isEmpty()) {
+            strategy.suspend(camelContext, external, Math.max(1, timeoutMillis), TimeUnit.MILLISECONDS);
+        }
+
+        LOGGER.info("Draining {} in flight and {} queued exchanges, waiting up to {} ms", inflight(), queued(),
+                timeoutMillis);
+        while (pending() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(POLL_MILLIS);
+        }
+
+        final int inflight = inflight();
+        final int queued = queued();
+        LOGGER.info("Drained in {} ms, {} exchanges completed, {} failed, {} abandoned ({} in flight, {} queued)",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), counter.completed.sum(),
+                counter.failed.sum(), inflight + queued, inflight, queued);
+
+        // Anything left is abandoned, don't let the context wait for it again.
+        strategy.setTimeout(1);
+        ServiceHelper.stopService(counter);
+    }
+
+    private int pending() {
+        return inflight() + queued();
+    }
+
+    private int inflight() {
+        return camelContext.getInflightRepository().size();
+    }
+
+    private int queued() {
+        // Endpoints with different options for the same name share a queue, count each queue once.
+        final Set<BlockingQueue<Exchange>> queues = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final Endpoint endpoint : camelContext.getEndpoints()) {
+            if (endpoint instanceof SedaEndpoint) {
+                queues.add(((SedaEndpoint) endpoint).getQueue());
+            }
+        }
+        return queues.stream().mapToInt(BlockingQueue::size).sum();
+    }
+
+    /**
+     * Counts exchanges finishing during the drain.
+     */
+    private static class CompletionCounter extends EventNotifierSupport {
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        CompletionCounter() {
+            setIgnoreCamelContextEvents(true);
+            setIgnoreRouteEvents(true);
+            setIgnoreServiceEvents(true);
+            setIgnoreExchangeCreatedEvent(true);
+            setIgnoreExchangeSentEvents(true);
+            setIgnoreExchangeSendingEvents(true);
+            setIgnoreExchangeRedeliveryEvents(true);
+            setIgnoreStepEvents(true);
+        }
+
+        @Override
+        public void notify(final CamelEvent event) {
+            if (event instanceof CamelEvent.ExchangeFailedEvent) {
+                failed.increment();
+            } else if (event instanceof CamelEvent.ExchangeCompletedEvent) {
+                completed.increment();
+            }
+        }
+    }
+}
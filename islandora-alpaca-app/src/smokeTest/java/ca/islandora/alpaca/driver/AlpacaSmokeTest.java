@@ -0,0 +1,262 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.driver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Starts the packaged Alpaca against a broker and stub HTTP services, sends one event to each of the indexers and a
+ * derivative connector, then stops it.
+ *
+ * The command to start Alpaca is read from the alpaca.command system property, split on whitespace.
+ *
+ * @author agent
+ */
+public class AlpacaSmokeTest {
+
+    private static final Logger LOGGER = getLogger(AlpacaSmokeTest.class);
+
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private static final String NODE_UUID = "72358916-51e9-4712-b756-4b0404c91b1d";
+
+    private BrokerService broker;
+
+    private HttpServer stub;
+
+    private Process alpaca;
+
+    private final BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+
+    private final BlockingQueue<String> output = new LinkedBlockingQueue<>();
+
+    private Path config;
+
+    /**
+     * Start the broker and stub services, and write the configuration.
+     * @throws Exception
+     *   If the broker cannot be started.
+     */
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.addConnector("tcp://localhost:0");
+        broker.start();
+
+        stub = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        stub.createContext("/", this::handle);
+        stub.start();
+
+        config = Files.createTempFile("alpaca-smoke", ".properties");
+        Files.writeString(config, String.join("\n",
+                "jms.brokerUrl=" + broker.getTransportConnectors().get(0).getPublishableConnectString(),
+                "error.maxRedeliveries=0",
+                "shutdown.timeout=5000",
+                "metrics.jmx.enabled=false",
+                "fcrepo.indexer.enabled=true",
+                "fcrepo.indexer.node=queue:smoke-fcrepo-node",
+                "fcrepo.indexer.delete=queue:smoke-fcrepo-delete",
+                "fcrepo.indexer.media=queue:smoke-fcrepo-media",
+                "fcrepo.indexer.external=queue:smoke-fcrepo-external",
+                "fcrepo.indexer.milliner.baseUrl=" + stubUrl() + "/milliner/",
+                "triplestore.indexer.enabled=true",
+                "triplestore.baseUrl=" + stubUrl() + "/sparql",
+                "triplestore.index.stream=queue:smoke-triplestore-index",
+                "triplestore.delete.stream=queue:smoke-triplestore-delete",
+                "derivative.systems.installed=smoke",
+                "derivative.smoke.enabled=true",
+                "derivative.smoke.in.stream=queue:smoke-derivative",
+                "derivative.smoke.service.url=" + stubUrl() + "/service",
+                ""));
+    }
+
+    /**
+     * Stop Alpaca if it is still running, the broker and stub services.
+     * @throws Exception
+     *   If the broker cannot be stopped.
+     */
+    @After
+    public void tearDown() throws Exception {
+        if (alpaca != null && alpaca.isAlive()) {
+            alpaca.destroyForcibly();
+        }
+        stub.stop(0);
+        broker.stop();
+        Files.deleteIfExists(config);
+    }
+
+    /**
+     * Start Alpaca, index a node, generate a derivative and stop Alpaca.
+     * @throws Exception
+     *   If Alpaca cannot be started or messages sent.
+     */
+    @Test
+    public void testStartIndexAndStop() throws Exception {
+        final String command = System.getProperty("alpaca.command");
+        assertNotNull("Set alpaca.command to the command starting Alpaca", command);
+        final List<String> args = new ArrayList<>(List.of(command.trim().split("\\s+")));
+        args.add("-c");
+        args.add(config.toString());
+        alpaca = new ProcessBuilder(args).redirectErrorStream(true).start();
+        final Thread reader = new Thread(this::readOutput, "AlpacaOutput");
+        reader.setDaemon(true);
+        reader.start();
+        awaitOutput("Alpaca started in");
+
+        send("smoke-fcrepo-node", event("Update", "Update a Node", ""));
+        assertEquals("POST /milliner/node/" + NODE_UUID, awaitRequest());
+
+        send("smoke-triplestore-index", event("Update", "Update a Node", ""));
+        assertEquals("GET /node/2", awaitRequest());
+        assertEquals("POST /sparql", awaitRequest());
+
+        send("smoke-derivative", event("Activity", "Generate Derivative", ",\"attachment\":{\"type\":\"Object\","
+                + "\"content\":{\"mimetype\":\"image/jpeg\",\"args\":\"\",\"source_uri\":\"" + stubUrl()
+                + "/source.jpg\",\"destination_uri\":\"" + stubUrl() + "/destination\","
+                + "\"file_upload_uri\":\"public://smoke.jpg\"},\"mediaType\":\"application/json\"}"));
+        assertEquals("GET /service", awaitRequest());
+        assertEquals("PUT /destination", awaitRequest());
+
+        // Process.destroy() closes the output stream as well, signal through the handle to read the shutdown logs.
+        alpaca.toHandle().destroy();
+        awaitOutput("Drained in");
+        awaitOutput("Alpaca stopped.");
+        assertTrue("Alpaca did not exit", alpaca.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private String stubUrl() {
+        return "http://localhost:" + stub.getAddress().getPort();
+    }
+
+    private String event(final String type, final String summary, final String extra) {
+        final String node = stubUrl() + "/node/2";
+        return "{\"@context\":\"https://www.w3.org/ns/activitystreams\","
+                + "\"actor\":{\"type\":\"Person\",\"id\":\"urn:uuid:9029a0c0-d845-4ddd-864c-2198d45839da\"},"
+                + "\"object\":{\"id\":\"urn:uuid:" + NODE_UUID + "\",\"url\":["
+                + "{\"name\":\"Canonical\",\"type\":\"Link\",\"href\":\"" + node + "\","
+                + "\"mediaType\":\"text/html\",\"rel\":\"canonical\"},"
+                + "{\"name\":\"JSONLD\",\"type\":\"Link\",\"href\":\"" + node + "?_format=jsonld\","
+                + "\"mediaType\":\"application/ld+json\",\"rel\":\"alternate\"}]},"
+                + "\"type\":\"" + type + "\",\"summary\":\"" + summary + "\","
+                + "\"target\":\"http://localhost:8080/fcrepo/rest/node\"" + extra + "}";
+    }
+
+    private void send(final String queue, final String body) throws Exception {
+        final var factory = new ActiveMQConnectionFactory(broker.getVmConnectorURI());
+        final Connection connection = factory.createConnection();
+        try {
+            final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            final MessageProducer producer = session.createProducer(session.createQueue(queue));
+            final var message = session.createTextMessage(body);
+            message.setStringProperty("Authorization", "Bearer islandora");
+            producer.send(message);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private String awaitRequest() throws InterruptedException {
+        final String request = requests.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (request == null) {
+            fail("No request received from Alpaca");
+        }
+        return request;
+    }
+
+    private void awaitOutput(final String text) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (System.nanoTime() < deadline) {
+            final String line = output.poll(1, TimeUnit.SECONDS);
+            if (line != null && line.contains(text)) {
+                return;
+            }
+        }
+        fail("Alpaca did not log \"" + text + "\"");
+    }
+
+    private void readOutput() {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(alpaca.getInputStream(), UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                LOGGER.debug("alpaca: {}", line);
+                output.add(line);
+            }
+        } catch (final IOException e) {
+            // The process has exited.
+        }
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        final String path = exchange.getRequestURI().getPath();
+        requests.add(exchange.getRequestMethod() + " " + path);
+        final String body;
+        final int status;
+        if (path.equals("/node/2")) {
+            body = "{\"@id\":\"" + stubUrl() + "/node/2\",\"http://purl.org/dc/terms/title\":\"Smoke\"}";
+            exchange.getResponseHeaders().add("Content-Type", "application/ld+json");
+            status = 200;
+        } else if (path.equals("/service")) {
+            body = "derivative";
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            status = 200;
+        } else {
+            body = "";
+            status = exchange.getRequestMethod().equals("GET") ? 200 : 201;
+        }
+        final byte[] bytes = body.getBytes(UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
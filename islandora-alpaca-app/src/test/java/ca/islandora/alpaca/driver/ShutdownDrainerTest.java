@@ -0,0 +1,140 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests draining the pending exchanges before stopping.
+ *
+ * @author agent
+ */
+public class ShutdownDrainerTest {
+
+    private final AtomicInteger received = new AtomicInteger();
+
+    private final AtomicInteger finished = new AtomicInteger();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private CamelContext context;
+
+    @Before
+    public void setUp() {
+        context = new DefaultCamelContext();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        context.stop();
+    }
+
+    @Test
+    public void testQueuedExchangesFinish() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("timer:events?period=10")
+                        .process(exchange -> received.incrementAndGet())
+                        .to("seda:work");
+                from("seda:work")
+                        .process(exchange -> {
+                            started.countDown();
+                            Thread.sleep(300);
+                            finished.incrementAndGet();
+                        });
+            }
+        });
+        context.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final long start = System.nanoTime();
+        new ShutdownDrainer(context, 10000).drain();
+
+        // Everything consumed before the drain was processed, and nothing was consumed after it.
+        assertEquals(received.get(), finished.get());
+        assertEquals(0, context.getInflightRepository().size());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        final int drained = received.get();
+        Thread.sleep(100);
+        assertEquals(drained, received.get());
+    }
+
+    @Test
+    public void testAbandonedAtDeadline() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("timer:events?repeatCount=1")
+                        .to("seda:work");
+                from("seda:work")
+                        .process(exchange -> {
+                            started.countDown();
+                            release.await();
+                        });
+            }
+        });
+        context.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final long start = System.nanoTime();
+        new ShutdownDrainer(context, 500).drain();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(1, context.getInflightRepository().size());
+        assertTrue(context.getShutdownStrategy().isShutdownNowOnTimeout());
+    }
+
+    @Test
+    public void testDeadlineCoversEveryConsumer() throws Exception {
+        final CountDownLatch started = new CountDownLatch(3);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                for (int i = 0; i < 3; i += 1) {
+                    // Consumers with a slow exchange in flight.
+                    from("timer:events" + i + "?repeatCount=1")
+                            .process(exchange -> {
+                                started.countDown();
+                                release.await();
+                            });
+                }
+            }
+        });
+        context.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final long start = System.nanoTime();
+        new ShutdownDrainer(context, 500).drain();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.connector.derivative;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.slf4j.Logger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+import ca.islandora.alpaca.support.event.AS2AttachmentContent;
+import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.event.AS2EventExpressions;
+
+/**
+ * On disk cache of generated derivatives, keyed by the digest of the source's content, the connector, args and
+ * mimetype. When the cache is full the least recently used derivatives are removed.
+ *
+ * The digest is the Digest header of a HEAD request for the source, as sent by Fedora, or its ETag. Sources with
+ * neither are not cached. Each derivative is stored as (sha-256 of the key).bin with its content type in
+ * (sha-256 of the key).type, so the cache is kept across restarts.
+ *
+ * @author agent
+ */
+public class DerivativeCache {
+
+    private static final Logger LOGGER = getLogger(DerivativeCache.class);
+
+    /**
+     * The exchange property holding the cache key of the derivative.
+     */
+    public static final String CACHE_KEY_PROPERTY = "AlpacaDerivativeCacheKey";
+
+    /**
+     * The exchange property which is true when the derivative was found in the cache.
+     */
+    public static final String CACHE_HIT_PROPERTY = "AlpacaDerivativeCacheHit";
+
+    private static final String DATA_SUFFIX = ".bin";
+
+    private static final String TYPE_SUFFIX = ".type";
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    /**
+     * Entries by file name, least recently used first.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalBytes;
+
+    /**
+     * Basic constructor, loads the derivatives already in the directory.
+     * @param directory
+     *   Directory to store the derivatives in, created if it doesn't exist.
+     * @param maxBytes
+     *   Most bytes of derivatives to keep.
+     * @throws IOException
+     *   If the directory cannot be created or read.
+     */
+    public DerivativeCache(final Path directory, final long maxBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path file : stream) {
+                final String name = file.getFileName().toString();
+                if (name.endsWith(DATA_SUFFIX) && Files.exists(typeFile(baseName(name)))) {
+                    files.add(file);
+                } else if (name.contains(".tmp-")) {
+                    // Left by a store interrupted by a restart.
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        // The modification time is updated on each hit, so this is the order they were last used in.
+        files.sort(Comparator.comparing(DerivativeCache::lastModified));
+        synchronized (this) {
+            for (final Path file : files) {
+                final long size = Files.size(file);
+                entries.put(baseName(file.getFileName().toString()), size);
+                totalBytes += size;
+            }
+            evict();
+        }
+        LOGGER.info("Derivative cache in {} has {} derivatives of {} bytes", directory, entries.size(), totalBytes);
+        Gauge.builder("alpaca.derivative.cache.bytes", this, DerivativeCache::getTotalBytes)
+                .description("Bytes of derivatives in the cache").register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Processor which follows a HEAD request for the source. It works out the cache key from the response and when
+     * the derivative is cached sets it as the body with its Content-Type and the CACHE_HIT_PROPERTY.
+     * @param connectorName
+     *   The derivative connector name.
+     * @return the processor.
+     */
+    public Processor lookup(final String connectorName) {
+        final Counter hits = Counter.builder("alpaca.derivative.cache.requests").description("Derivative cache lookups")
+                .tag("connector", connectorName).tag("result", "hit").register(Metrics.globalRegistry);
+        final Counter misses = Counter.builder("alpaca.derivative.cache.requests")
+                .description("Derivative cache lookups").tag("connector", connectorName).tag("result", "miss")
+                .register(Metrics.globalRegistry);
+        return exchange -> {
+            exchange.removeProperty(CACHE_KEY_PROPERTY);
+            exchange.removeProperty(CACHE_HIT_PROPERTY);
+            final String key = key(connectorName, exchange);
+            if (key == null) {
+                return;
+            }
+            final String name = hash(key);
+            final Cached cached = open(name);
+            if (cached == null) {
+                misses.increment();
+                exchange.setProperty(CACHE_KEY_PROPERTY, name);
+                return;
+            }
+            hits.increment();
+            LOGGER.debug("({}) Using cached derivative {}", connectorName, name);
+            exchange.getIn().setHeader(Exchange.CONTENT_TYPE, cached.contentType);
+            exchange.getIn().setBody(cached.data);
+            exchange.setProperty(CACHE_HIT_PROPERTY, true);
+        };
+    }
+
+    /**
+     * Processor which follows the request to the derivative service. It stores the derivative in the body if the
+     * lookup found a key for it, and replaces the body with the stored copy.
+     * @return the processor.
+     */
+    public Processor store() {
+        return exchange -> {
+            final String name = exchange.getProperty(CACHE_KEY_PROPERTY, String.class);
+            final InputStream body = exchange.getIn().getBody(InputStream.class);
+            if (name == null || body == null) {
+                return;
+            }
+            final Path temp = directory.resolve(name + ".tmp-" + UUID.randomUUID());
+            boolean sendTemp = false;
+            try {
+                final long size;
+                try (body) {
+                    size = Files.copy(body, temp);
+                }
+                if (size > maxBytes) {
+                    // Too large to cache, send it from the temporary file which is removed once it has been read.
+                    exchange.getIn().setBody(Files.newInputStream(temp, StandardOpenOption.DELETE_ON_CLOSE));
+                    sendTemp = true;
+                    return;
+                }
+                final String contentType = exchange.getIn().getHeader(Exchange.CONTENT_TYPE, "", String.class);
+                synchronized (this) {
+                    Files.writeString(typeFile(name), contentType, UTF_8);
+                    Files.move(temp, dataFile(name), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    final Long previous = entries.put(name, size);
+                    totalBytes += size - (previous == null ? 0 : previous);
+                    // The new derivative is the most recently used, it is only removed if it alone fills the cache.
+                    evict();
+                    exchange.getIn().setBody(Files.newInputStream(dataFile(name)));
+                }
+            } finally {
+                if (!sendTemp) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the bytes of derivatives in the cache.
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the number of derivatives in the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Open a cached derivative and mark it as the most recently used.
+     * @param name
+     *   The derivative's file name.
+     * @return the derivative, or null if it isn't cached.
+     * @throws IOException
+     *   If the derivative cannot be read.
+     */
+    private synchronized Cached open(final String name) throws IOException {
+        if (entries.get(name) == null) {
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(dataFile(name), FileTime.fromMillis(System.currentTimeMillis()));
+            final String contentType = Files.readString(typeFile(name), UTF_8).trim();
+            return new Cached(Files.newInputStream(dataFile(name)), contentType);
+        } catch (final NoSuchFileException e) {
+            // Removed from the directory by someone else.
+            totalBytes -= entries.remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Remove the least recently used derivatives until the rest fit. Hold the lock when calling this.
+     * @throws IOException
+     *   If a derivative cannot be removed.
+     */
+    private void evict() throws IOException {
+        final Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            final Map.Entry<String, Long> entry = eldest.next();
+            Files.deleteIfExists(dataFile(entry.getKey()));
+            Files.deleteIfExists(typeFile(entry.getKey()));
+            totalBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @param connectorName
+     *   The derivative connector name.
+     * @param exchange
+     *   The exchange, with the response to the HEAD request of the source.
+     * @return the key of the derivative, or null if the source has no digest.
+     */
+    private static String key(final String connectorName, final Exchange exchange) {
+        final AS2Event event = exchange.getProperty(AS2EventExpressions.EVENT_PROPERTY, AS2Event.class);
+        final AS2AttachmentContent content = event == null || event.getAttachment() == null ? null :
+                event.getAttachment().getContent();
+        final Integer status = exchange.getIn().getHeader(Exchange.HTTP_RESPONSE_CODE, Integer.class);
+        if (content == null || status == null || status != 200) {
+            return null;
+        }
+        String digest = exchange.getIn().getHeader("Digest", String.class);
+        if (digest == null || digest.isBlank()) {
+            digest = exchange.getIn().getHeader("ETag", String.class);
+        }
+        if (digest == null || digest.isBlank()) {
+            return null;
+        }
+        // The unit separator won't appear in a digest, args or mimetype.
+        return String.join("\u001f", connectorName, digest.trim(), String.valueOf(content.getArgs()),
+                String.valueOf(content.getMimetype()));
+    }
+
+    /**
+     * @param key
+     *   The key of a derivative.
+     * @return the hex sha-256 of the key.
+     */
+    private static String hash(final String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Path dataFile(final String name) {
+        return directory.resolve(name + DATA_SUFFIX);
+    }
+
+    private Path typeFile(final String name) {
+        return directory.resolve(name + TYPE_SUFFIX);
+    }
+
+    private static String baseName(final String fileName) {
+        return fileName.substring(0, fileName.lastIndexOf('.'));
+    }
+
+    private static FileTime lastModified(final Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (final IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * A derivative read from the cache.
+     */
+    private static class Cached {
+        private final InputStream data;
+        private final String contentType;
+
+        /**
+         * @param data
+         *   The derivative.
+         * @param contentType
+         *   Its content type.
+         */
+        Cached(final InputStream data, final String contentType) {
+            this.data = data;
+            this.contentType = contentType;
+        }
+    }
+}
@@ -18,16 +18,35 @@
 
 package ca.islandora.alpaca.connector.derivative;
 
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.ARGS;
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.DESTINATION_URI;
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.EVENT_PROPERTY;
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.FILE_UPLOAD_URI;
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.MIMETYPE;
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.SOURCE_URI;
+import static ca.islandora.alpaca.support.http.HttpPathProcessor.HTTP_ORIGIN_PROPERTY;
 import static org.apache.camel.LoggingLevel.DEBUG;
 import static org.apache.camel.LoggingLevel.ERROR;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 import org.apache.camel.Exchange;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.Processor;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.model.ProcessorDefinition;
+import org.apache.camel.model.RouteDefinition;
 import org.apache.camel.model.dataformat.JsonLibrary;
 import org.slf4j.Logger;
 
 import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.http.HttpPathProcessor;
+import ca.islandora.alpaca.support.http.RequestDeadlines;
+import ca.islandora.alpaca.support.jms.ConsumerLane;
+import ca.islandora.alpaca.support.timing.ExchangeTimer;
+import ca.islandora.alpaca.support.timing.Stage;
 
 /**
  * @author dhlamb
@@ -40,14 +59,19 @@ public class DerivativeConnector extends RouteBuilder {
     private static final Logger LOGGER = getLogger(DerivativeConnector.class);
 
     /**
-     * Input source.
+     * The exchange property holding the event as it was received, to pass it on to a lane.
+     */
+    private static final String RAW_EVENT_PROPERTY = "AlpacaRawEvent";
+
+    /**
+     * Input sources, the interactive lane and the bulk lane if there is one.
      */
-    private final String inputStream;
+    private final List<ConsumerLane> inputStreams;
 
     /**
-     * Output target.
+     * Output targets, the endpoints of the service's instances.
      */
-    private final String outputStream;
+    private final List<String> outputStreams;
 
     /**
      * The name of this connector instance
@@ -73,15 +97,49 @@ public class DerivativeConnector extends RouteBuilder {
      */
     public DerivativeConnector(final String name, final String inputSource, final String outputSource,
                                final DerivativeOptions configuration) {
+        this(name, inputSource, List.of(outputSource), configuration);
+    }
+
+    /**
+     * Constructor for a service with several instances.
+     *
+     * @param name
+     *   The derivative connector name.
+     * @param inputSource
+     *   The input stream name.
+     * @param outputSources
+     *   The output target names, requests are balanced between them.
+     * @param configuration
+     *   The common configuration options.
+     */
+    public DerivativeConnector(final String name, final String inputSource, final List<String> outputSources,
+                               final DerivativeOptions configuration) {
+        this(name, List.of(new ConsumerLane(inputSource, false)), outputSources, configuration);
+    }
+
+    /**
+     * Constructor for a connector consuming interactive and bulk events apart.
+     *
+     * @param name
+     *   The derivative connector name.
+     * @param inputSources
+     *   The input lanes, the interactive lane and the bulk lane if there is one.
+     * @param outputSources
+     *   The output target names, requests are balanced between them.
+     * @param configuration
+     *   The common configuration options.
+     */
+    public DerivativeConnector(final String name, final List<ConsumerLane> inputSources,
+                               final List<String> outputSources, final DerivativeOptions configuration) {
         super();
         connectorName = name;
-        inputStream = inputSource;
-        outputStream = outputSource;
+        inputStreams = List.copyOf(inputSources);
+        outputStreams = List.copyOf(outputSources);
         config = configuration;
     }
 
     @Override
-    public void configure() {
+    public void configure() throws Exception {
         LOGGER.info("DerivativeConnector (" + connectorName + ") routes starting");
 
         // Global exception handler for the indexer.
@@ -91,35 +149,188 @@ public class DerivativeConnector extends RouteBuilder {
             .log(
                 ERROR,
                 LOGGER,
-                "(" + connectorName + ") Error connecting generating derivative with " + outputStream + ": " +
+                "(" + connectorName + ") Error connecting generating derivative with " +
+                String.join(", ", outputStreams) + ": " +
                 "${exception.message}\n\n${exception.stacktrace}"
             );
 
-        from(inputStream)
-            .routeId("IslandoraConnectorDerivative-" + connectorName)
+        final ExchangeTimer timing = config.timing();
+        // Abort the requests of a job past its deadline.
+        final Processor deadline = RequestDeadlines.deadline(getContext(), config.deadline(connectorName));
+        final DerivativeCache cache = config.derivativeCache();
+        final JobLanes lanes = config.jobLanes(connectorName);
 
-            .log(DEBUG, LOGGER, "Received message on IslandoraConnectorDerivative-" + connectorName)
+        // Shared by the lanes, so they see each other's requests and the service's instances are balanced as one.
+        final Processor inFlight = config.inFlight(connectorName);
+        Processor send = null;
+        if (config.isHedgeEnabled(connectorName)) {
+            // Send the request again if it is slow to answer, and use the first answer.
+            send = config.hedgedSend(connectorName, outputStreams);
+        } else if (outputStreams.size() > 1) {
+            // Spread the requests over the service's instances.
+            send = config.balancedSend(connectorName, outputStreams);
+        }
+
+        if (lanes == null) {
+            for (final ConsumerLane input : inputStreams) {
+                generate(from(input.getEndpoint()).routeId(input.routeId("IslandoraConnectorDerivative-" +
+                    connectorName)), timing, deadline, cache, inFlight, send);
+            }
+            return;
+        }
+
+        // The interactive and bulk jobs each have their own lanes.
+        final boolean bulkLanes = inputStreams.size() > 1;
+        for (final ConsumerLane input : inputStreams) {
+            classify(from(input.getEndpoint()).routeId(input.routeId("IslandoraConnectorDerivative-" +
+                connectorName)), timing, deadline, lanes, input.isBulk());
+            for (final String lane : List.of(JobLanes.SMALL, JobLanes.LARGE)) {
+                generate(from(config.laneStream(connectorName, lane, input.isBulk(), bulkLanes))
+                    .routeId(input.routeId("IslandoraConnectorDerivative-" + connectorName + "-" + lane))
+                    .process(lanes.track(lane)), timing, deadline, cache, inFlight, send);
+            }
+        }
+    }
+
+    /**
+     * Add the steps sorting the jobs by size into lanes to a route, so small jobs aren't held up behind large ones.
+     * @param from
+     *   The route, consuming the events.
+     * @param timing
+     *   The stage timings.
+     * @param deadline
+     *   Processor giving the job its deadline.
+     * @param lanes
+     *   The job lanes.
+     * @param bulk
+     *   Whether the route consumes the bulk jobs.
+     */
+    private void classify(final RouteDefinition from, final ExchangeTimer timing, final Processor deadline,
+                          final JobLanes lanes, final boolean bulk) {
+        from
+            .process(timing.start())
+            .process(deadline)
+            .log(DEBUG, LOGGER, "Received message on " + from.getRouteId())
+            .convertBodyTo(String.class)
+            .setProperty(RAW_EVENT_PROPERTY, body())
+            .unmarshal().json(JsonLibrary.Jackson, AS2Event.class)
+            .setProperty(EVENT_PROPERTY, body())
+            .process(timing.stage(Stage.PARSE))
+
+            // Get the size and type of the source.
+            .removeHeaders("*", "Authorization")
+            .setHeader(Exchange.HTTP_METHOD, constant("HEAD"))
+            .setBody(simple("${null}"))
+            .process(new HttpPathProcessor(SOURCE_URI))
+            .process(config.rateLimit(SOURCE_URI))
+            .toD(config.addHttpOptions(connectorName, "${exchangeProperty." + HTTP_ORIGIN_PROPERTY +
+                "}?throwExceptionOnFailure=false"), config.getHttpEndpointCacheSize())
+            .process(lanes.classify())
+
+            // Pass the event on unchanged.
+            .removeHeaders("*", "Authorization")
+            .setBody(exchangeProperty(RAW_EVENT_PROPERTY))
+            .log(DEBUG, LOGGER, "(" + connectorName + ") Sending the job to the ${exchangeProperty." +
+                JobLanes.LANE_PROPERTY + "} lane")
+            .choice()
+                .when(exchangeProperty(JobLanes.LANE_PROPERTY).isEqualTo(JobLanes.LARGE))
+                    .to(ExchangePattern.InOnly, config.laneQueue(connectorName, JobLanes.LARGE, bulk))
+                .otherwise()
+                    .to(ExchangePattern.InOnly, config.laneQueue(connectorName, JobLanes.SMALL, bulk))
+            .end();
+    }
+
+    /**
+     * Add the steps generating the derivative and uploading it to a route.
+     * @param from
+     *   The route, consuming the events.
+     * @param timing
+     *   The stage timings.
+     * @param deadline
+     *   Processor giving the job its deadline.
+     * @param cache
+     *   The derivative cache, or null.
+     * @param inFlight
+     *   Processor holding back duplicate requests.
+     * @param send
+     *   Processor sending the request to the service, or null to send it to the only endpoint.
+     */
+    private void generate(final RouteDefinition from, final ExchangeTimer timing, final Processor deadline,
+                          final DerivativeCache cache, final Processor inFlight, final Processor send) {
+        final String routeId = from.getRouteId();
+        final RouteDefinition route = from
+            .process(timing.start())
+            .process(deadline)
+
+            .log(DEBUG, LOGGER, "Received message on " + routeId)
 
             // Parse the event into a POJO.
             .unmarshal().json(JsonLibrary.Jackson, AS2Event.class)
+            .process(timing.stage(Stage.PARSE))
 
             // Stash the event on the exchange.
-            .setProperty("event").simple("${body}")
+            .setProperty(EVENT_PROPERTY, body())
+
+            // Hold back a request for a derivative already being generated.
+            .process(inFlight);
 
-            // Make the Crayfish request.
+        final ExecutorService bulkhead = config.bulkhead(connectorName).getExecutor();
+        if (bulkhead != null) {
+            // Generate it on the connector's own threads, failing at once if they are all busy.
+            route.threads().executorService(bulkhead).callerRunsWhenRejected(false);
+        }
+
+        ProcessorDefinition<?> generate = route;
+        if (cache != null) {
+            // Get the digest of the source, and the derivative if it is cached.
+            generate = route
+                .removeHeaders("*", "Authorization")
+                .setHeader(Exchange.HTTP_METHOD, constant("HEAD"))
+                .setBody(simple("${null}"))
+                .process(new HttpPathProcessor(SOURCE_URI))
+                .process(config.rateLimit(SOURCE_URI))
+                .toD(config.addHttpOptions(connectorName, "${exchangeProperty." + HTTP_ORIGIN_PROPERTY +
+                    "}?throwExceptionOnFailure=false"), config.getHttpEndpointCacheSize())
+                .process(cache.lookup(connectorName))
+                .filter(exchangeProperty(DerivativeCache.CACHE_HIT_PROPERTY).isNotEqualTo(true));
+        }
+
+        // Make the Crayfish request.
+        generate = generate
             .removeHeaders("*", "Authorization")
             .setHeader(Exchange.HTTP_METHOD, constant("GET"))
-            .setHeader("Accept", simple("${exchangeProperty.event.attachment.content.mimetype}"))
-            .setHeader("X-Islandora-Args", simple("${exchangeProperty.event.attachment.content.args}"))
-            .setHeader("Apix-Ldp-Resource", simple("${exchangeProperty.event.attachment.content.sourceUri}"))
-            .setBody(simple("${null}"))
-            .to(outputStream)
+            .setHeader("Accept", MIMETYPE)
+            .setHeader("X-Islandora-Args", ARGS)
+            .setHeader("Apix-Ldp-Resource", SOURCE_URI)
+            .setBody(simple("${null}"));
+        if (send == null) {
+            generate = generate
+                .process(config.rateLimit(outputStreams.get(0)))
+                .to(outputStreams.get(0));
+        } else {
+            generate = generate.process(send);
+        }
+
+        if (cache != null) {
+            generate.process(cache.store());
+        }
+
+        route
+            .process(timing.stage(Stage.FETCH))
+
+            // Don't upload a derivative the destination already has.
+            .process(config.skipUnchanged(connectorName))
 
             // PUT the media.
             .removeHeaders("*", "Authorization", "Content-Type")
-            .setHeader("Content-Location", simple("${exchangeProperty.event.attachment.content.fileUploadUri}"))
+            .setHeader("Content-Location", FILE_UPLOAD_URI)
             .setHeader(Exchange.HTTP_METHOD, constant("PUT"))
-            .toD(config.addHttpOptions("${exchangeProperty.event.attachment.content.destinationUri}"));
+            // Send to scheme://host:port with the path in a header, so there is one producer per host.
+            .process(new HttpPathProcessor(DESTINATION_URI))
+            .process(config.rateLimit(DESTINATION_URI))
+            .toD(config.addHttpOptions(connectorName, "${exchangeProperty." + HTTP_ORIGIN_PROPERTY +
+                "}"), config.getHttpEndpointCacheSize())
+            .process(timing.stage(Stage.WRITE));
     }
 
 }
@@ -17,15 +17,26 @@
  */
 package ca.islandora.alpaca.connector.derivative;
 
+import static ca.islandora.alpaca.support.config.RequestConfigurerConfig.SOCKET_TIMEOUT_PROPERTY;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 
 import org.apache.camel.CamelContext;
+import org.apache.camel.Processor;
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.builder.ExpressionBuilder;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -33,6 +44,12 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 
 import ca.islandora.alpaca.support.config.PropertyConfig;
+import ca.islandora.alpaca.support.http.BalancedSendProcessor;
+import ca.islandora.alpaca.support.http.EndpointBalancer;
+import ca.islandora.alpaca.support.http.HedgePolicy;
+import ca.islandora.alpaca.support.http.HedgedSendProcessor;
+import ca.islandora.alpaca.support.http.ServiceBulkhead;
+import ca.islandora.alpaca.support.jms.ConsumerLane;
 
 /**
  * Base derivative configuration class.
@@ -51,6 +68,34 @@ public class DerivativeOptions extends PropertyConfig {
   private static final String DERIVATIVE_CONCURRENT_PROPERTY = "concurrent-consumers";
   private static final String DERIVATIVE_MAX_CONCURRENT_PROPERTY = "max-concurrent-consumers";
   private static final String DERIVATIVE_ASYNC_CONSUMER = "async-consumer";
+  private static final String DERIVATIVE_DEDUPE_PROPERTY = "dedupe";
+  private static final long DEFAULT_DEDUPE_WAIT = 300000;
+  private static final String DERIVATIVE_CACHE_DIRECTORY = "derivative.cache.directory";
+  private static final String DERIVATIVE_CACHE_MAX_BYTES = "derivative.cache.max_bytes";
+  private static final String DERIVATIVE_SKIP_UNCHANGED_PROPERTY = "skip-unchanged";
+  private static final String DERIVATIVE_UPLOAD_INDEX_SIZE = "derivative.upload_index.size";
+  private static final String DERIVATIVE_UPLOAD_INDEX_TTL = "derivative.upload_index.ttl";
+  private static final String DERIVATIVE_EJECT_AFTER_PROPERTY = "service.eject-after";
+  private static final String DERIVATIVE_EJECT_TIME_PROPERTY = "service.eject-time";
+  private static final String DERIVATIVE_HEDGE_ENABLED_PROPERTY = "hedge.enabled";
+  private static final String DERIVATIVE_HEDGE_DELAY_PROPERTY = "hedge.delay";
+  private static final String DERIVATIVE_HEDGE_BUDGET_PROPERTY = "hedge.budget";
+  private static final String DERIVATIVE_LANES_ENABLED_PROPERTY = "lanes.enabled";
+  private static final String DERIVATIVE_LANES_LARGE_BYTES_PROPERTY = "lanes.large-bytes";
+  private static final String DERIVATIVE_LANES_LARGE_MIMETYPES_PROPERTY = "lanes.large-mimetypes";
+  private static final String DERIVATIVE_LANES_LARGE_ARGS_PROPERTY = "lanes.large-args";
+  private static final String DERIVATIVE_LANES_LARGE_CONSUMERS_PROPERTY = "lanes.large-consumers";
+  private static final String DERIVATIVE_BULK_MODE_PROPERTY = "bulk.mode";
+  private static final String DERIVATIVE_BULK_PRIORITY_PROPERTY = "bulk.priority";
+  private static final String DERIVATIVE_BULK_INTERACTIVE_PROPERTY = "bulk.interactive-consumers";
+  private static final String DERIVATIVE_BULKHEAD_THREADS_PROPERTY = "bulkhead.threads";
+  private static final String DERIVATIVE_BULKHEAD_QUEUE_PROPERTY = "bulkhead.queue";
+  private static final String DERIVATIVE_BULKHEAD_CONNECTIONS_PROPERTY = "bulkhead.connections";
+  private static final String DERIVATIVE_REQUEST_TIMEOUT_PROPERTY = "request.timeout";
+  private static final String DERIVATIVE_CONNECT_TIMEOUT_PROPERTY = "connection.timeout";
+  private static final String DERIVATIVE_SOCKET_TIMEOUT_PROPERTY = "socket.timeout";
+  private static final String DERIVATIVE_DEADLINE_PROPERTY = "deadline";
+  private static final String DERIVATIVE_SELECTOR_PROPERTY = "in.selector";
 
   @Autowired
   private Environment environment;
@@ -61,6 +106,24 @@ public class DerivativeOptions extends PropertyConfig {
   @Value("${" + DERIVATIVE_LIST_PROPERTY + ":#{null}}")
   private String derivativeSystems;
 
+  @Value("${" + DERIVATIVE_CACHE_DIRECTORY + ":}")
+  private String cacheDirectory;
+
+  @Value("${" + DERIVATIVE_CACHE_MAX_BYTES + ":1073741824}")
+  private long cacheMaxBytes;
+
+  private DerivativeCache derivativeCache;
+
+  @Value("${" + DERIVATIVE_UPLOAD_INDEX_SIZE + ":10000}")
+  private int uploadIndexSize;
+
+  @Value("${" + DERIVATIVE_UPLOAD_INDEX_TTL + ":3600000}")
+  private long uploadIndexTtl;
+
+  private UploadDigestIndex uploadDigestIndex;
+
+  private final Map<String, ServiceBulkhead> bulkheads = new HashMap<>();
+
   /**
    * Register additional beans for derivative routes.
    *
@@ -103,12 +166,20 @@ public class DerivativeOptions extends PropertyConfig {
                 Integer.class, -1);
         final boolean asyncConsumer = environment.getProperty(asyncConsumerProperty(serviceName),
                 Boolean.class, false);
-        // Add concurrent/max-concurrent
-        final String finalInput = addJmsOptions(addBrokerName(input), concurrentConsumers, maxConcurrentConsumers,
-                asyncConsumer);
-        // Add connectionClose and other http options.
-        final String finalOutput = addHttpOptions(output);
-        camelContext.addRoutes(new DerivativeConnector(serviceName, finalInput, finalOutput, this));
+        // Add concurrent/max-concurrent, to the bulk lane if the interactive lane has consumers of its own.
+        final int interactiveConsumers = Math.max(1,
+                environment.getProperty(bulkInteractiveProperty(serviceName), Integer.class, 1));
+        final List<ConsumerLane> finalInputs = consumerLanes(addBrokerName(input), bulkModeProperty(serviceName),
+                environment.getProperty(bulkModeProperty(serviceName), "off"),
+                environment.getProperty(bulkPriorityProperty(serviceName), Integer.class, 4),
+                messageSelector(selectorProperty(serviceName),
+                        environment.getProperty(selectorProperty(serviceName), "")),
+                queue -> addJmsOptions(queue, interactiveConsumers, interactiveConsumers, asyncConsumer),
+                queue -> addJmsOptions(queue, concurrentConsumers, maxConcurrentConsumers, asyncConsumer));
+        // Add connectionClose and other http options, to each instance of the service.
+        final List<String> finalOutputs = Arrays.stream(output.split(",")).map(String::trim)
+                .filter(o -> !o.isEmpty()).map(o -> addHttpOptions(serviceName, o)).collect(Collectors.toList());
+        camelContext.addRoutes(new DerivativeConnector(serviceName, finalInputs, finalOutputs, this));
       } else {
         final StringBuilder message = new StringBuilder();
         if (input.isBlank()) {
@@ -126,6 +197,277 @@ public class DerivativeOptions extends PropertyConfig {
 
   }
 
+  /**
+   * Processor which holds back a request for a derivative the connector is already generating, according to the
+   * derivative.(system).dedupe property: off (the default), wait or skip. A waiting request without a deadline waits
+   * at most the connector's socket timeout, or 5 minutes if there is none.
+   * @param serviceName
+   *   The derivative service name.
+   * @return
+   *   The in flight registry of the connector.
+   */
+  public Processor inFlight(final String serviceName) {
+    final String mode = environment.getProperty(dedupeProperty(serviceName), "off");
+    int socketTimeout = environment.getProperty(socketTimeoutProperty(serviceName), Integer.class, -1);
+    if (socketTimeout < 0) {
+      socketTimeout = environment.getProperty(SOCKET_TIMEOUT_PROPERTY, Integer.class, -1);
+    }
+    // A socket timeout of 0 is infinite.
+    final long maxWait = socketTimeout > 0 ? socketTimeout : DEFAULT_DEDUPE_WAIT;
+    try {
+      return new InFlightRegistry(serviceName, InFlightRegistry.Mode.of(mode), maxWait);
+    } catch (final IllegalArgumentException e) {
+      LOGGER.warn("Ignoring invalid value \"{}\" of {}, expected off, wait or skip", mode,
+              dedupeProperty(serviceName));
+      return new InFlightRegistry(serviceName, InFlightRegistry.Mode.OFF, maxWait);
+    }
+  }
+
+  /**
+   * The cache of derivatives shared by all connectors, if derivative.cache.directory is set.
+   * @return
+   *   The derivative cache, or null if there is none.
+   * @throws IOException
+   *   If the cache directory cannot be created or read.
+   */
+  public synchronized DerivativeCache derivativeCache() throws IOException {
+    if (derivativeCache == null && cacheDirectory != null && !cacheDirectory.isBlank()) {
+      derivativeCache = new DerivativeCache(Paths.get(cacheDirectory.trim()), cacheMaxBytes);
+    }
+    return derivativeCache;
+  }
+
+  /**
+   * Processor which stops the route when the derivative is the same as the one last uploaded to its destination,
+   * if the derivative.(system).skip-unchanged property is true.
+   * @param serviceName
+   *   The derivative service name.
+   * @return
+   *   The processor.
+   */
+  public Processor skipUnchanged(final String serviceName) {
+    if (!environment.getProperty(skipUnchangedProperty(serviceName), Boolean.class, false)) {
+      return exchange -> { };
+    }
+    return uploadDigestIndex().skipUnchanged(serviceName);
+  }
+
+  /**
+   * @return the digests of the derivatives uploaded by all connectors.
+   */
+  private synchronized UploadDigestIndex uploadDigestIndex() {
+    if (uploadDigestIndex == null) {
+      uploadDigestIndex = new UploadDigestIndex(uploadIndexSize, uploadIndexTtl);
+    }
+    return uploadDigestIndex;
+  }
+
+  /**
+   * Processor which sends the exchange to one of the instances of a service, balancing the requests between them.
+   * An instance is ejected for derivative.(system).service.eject-time milliseconds (default 30000) after
+   * derivative.(system).service.eject-after consecutive failures (default 3).
+   * @param serviceName
+   *   The derivative service name.
+   * @param serviceUris
+   *   The endpoints of the service's instances.
+   * @return
+   *   The processor.
+   */
+  public Processor balancedSend(final String serviceName, final List<String> serviceUris) {
+    return new BalancedSendProcessor(camelContext, balancer(serviceName, serviceUris),
+        rateLimit(ExpressionBuilder.exchangePropertyExpression(BalancedSendProcessor.SERVICE_ENDPOINT_PROPERTY)));
+  }
+
+  /**
+   * The lanes to sort the connector's jobs into by size, if derivative.(system).lanes.enabled is true. A job is large
+   * if its source is at least derivative.(system).lanes.large-bytes (default 104857600), its source's Content-Type is
+   * one of the comma separated derivative.(system).lanes.large-mimetypes or its args match the
+   * derivative.(system).lanes.large-args regular expression.
+   * @param serviceName
+   *   The derivative service name.
+   * @return
+   *   The lanes, or null if the jobs aren't sorted.
+   */
+  public JobLanes jobLanes(final String serviceName) {
+    if (!environment.getProperty(lanesEnabledProperty(serviceName), Boolean.class, false)) {
+      return null;
+    }
+    final String args = environment.getProperty(lanesLargeArgsProperty(serviceName), "");
+    Pattern largeArgs = null;
+    if (!args.isBlank()) {
+      try {
+        largeArgs = Pattern.compile(args.trim());
+      } catch (final PatternSyntaxException e) {
+        LOGGER.warn("Ignoring invalid regular expression \"{}\" of {}", args, lanesLargeArgsProperty(serviceName));
+      }
+    }
+    return new JobLanes(serviceName,
+        environment.getProperty(lanesLargeBytesProperty(serviceName), Long.class, 104857600L),
+        Arrays.asList(environment.getProperty(lanesLargeMimetypesProperty(serviceName), "").split(",")),
+        largeArgs);
+  }
+
+  /**
+   * The endpoint to consume a lane's jobs from, see laneQueue(). The small lane has the connector's consumers, or
+   * derivative.(system).bulk.interactive-consumers for the interactive jobs of a connector with a bulk lane, and the
+   * large lane derivative.(system).lanes.large-consumers (default 1).
+   * @param serviceName
+   *   The derivative service name.
+   * @param lane
+   *   The lane, JobLanes.SMALL or JobLanes.LARGE.
+   * @param bulk
+   *   Whether it is the lane of the bulk jobs.
+   * @param bulkLanes
+   *   Whether the connector keeps its bulk jobs apart.
+   * @return
+   *   The endpoint.
+   */
+  public String laneStream(final String serviceName, final String lane, final boolean bulk,
+                           final boolean bulkLanes) {
+    final boolean asyncConsumer = environment.getProperty(asyncConsumerProperty(serviceName), Boolean.class, false);
+    final String queue = laneQueue(serviceName, lane, bulk);
+    if (JobLanes.LARGE.equals(lane)) {
+      // At least one consumer, so large jobs are never starved.
+      final int consumers = Math.max(1,
+          environment.getProperty(lanesLargeConsumersProperty(serviceName), Integer.class, 1));
+      return addJmsOptions(queue, consumers, consumers, asyncConsumer);
+    }
+    if (bulkLanes && !bulk) {
+      final int consumers = Math.max(1,
+          environment.getProperty(bulkInteractiveProperty(serviceName), Integer.class, 1));
+      return addJmsOptions(queue, consumers, consumers, asyncConsumer);
+    }
+    return addJmsOptions(queue,
+        environment.getProperty(concurrentConsumerProperty(serviceName), Integer.class, -1),
+        environment.getProperty(maxConcurrentConsumerProperty(serviceName), Integer.class, -1), asyncConsumer);
+  }
+
+  /**
+   * The endpoint to send a lane's jobs to, the connector's queue with .small or .large appended, and .bulk before
+   * that for the bulk jobs so they never wait ahead of the interactive ones.
+   * @param serviceName
+   *   The derivative service name.
+   * @param lane
+   *   The lane, JobLanes.SMALL or JobLanes.LARGE.
+   * @param bulk
+   *   Whether it is the lane of the bulk jobs.
+   * @return
+   *   The endpoint.
+   */
+  public String laneQueue(final String serviceName, final String lane, final boolean bulk) {
+    final String input = environment.getProperty(inputProperty(serviceName), "").trim();
+    final String queue = input.startsWith("queue:") || input.startsWith("topic:") ? input.substring(6) : input;
+    return addBrokerName("queue:" + queue + (bulk ? ".bulk." : ".") + lane);
+  }
+
+  /**
+   * The resources kept for the connector alone: if derivative.(system).bulkhead.connections is set a pool of that many
+   * connections, and if derivative.(system).bulkhead.threads is set a pool of that many threads with
+   * derivative.(system).bulkhead.queue (default 10) jobs waiting for them.
+   * @param serviceName
+   *   The derivative service name.
+   * @return
+   *   The connector's bulkhead.
+   */
+  public synchronized ServiceBulkhead bulkhead(final String serviceName) {
+    return bulkheads.computeIfAbsent(serviceName, name -> {
+      final ServiceBulkhead bulkhead = new ServiceBulkhead(camelContext, name,
+          environment.getProperty(bulkheadThreadsProperty(name), Integer.class, -1),
+          environment.getProperty(bulkheadQueueProperty(name), Integer.class, 10),
+          environment.getProperty(bulkheadConnectionsProperty(name), Integer.class, -1));
+      try {
+        camelContext.addService(bulkhead, true);
+      } catch (final Exception e) {
+        throw new RuntimeCamelException(e);
+      }
+      return bulkhead;
+    });
+  }
+
+  /**
+   * Utility to add the common http options, and the connector's connection pool and timeouts to an http endpoint.
+   * The derivative.(system).request.timeout, connection.timeout and socket.timeout properties (milliseconds) override
+   * the global ones when they aren't -1.
+   * @param serviceName
+   *   The derivative service name.
+   * @param httpEndpoint
+   *   The http endpoint string.
+   * @return
+   *   The modified http endpoint string.
+   */
+  public String addHttpOptions(final String serviceName, final String httpEndpoint) {
+    final StringBuilder builder = new StringBuilder(bulkhead(serviceName).addOptions(addHttpOptions(httpEndpoint)));
+    final int requestTimeout = environment.getProperty(requestTimeoutProperty(serviceName), Integer.class, -1);
+    if (requestTimeout >= 0) {
+      builder.append("&connectionRequestTimeout=").append(requestTimeout);
+    }
+    final int connectTimeout = environment.getProperty(connectTimeoutProperty(serviceName), Integer.class, -1);
+    if (connectTimeout >= 0) {
+      builder.append("&connectTimeout=").append(connectTimeout);
+    }
+    final int socketTimeout = environment.getProperty(socketTimeoutProperty(serviceName), Integer.class, -1);
+    if (socketTimeout >= 0) {
+      builder.append("&socketTimeout=").append(socketTimeout);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * @param serviceName
+   *   The derivative service name.
+   * @return the milliseconds a job's requests have to be answered in, derivative.(system).deadline, or -1 for no
+   *   deadline.
+   */
+  public long deadline(final String serviceName) {
+    return environment.getProperty(deadlineProperty(serviceName), Long.class, -1L);
+  }
+
+  /**
+   * @param serviceName
+   *   The derivative service name.
+   * @return whether derivative.(system).hedge.enabled is true.
+   */
+  public boolean isHedgeEnabled(final String serviceName) {
+    return environment.getProperty(hedgeEnabledProperty(serviceName), Boolean.class, false);
+  }
+
+  /**
+   * Processor which sends the request to the service, and sends it again if it isn't answered within
+   * derivative.(system).hedge.delay milliseconds, or the 95th percentile of the response times if -1 (the default).
+   * At most derivative.(system).hedge.budget percent (default 10) of the requests are sent again, to another of the
+   * service's instances if it has several.
+   * @param serviceName
+   *   The derivative service name.
+   * @param serviceUris
+   *   The endpoints of the service's instances.
+   * @return
+   *   The processor.
+   */
+  public Processor hedgedSend(final String serviceName, final List<String> serviceUris) {
+    final var policy = new HedgePolicy(serviceName,
+        environment.getProperty(hedgeDelayProperty(serviceName), Long.class, -1L),
+        environment.getProperty(hedgeBudgetProperty(serviceName), Double.class, 10.0));
+    if (serviceUris.size() == 1) {
+      return new HedgedSendProcessor(camelContext, policy, ExpressionBuilder.constantExpression(serviceUris.get(0)),
+          rateLimit(serviceUris.get(0)), 1);
+    }
+    return new HedgedSendProcessor(camelContext, policy, balancer(serviceName, serviceUris),
+        rateLimit(ExpressionBuilder.exchangePropertyExpression(BalancedSendProcessor.SERVICE_ENDPOINT_PROPERTY)));
+  }
+
+  /**
+   * @param serviceName
+   *   The derivative service name.
+   * @param serviceUris
+   *   The endpoints of the service's instances.
+   * @return the balancer of the service's instances.
+   */
+  private EndpointBalancer balancer(final String serviceName, final List<String> serviceUris) {
+    return new EndpointBalancer(serviceName, serviceUris,
+        environment.getProperty(ejectAfterProperty(serviceName), Integer.class, 3),
+        environment.getProperty(ejectTimeProperty(serviceName), Long.class, 30000L));
+  }
+
   /**
    * Just adds the JMS broker name to the provided queue/topic.
    * @param queueName the provided queue/topic.
@@ -189,4 +531,211 @@ public class DerivativeOptions extends PropertyConfig {
       return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_ASYNC_CONSUMER;
   }
 
+  /**
+   * Return the expected dedupe property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String dedupeProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_DEDUPE_PROPERTY;
+  }
+
+  /**
+   * Return the expected skip-unchanged property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String skipUnchangedProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_SKIP_UNCHANGED_PROPERTY;
+  }
+
+  /**
+   * Return the expected service eject-after property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String ejectAfterProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_EJECT_AFTER_PROPERTY;
+  }
+
+  /**
+   * Return the expected service eject-time property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String ejectTimeProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_EJECT_TIME_PROPERTY;
+  }
+
+  /**
+   * Return the expected hedge.enabled property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String hedgeEnabledProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_HEDGE_ENABLED_PROPERTY;
+  }
+
+  /**
+   * Return the expected hedge.delay property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String hedgeDelayProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_HEDGE_DELAY_PROPERTY;
+  }
+
+  /**
+   * Return the expected hedge.budget property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String hedgeBudgetProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_HEDGE_BUDGET_PROPERTY;
+  }
+
+  /**
+   * Return the expected lanes.enabled property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String lanesEnabledProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_LANES_ENABLED_PROPERTY;
+  }
+
+  /**
+   * Return the expected lanes.large-bytes property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String lanesLargeBytesProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_LANES_LARGE_BYTES_PROPERTY;
+  }
+
+  /**
+   * Return the expected lanes.large-mimetypes property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String lanesLargeMimetypesProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_LANES_LARGE_MIMETYPES_PROPERTY;
+  }
+
+  /**
+   * Return the expected lanes.large-args property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String lanesLargeArgsProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_LANES_LARGE_ARGS_PROPERTY;
+  }
+
+  /**
+   * Return the expected lanes.large-consumers property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String lanesLargeConsumersProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_LANES_LARGE_CONSUMERS_PROPERTY;
+  }
+
+  /**
+   * Return the expected bulk.mode property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String bulkModeProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_BULK_MODE_PROPERTY;
+  }
+
+  /**
+   * Return the expected bulk.priority property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String bulkPriorityProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_BULK_PRIORITY_PROPERTY;
+  }
+
+  /**
+   * Return the expected bulk.interactive-consumers property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String bulkInteractiveProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_BULK_INTERACTIVE_PROPERTY;
+  }
+
+  /**
+   * Return the expected bulkhead.threads property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String bulkheadThreadsProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_BULKHEAD_THREADS_PROPERTY;
+  }
+
+  /**
+   * Return the expected bulkhead.queue property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String bulkheadQueueProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_BULKHEAD_QUEUE_PROPERTY;
+  }
+
+  /**
+   * Return the expected bulkhead.connections property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String bulkheadConnectionsProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_BULKHEAD_CONNECTIONS_PROPERTY;
+  }
+
+  /**
+   * Return the expected request.timeout property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String requestTimeoutProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_REQUEST_TIMEOUT_PROPERTY;
+  }
+
+  /**
+   * Return the expected connection.timeout property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String connectTimeoutProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_CONNECT_TIMEOUT_PROPERTY;
+  }
+
+  /**
+   * Return the expected socket.timeout property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String socketTimeoutProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_SOCKET_TIMEOUT_PROPERTY;
+  }
+
+  /**
+   * Return the expected deadline property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String deadlineProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_DEADLINE_PROPERTY;
+  }
+
+  /**
+   * Return the expected message selector property.
+   * @param systemName the derivative system name
+   * @return the property
+   */
+  private String selectorProperty(final String systemName) {
+    return DERIVATIVE_PREFIX + "." + systemName + "." + DERIVATIVE_SELECTOR_PROPERTY;
+  }
+
 }
@@ -0,0 +1,181 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.connector.derivative;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ExtendedExchange;
+import org.apache.camel.Processor;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.slf4j.Logger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import ca.islandora.alpaca.support.event.AS2Attachment;
+import ca.islandora.alpaca.support.event.AS2AttachmentContent;
+import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.event.AS2EventExpressions;
+import ca.islandora.alpaca.support.http.RequestDeadlines;
+
+/**
+ * Registry of the derivatives being generated, so a request for a derivative which is already being generated isn't
+ * sent to the service again.
+ *
+ * Requests are the same if they are for the same connector, source uri, args, mimetype and destination uri. In WAIT
+ * mode a duplicate waits for the request being processed, and is done if it succeeded or takes its place if it
+ * failed. It waits until its own deadline if it has one, otherwise for at most the maximum wait, and then is
+ * processed anyway. In SKIP mode a duplicate is done at once. Must follow the processor that sets the parsed event as
+ * the "event" exchange property.
+ *
+ * @author agent
+ */
+public class InFlightRegistry implements Processor {
+
+    private static final Logger LOGGER = getLogger(InFlightRegistry.class);
+
+    /**
+     * What to do with a duplicate request.
+     */
+    public enum Mode {
+        /**
+         * Process it anyway.
+         */
+        OFF,
+        /**
+         * Wait for the request being processed.
+         */
+        WAIT,
+        /**
+         * Drop it.
+         */
+        SKIP;
+
+        /**
+         * @param value
+         *   The mode's name, in any case.
+         * @return the mode.
+         */
+        public static Mode of(final String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final String connectorName;
+
+    private final Mode mode;
+
+    private final long maxWaitNanos;
+
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter waited;
+
+    private final Counter skipped;
+
+    private final Counter timedOut;
+
+    /**
+     * Basic constructor.
+     * @param connectorName
+     *   The derivative connector name.
+     * @param mode
+     *   What to do with a duplicate request.
+     * @param maxWaitMillis
+     *   In WAIT mode, the most milliseconds a duplicate without a deadline waits before it is processed anyway.
+     */
+    public InFlightRegistry(final String connectorName, final Mode mode, final long maxWaitMillis) {
+        this.connectorName = connectorName;
+        this.mode = mode;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.waited = Counter.builder("alpaca.derivative.duplicates").description("Duplicate derivative requests")
+                .tag("connector", connectorName).tag("action", "waited").register(Metrics.globalRegistry);
+        this.skipped = Counter.builder("alpaca.derivative.duplicates").description("Duplicate derivative requests")
+                .tag("connector", connectorName).tag("action", "skipped").register(Metrics.globalRegistry);
+        this.timedOut = Counter.builder("alpaca.derivative.duplicates").description("Duplicate derivative requests")
+                .tag("connector", connectorName).tag("action", "timed_out").register(Metrics.globalRegistry);
+    }
+
+    @Override
+    public void process(final Exchange exchange) throws Exception {
+        final AS2Event event = exchange.getProperty(AS2EventExpressions.EVENT_PROPERTY, AS2Event.class);
+        final AS2Attachment attachment = event == null ? null : event.getAttachment();
+        final AS2AttachmentContent content = attachment == null ? null : attachment.getContent();
+        if (mode == Mode.OFF || content == null) {
+            return;
+        }
+        // The unit separator won't appear in a uri, args or mimetype.
+        final String key = String.join("\u001f", connectorName, String.valueOf(content.getSourceUri()),
+                String.valueOf(content.getArgs()), String.valueOf(content.getMimetype()),
+                String.valueOf(content.getDestinationUri()));
+        while (true) {
+            final CompletableFuture<Boolean> done = new CompletableFuture<>();
+            final CompletableFuture<Boolean> running = inFlight.putIfAbsent(key, done);
+            if (running == null) {
+                exchange.adapt(ExtendedExchange.class).addOnCompletion(new SynchronizationAdapter() {
+                    @Override
+                    public void onDone(final Exchange completed) {
+                        inFlight.remove(key, done);
+                        done.complete(!completed.isFailed());
+                    }
+                });
+                return;
+            }
+            if (mode == Mode.SKIP) {
+                LOGGER.info("({}) Skipping derivative of {} for {}, it is already being generated", connectorName,
+                        content.getSourceUri(), content.getDestinationUri());
+                skipped.increment();
+                exchange.setRouteStop(true);
+                return;
+            }
+            LOGGER.debug("({}) Waiting for the derivative of {} already being generated", connectorName,
+                    content.getSourceUri());
+            // This runs on the consumer's thread, so never wait longer than the request itself may take.
+            final Long deadline = exchange.getProperty(RequestDeadlines.DEADLINE_PROPERTY, Long.class);
+            final long waitNanos = deadline == null ? maxWaitNanos : deadline - System.nanoTime();
+            try {
+                if (running.get(Math.max(0, waitNanos), TimeUnit.NANOSECONDS)) {
+                    waited.increment();
+                    exchange.setRouteStop(true);
+                    return;
+                }
+            } catch (final TimeoutException e) {
+                LOGGER.info("({}) Gave up waiting for the derivative of {} already being generated, generating it "
+                        + "again", connectorName, content.getSourceUri());
+                timedOut.increment();
+                return;
+            }
+            // It failed, generate it with this request.
+        }
+    }
+
+    /**
+     * @return the number of derivatives being generated.
+     */
+    int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.connector.derivative;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ExtendedExchange;
+import org.apache.camel.Processor;
+import org.apache.camel.support.SynchronizationAdapter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import ca.islandora.alpaca.support.event.AS2Attachment;
+import ca.islandora.alpaca.support.event.AS2AttachmentContent;
+import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.event.AS2EventExpressions;
+
+/**
+ * Sorts a connector's requests into a lane for small jobs and one for large jobs, each a queue with its own
+ * consumers, so a few long jobs can't hold up the many short ones queued behind them.
+ *
+ * A job is large if its source's Content-Length is at least the large bytes, its source's Content-Type matches one of
+ * the large mimetypes (ie. video/*) or its args match the large args pattern. Jobs whose source size and type aren't
+ * known go in the small lane.
+ * The large lane keeps its own consumers however many small jobs arrive, so large jobs are never starved. Must follow
+ * the HEAD request for the source and the processor that sets the parsed event as the "event" exchange property.
+ *
+ * @author agent
+ */
+public class JobLanes {
+
+    /**
+     * The exchange property holding the lane a job was sorted into.
+     */
+    public static final String LANE_PROPERTY = "AlpacaDerivativeLane";
+
+    /**
+     * The lane for small jobs.
+     */
+    public static final String SMALL = "small";
+
+    /**
+     * The lane for large jobs.
+     */
+    public static final String LARGE = "large";
+
+    private final String connectorName;
+
+    private final long largeBytes;
+
+    private final List<String> largeMimetypes;
+
+    private final Pattern largeArgs;
+
+    private final Counter small;
+
+    private final Counter large;
+
+    /**
+     * Basic constructor.
+     * @param connectorName
+     *   The derivative connector name.
+     * @param largeBytes
+     *   Sources of at least this many bytes are large jobs, -1 to not sort by size.
+     * @param largeMimetypes
+     *   Mimetypes of the sources of large jobs, a type ending in /* matches all its subtypes.
+     * @param largeArgs
+     *   Pattern matching the args of large jobs, or null.
+     */
+    public JobLanes(final String connectorName, final long largeBytes, final List<String> largeMimetypes,
+                    final Pattern largeArgs) {
+        this.connectorName = connectorName;
+        this.largeBytes = largeBytes;
+        this.largeMimetypes = largeMimetypes.stream().map(String::trim).filter(m -> !m.isEmpty())
+                .map(m -> m.toLowerCase(Locale.ROOT)).collect(Collectors.toList());
+        this.largeArgs = largeArgs;
+        this.small = counter(SMALL);
+        this.large = counter(LARGE);
+    }
+
+    /**
+     * @return processor which sets the lane of the job as the LANE_PROPERTY.
+     */
+    public Processor classify() {
+        return exchange -> {
+            final AS2Event event = exchange.getProperty(AS2EventExpressions.EVENT_PROPERTY, AS2Event.class);
+            final AS2Attachment attachment = event == null ? null : event.getAttachment();
+            final AS2AttachmentContent content = attachment == null ? null : attachment.getContent();
+            final Integer status = exchange.getMessage().getHeader(Exchange.HTTP_RESPONSE_CODE, Integer.class);
+            final boolean found = status != null && status == 200;
+            final Long length = found ? exchange.getMessage().getHeader(Exchange.CONTENT_LENGTH, Long.class) : null;
+            final String type = found ? exchange.getMessage().getHeader(Exchange.CONTENT_TYPE, String.class) : null;
+            final String lane = content == null ? SMALL :
+                    lane(type, content.getArgs(), length == null ? -1 : length);
+            (LARGE.equals(lane) ? large : small).increment();
+            exchange.setProperty(LANE_PROPERTY, lane);
+        };
+    }
+
+    /**
+     * @param lane
+     *   The lane, SMALL or LARGE.
+     * @return processor which records how long the job takes once it is done, in the lane's timer.
+     */
+    public Processor track(final String lane) {
+        final Timer succeeded = timer(lane, "success");
+        final Timer failed = timer(lane, "failure");
+        return exchange -> {
+            final long start = System.nanoTime();
+            exchange.adapt(ExtendedExchange.class).addOnCompletion(new SynchronizationAdapter() {
+                @Override
+                public void onDone(final Exchange completed) {
+                    (completed.isFailed() ? failed : succeeded).record(System.nanoTime() - start,
+                            TimeUnit.NANOSECONDS);
+                }
+            });
+        };
+    }
+
+    /**
+     * @param contentType
+     *   The Content-Type of the source, or null if it isn't known.
+     * @param args
+     *   The args for the service.
+     * @param contentLength
+     *   The size of the source in bytes, or -1 if it isn't known.
+     * @return the lane of the job.
+     */
+    String lane(final String contentType, final String args, final long contentLength) {
+        if (largeBytes >= 0 && contentLength >= largeBytes) {
+            return LARGE;
+        }
+        if (contentType != null) {
+            // Without parameters, ie. "video/mp4; codecs=avc1".
+            final String type = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+            for (final String large : largeMimetypes) {
+                if (large.endsWith("/*") ? type.startsWith(large.substring(0, large.length() - 1)) :
+                        type.equals(large)) {
+                    return LARGE;
+                }
+            }
+        }
+        if (largeArgs != null && args != null && largeArgs.matcher(args).find()) {
+            return LARGE;
+        }
+        return SMALL;
+    }
+
+    private Counter counter(final String lane) {
+        return Counter.builder("alpaca.derivative.lane.routed").description("Derivative jobs sorted into each lane")
+                .tag("connector", connectorName).tag("lane", lane).register(Metrics.globalRegistry);
+    }
+
+    private Timer timer(final String lane, final String outcome) {
+        return Timer.builder("alpaca.derivative.lane.jobs").description("Derivative jobs done in each lane")
+                .tag("connector", connectorName).tag("lane", lane).tag("outcome", outcome)
+                .register(Metrics.globalRegistry);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.connector.derivative;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ExtendedExchange;
+import org.apache.camel.Processor;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.slf4j.Logger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import ca.islandora.alpaca.support.event.AS2EventExpressions;
+
+/**
+ * Index of the sha-256 digest of the last derivative uploaded to each destination uri, so a derivative identical to
+ * the one already uploaded isn't sent again.
+ *
+ * The index is kept in memory and holds the most recently uploaded destinations up to its capacity. It only knows of
+ * the uploads made by this Alpaca, so a digest is only trusted for the time to live after the upload, in case the
+ * destination was changed some other way since.
+ *
+ * @author agent
+ */
+public class UploadDigestIndex {
+
+    private static final Logger LOGGER = getLogger(UploadDigestIndex.class);
+
+    private final Map<String, Upload> digests;
+
+    private final long ttlNanos;
+
+    private final LongSupplier nanoClock;
+
+    /**
+     * Basic constructor.
+     * @param capacity
+     *   Most destinations to remember.
+     * @param ttlMillis
+     *   Milliseconds after an upload that its digest is compared to.
+     */
+    public UploadDigestIndex(final int capacity, final long ttlMillis) {
+        this(capacity, ttlMillis, System::nanoTime);
+    }
+
+    /**
+     * Constructor.
+     * @param capacity
+     *   Most destinations to remember.
+     * @param ttlMillis
+     *   Milliseconds after an upload that its digest is compared to.
+     * @param nanoClock
+     *   Source of System.nanoTime().
+     */
+    UploadDigestIndex(final int capacity, final long ttlMillis, final LongSupplier nanoClock) {
+        this.digests = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Upload> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Processor which digests the derivative in the body and stops the route if it is the same as the one last
+     * uploaded to the destination uri. Otherwise the body is replaced with a copy on disk and the digest is recorded
+     * once the exchange completes.
+     * @param connectorName
+     *   The derivative connector name.
+     * @return the processor.
+     */
+    public Processor skipUnchanged(final String connectorName) {
+        final Counter skipped = Counter.builder("alpaca.derivative.uploads").description("Derivative uploads")
+                .tag("connector", connectorName).tag("result", "skipped").register(Metrics.globalRegistry);
+        final Counter sent = Counter.builder("alpaca.derivative.uploads").description("Derivative uploads")
+                .tag("connector", connectorName).tag("result", "sent").register(Metrics.globalRegistry);
+        return exchange -> {
+            final String destination = AS2EventExpressions.DESTINATION_URI.evaluate(exchange, String.class);
+            final InputStream body = exchange.getIn().getBody(InputStream.class);
+            if (destination == null || body == null) {
+                return;
+            }
+            final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            final Path temp = Files.createTempFile("alpaca-derivative", ".tmp");
+            try (InputStream in = new DigestInputStream(body, sha256)) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final Exception e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            final byte[] digest = sha256.digest();
+            if (Arrays.equals(digest, get(destination))) {
+                Files.deleteIfExists(temp);
+                LOGGER.info("({}) Skipping upload to {}, it is unchanged", connectorName, destination);
+                skipped.increment();
+                exchange.setRouteStop(true);
+                return;
+            }
+            exchange.getIn().setBody(Files.newInputStream(temp, StandardOpenOption.DELETE_ON_CLOSE));
+            exchange.adapt(ExtendedExchange.class).addOnCompletion(new SynchronizationAdapter() {
+                @Override
+                public void onComplete(final Exchange completed) {
+                    sent.increment();
+                    put(destination, digest);
+                }
+
+                @Override
+                public void onDone(final Exchange completed) {
+                    try {
+                        // Not removed on close if the upload failed before reading it.
+                        Files.deleteIfExists(temp);
+                    } catch (final Exception e) {
+                        LOGGER.debug("Unable to delete {}: {}", temp, e.getMessage());
+                    }
+                }
+            });
+        };
+    }
+
+    /**
+     * @return the number of destinations in the index.
+     */
+    public synchronized int size() {
+        return digests.size();
+    }
+
+    /**
+     * @param destination
+     *   A destination uri.
+     * @return the digest of the last upload to it, or null if there was none within the time to live.
+     */
+    private synchronized byte[] get(final String destination) {
+        final Upload upload = digests.get(destination);
+        if (upload == null) {
+            return null;
+        }
+        if (nanoClock.getAsLong() - upload.uploaded >= ttlNanos) {
+            digests.remove(destination);
+            return null;
+        }
+        return upload.digest;
+    }
+
+    private synchronized void put(final String destination, final byte[] digest) {
+        digests.put(destination, new Upload(digest, nanoClock.getAsLong()));
+    }
+
+    /**
+     * The digest of an upload and when it was made.
+     */
+    private static final class Upload {
+
+        private final byte[] digest;
+
+        private final long uploaded;
+
+        Upload(final byte[] digest, final long uploaded) {
+            this.digest = digest;
+            this.uploaded = uploaded;
+        }
+    }
+}
@@ -79,15 +79,17 @@ public class ConnectorWithHttpOptionsTest {
                         exchange.getIn().setBody("SOME DERIVATIVE", String.class);
                     });
 
-            a.mockEndpointsAndSkip("http://localhost:8000/node/2/media/image/3?specialProp=true&" +
+            a.mockEndpointsAndSkip("http://localhost:8000?specialProp=true&" +
                     "connectionClose=true&disableStreamCache=true");
         });
         context.start();
 
         final MockEndpoint endpoint = (MockEndpoint) context
-                .getEndpoint("mock:http:localhost:8000/node/2/media/image/3");
+                .getEndpoint("mock:http:localhost:8000");
 
         endpoint.expectedMessageCount(1);
+
+        endpoint.expectedHeaderReceived(Exchange.HTTP_PATH, "/node/2/media/image/3");
         endpoint.expectedHeaderReceived(Exchange.HTTP_METHOD, "PUT");
         endpoint.expectedHeaderReceived(CONTENT_TYPE, "image/jpeg");
         endpoint.expectedHeaderReceived("Content-Location", "public://2018-08/2-Service File.jpg");
@@ -0,0 +1,192 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.connector.derivative;
+
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.EVENT_PROPERTY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.camel.util.ObjectHelper.loadResourceAsStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.islandora.alpaca.support.event.AS2Event;
+
+/**
+ * Tests the on disk cache of derivatives.
+ *
+ * @author agent
+ */
+public class DerivativeCacheTest {
+
+    private final CamelContext context = new DefaultCamelContext();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("derivative-cache");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testMissThenHit() throws Exception {
+        final DerivativeCache cache = new DerivativeCache(directory, 1000);
+        final Exchange first = head("houdini", "sha=abc", null);
+        cache.lookup("houdini").process(first);
+        assertNull(first.getProperty(DerivativeCache.CACHE_HIT_PROPERTY));
+        assertNotNull(first.getProperty(DerivativeCache.CACHE_KEY_PROPERTY));
+
+        derivative(first, "SOME DERIVATIVE");
+        cache.store().process(first);
+        assertEquals("SOME DERIVATIVE", read(first));
+        assertEquals(15, cache.getTotalBytes());
+
+        final Exchange second = head("houdini", "sha=abc", null);
+        cache.lookup("houdini").process(second);
+        assertEquals(Boolean.TRUE, second.getProperty(DerivativeCache.CACHE_HIT_PROPERTY));
+        assertEquals("image/jpeg", second.getIn().getHeader(Exchange.CONTENT_TYPE));
+        assertEquals("SOME DERIVATIVE", read(second));
+
+        // The key includes the connector and the source's digest.
+        final Exchange other = head("homarus", "sha=abc", null);
+        cache.lookup("homarus").process(other);
+        assertNull(other.getProperty(DerivativeCache.CACHE_HIT_PROPERTY));
+        final Exchange changed = head("houdini", "sha=def", null);
+        cache.lookup("houdini").process(changed);
+        assertNull(changed.getProperty(DerivativeCache.CACHE_HIT_PROPERTY));
+    }
+
+    @Test
+    public void testETagAndNoDigest() throws Exception {
+        final DerivativeCache cache = new DerivativeCache(directory, 1000);
+        final Exchange etag = head("houdini", null, "\"1234-abcd\"");
+        cache.lookup("houdini").process(etag);
+        assertNotNull(etag.getProperty(DerivativeCache.CACHE_KEY_PROPERTY));
+
+        final Exchange none = head("houdini", null, null);
+        cache.lookup("houdini").process(none);
+        assertNull(none.getProperty(DerivativeCache.CACHE_KEY_PROPERTY));
+        derivative(none, "NOT CACHED");
+        cache.store().process(none);
+        assertEquals("NOT CACHED", read(none));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        final DerivativeCache cache = new DerivativeCache(directory, 25);
+        cacheDerivative(cache, "sha=1", "0123456789");
+        cacheDerivative(cache, "sha=2", "0123456789");
+        // Use the first, so the second is the least recently used.
+        final Exchange hit = head("houdini", "sha=1", null);
+        cache.lookup("houdini").process(hit);
+        read(hit);
+        cacheDerivative(cache, "sha=3", "0123456789");
+
+        assertEquals(2, cache.size());
+        assertEquals(20, cache.getTotalBytes());
+        assertTrue(isCached(cache, "sha=1"));
+        assertFalse(isCached(cache, "sha=2"));
+        assertTrue(isCached(cache, "sha=3"));
+
+        // Too large to cache, but still sent.
+        final Exchange large = head("houdini", "sha=4", null);
+        cache.lookup("houdini").process(large);
+        derivative(large, "0123456789012345678901234567890");
+        cache.store().process(large);
+        assertEquals("0123456789012345678901234567890", read(large));
+        assertEquals(2, cache.size());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(4, files.count());
+        }
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        cacheDerivative(new DerivativeCache(directory, 1000), "sha=1", "SOME DERIVATIVE");
+        final DerivativeCache reloaded = new DerivativeCache(directory, 1000);
+        assertEquals(1, reloaded.size());
+        assertTrue(isCached(reloaded, "sha=1"));
+    }
+
+    private void cacheDerivative(final DerivativeCache cache, final String digest, final String body)
+            throws Exception {
+        final Exchange exchange = head("houdini", digest, null);
+        cache.lookup("houdini").process(exchange);
+        derivative(exchange, body);
+        cache.store().process(exchange);
+        read(exchange);
+    }
+
+    private boolean isCached(final DerivativeCache cache, final String digest) throws Exception {
+        final Exchange exchange = head("houdini", digest, null);
+        cache.lookup("houdini").process(exchange);
+        read(exchange);
+        return Boolean.TRUE.equals(exchange.getProperty(DerivativeCache.CACHE_HIT_PROPERTY));
+    }
+
+    private Exchange head(final String connector, final String digest, final String etag) throws Exception {
+        final Exchange exchange = new DefaultExchange(context);
+        exchange.setProperty(EVENT_PROPERTY,
+                new ObjectMapper().readValue(loadResourceAsStream("AS2Event.jsonld"), AS2Event.class));
+        exchange.getIn().setHeader(Exchange.HTTP_RESPONSE_CODE, 200);
+        exchange.getIn().setHeader("Digest", digest);
+        exchange.getIn().setHeader("ETag", etag);
+        return exchange;
+    }
+
+    private static void derivative(final Exchange exchange, final String body) {
+        exchange.getIn().setHeader(Exchange.CONTENT_TYPE, "image/jpeg");
+        exchange.getIn().setBody(new ByteArrayInputStream(body.getBytes(UTF_8)));
+    }
+
+    private static String read(final Exchange exchange) throws Exception {
+        final InputStream body = exchange.getIn().getBody(InputStream.class);
+        if (body == null) {
+            return null;
+        }
+        try (body) {
+            return new String(body.readAllBytes(), UTF_8);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.connector.derivative;
+
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.EVENT_PROPERTY;
+import static org.apache.camel.util.ObjectHelper.loadResourceAsStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.After;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.http.RequestDeadlines;
+
+/**
+ * Tests holding back requests for a derivative already being generated.
+ *
+ * @author agent
+ */
+public class InFlightRegistryTest {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private CamelContext context;
+
+    private ProducerTemplate template;
+
+    private InFlightRegistry registry;
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        if (context != null) {
+            context.stop();
+        }
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        start(InFlightRegistry.Mode.SKIP, false);
+        final Future<Exchange> first = send();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final Exchange second = send().get(10, TimeUnit.SECONDS);
+        assertTrue(second.isRouteStop());
+
+        release.countDown();
+        assertFalse(first.get(10, TimeUnit.SECONDS).isFailed());
+        mock().expectedMessageCount(1);
+        mock().assertIsSatisfied();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testWait() throws Exception {
+        start(InFlightRegistry.Mode.WAIT, false);
+        final Future<Exchange> first = send();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final Future<Exchange> second = send();
+        Thread.sleep(200);
+        assertFalse(second.isDone());
+
+        release.countDown();
+        assertFalse(first.get(10, TimeUnit.SECONDS).isFailed());
+        assertTrue(second.get(10, TimeUnit.SECONDS).isRouteStop());
+        mock().expectedMessageCount(1);
+        mock().assertIsSatisfied();
+    }
+
+    @Test
+    public void testWaitTakesOverAfterFailure() throws Exception {
+        start(InFlightRegistry.Mode.WAIT, true);
+        final Future<Exchange> first = send();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final Future<Exchange> second = send();
+        Thread.sleep(200);
+        release.countDown();
+        assertTrue(first.get(10, TimeUnit.SECONDS).isFailed());
+        // The second request generates the derivative.
+        assertFalse(second.get(10, TimeUnit.SECONDS).isRouteStop());
+        mock().expectedMessageCount(1);
+        mock().assertIsSatisfied();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testWaitGivesUpAfterMaxWait() throws Exception {
+        start(InFlightRegistry.Mode.WAIT, false, 200);
+        final Future<Exchange> first = send();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // The second request is processed without waiting for the first to finish.
+        assertFalse(send().get(10, TimeUnit.SECONDS).isRouteStop());
+        release.countDown();
+        assertFalse(first.get(10, TimeUnit.SECONDS).isFailed());
+        mock().expectedMessageCount(2);
+        mock().assertIsSatisfied();
+    }
+
+    @Test
+    public void testWaitGivesUpAtDeadline() throws Exception {
+        start(InFlightRegistry.Mode.WAIT, false);
+        final Future<Exchange> first = send();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final Exchange second = template.asyncSend("direct:start", exchange -> {
+            exchange.setProperty(EVENT_PROPERTY, event());
+            exchange.setProperty(RequestDeadlines.DEADLINE_PROPERTY,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200));
+        }).get(10, TimeUnit.SECONDS);
+        assertFalse(second.isRouteStop());
+        release.countDown();
+        assertFalse(first.get(10, TimeUnit.SECONDS).isFailed());
+        mock().expectedMessageCount(2);
+        mock().assertIsSatisfied();
+    }
+
+    @Test
+    public void testOff() throws Exception {
+        start(InFlightRegistry.Mode.OFF, false);
+        release.countDown();
+        send().get(10, TimeUnit.SECONDS);
+        send().get(10, TimeUnit.SECONDS);
+        mock().expectedMessageCount(2);
+        mock().assertIsSatisfied();
+    }
+
+    private void start(final InFlightRegistry.Mode mode, final boolean failFirst) throws Exception {
+        start(mode, failFirst, 10000);
+    }
+
+    private void start(final InFlightRegistry.Mode mode, final boolean failFirst, final long maxWait)
+            throws Exception {
+        registry = new InFlightRegistry("test", mode, maxWait);
+        context = new DefaultCamelContext();
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:start")
+                    .process(registry)
+                    .process(exchange -> {
+                        if (started.getCount() > 0) {
+                            started.countDown();
+                            release.await(10, TimeUnit.SECONDS);
+                            if (failFirst) {
+                                throw new IllegalStateException("Service unavailable");
+                            }
+                        }
+                    })
+                    .to("mock:result");
+            }
+        });
+        context.start();
+        template = context.createProducerTemplate();
+    }
+
+    private Future<Exchange> send() throws Exception {
+        final AS2Event event = event();
+        return template.asyncSend("direct:start", exchange -> exchange.setProperty(EVENT_PROPERTY, event));
+    }
+
+    private static AS2Event event() throws Exception {
+        return new ObjectMapper().readValue(loadResourceAsStream("AS2Event.jsonld"), AS2Event.class);
+    }
+
+    private MockEndpoint mock() {
+        return context.getEndpoint("mock:result", MockEndpoint.class);
+    }
+}
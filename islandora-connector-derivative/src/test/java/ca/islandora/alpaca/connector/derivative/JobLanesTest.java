@@ -0,0 +1,92 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.connector.derivative;
+
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.EVENT_PROPERTY;
+import static org.apache.camel.util.ObjectHelper.loadResourceAsStream;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.islandora.alpaca.support.event.AS2Event;
+
+/**
+ * Tests sorting derivative jobs into lanes by size.
+ *
+ * @author agent
+ */
+public class JobLanesTest {
+
+    private final JobLanes lanes = new JobLanes("test", 1000, List.of("video/*", " audio/mpeg"),
+            Pattern.compile("-density [0-9]{3,}"));
+
+    @Test
+    public void testBySize() {
+        assertEquals(JobLanes.SMALL, lanes.lane("image/jpeg", "", 999));
+        assertEquals(JobLanes.LARGE, lanes.lane("image/jpeg", "", 1000));
+        // Unknown size.
+        assertEquals(JobLanes.SMALL, lanes.lane("image/jpeg", "", -1));
+    }
+
+    @Test
+    public void testByMimetype() {
+        assertEquals(JobLanes.LARGE, lanes.lane("video/mp4", "", -1));
+        assertEquals(JobLanes.LARGE, lanes.lane("Audio/MPEG", "", -1));
+        assertEquals(JobLanes.SMALL, lanes.lane("audio/ogg", "", -1));
+        assertEquals(JobLanes.SMALL, lanes.lane("videos/mp4", "", -1));
+        assertEquals(JobLanes.LARGE, lanes.lane("video/mp4; codecs=avc1", "", -1));
+        assertEquals(JobLanes.SMALL, lanes.lane(null, "", -1));
+    }
+
+    @Test
+    public void testByArgs() {
+        assertEquals(JobLanes.LARGE, lanes.lane("image/png", "-thumbnail 100x -density 300", -1));
+        assertEquals(JobLanes.SMALL, lanes.lane("image/png", "-density 72", -1));
+        assertEquals(JobLanes.SMALL, lanes.lane("image/png", null, -1));
+    }
+
+    @Test
+    public void testClassify() throws Exception {
+        final AS2Event event = new ObjectMapper().readValue(loadResourceAsStream("AS2Event.jsonld"), AS2Event.class);
+        final Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.setProperty(EVENT_PROPERTY, event);
+        exchange.getMessage().setHeader(Exchange.HTTP_RESPONSE_CODE, 200);
+        exchange.getMessage().setHeader(Exchange.CONTENT_LENGTH, "5000");
+        lanes.classify().process(exchange);
+        assertEquals(JobLanes.LARGE, exchange.getProperty(JobLanes.LANE_PROPERTY));
+
+        // By the type of the source, not of the derivative.
+        exchange.getMessage().setHeader(Exchange.CONTENT_LENGTH, "500");
+        exchange.getMessage().setHeader(Exchange.CONTENT_TYPE, "video/mp4");
+        lanes.classify().process(exchange);
+        assertEquals(JobLanes.LARGE, exchange.getProperty(JobLanes.LANE_PROPERTY));
+
+        // The size and type of a source which wasn't found aren't known.
+        exchange.getMessage().setHeader(Exchange.HTTP_RESPONSE_CODE, 404);
+        lanes.classify().process(exchange);
+        assertEquals(JobLanes.SMALL, exchange.getProperty(JobLanes.LANE_PROPERTY));
+    }
+}
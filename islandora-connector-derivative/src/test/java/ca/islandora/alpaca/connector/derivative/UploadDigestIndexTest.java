@@ -0,0 +1,129 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.connector.derivative;
+
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.EVENT_PROPERTY;
+import static org.apache.camel.util.ObjectHelper.loadResourceAsStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.islandora.alpaca.support.event.AS2Event;
+
+/**
+ * Tests skipping the upload of unchanged derivatives.
+ *
+ * @author agent
+ */
+public class UploadDigestIndexTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private final UploadDigestIndex index = new UploadDigestIndex(10, 60000, nanos::get);
+
+    private CamelContext context;
+
+    private ProducerTemplate template;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new DefaultCamelContext();
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:start")
+                    .process(index.skipUnchanged("test"))
+                    .process(exchange -> {
+                        if (exchange.getIn().getHeader("fail") != null) {
+                            throw new IllegalStateException("Upload failed");
+                        }
+                    })
+                    .convertBodyTo(String.class)
+                    .to("mock:result");
+            }
+        });
+        context.start();
+        template = context.createProducerTemplate();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        context.stop();
+    }
+
+    @Test
+    public void testSkipUnchanged() throws Exception {
+        assertFalse(send("SOME DERIVATIVE", false).isRouteStop());
+        assertTrue(send("SOME DERIVATIVE", false).isRouteStop());
+        assertFalse(send("OTHER DERIVATIVE", false).isRouteStop());
+        assertFalse(send("SOME DERIVATIVE", false).isRouteStop());
+
+        final MockEndpoint mock = context.getEndpoint("mock:result", MockEndpoint.class);
+        mock.expectedBodiesReceived("SOME DERIVATIVE", "OTHER DERIVATIVE", "SOME DERIVATIVE");
+        mock.assertIsSatisfied();
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testDigestExpires() throws Exception {
+        assertFalse(send("SOME DERIVATIVE", false).isRouteStop());
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        assertTrue(send("SOME DERIVATIVE", false).isRouteStop());
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        // Uploaded again, someone may have changed the destination since.
+        assertFalse(send("SOME DERIVATIVE", false).isRouteStop());
+        assertTrue(send("SOME DERIVATIVE", false).isRouteStop());
+    }
+
+    @Test
+    public void testFailedUploadNotRecorded() throws Exception {
+        assertTrue(send("SOME DERIVATIVE", true).isFailed());
+        assertEquals(0, index.size());
+        final Exchange retry = send("SOME DERIVATIVE", false);
+        assertFalse(retry.isRouteStop());
+        assertFalse(retry.isFailed());
+        assertEquals(1, index.size());
+    }
+
+    private Exchange send(final String derivative, final boolean fail) throws Exception {
+        final AS2Event event = new ObjectMapper().readValue(loadResourceAsStream("AS2Event.jsonld"), AS2Event.class);
+        return template.send("direct:start", exchange -> {
+            exchange.setProperty(EVENT_PROPERTY, event);
+            exchange.getIn().setBody(new ByteArrayInputStream(derivative.getBytes()));
+            if (fail) {
+                exchange.getIn().setHeader("fail", true);
+            }
+        });
+    }
+}
@@ -21,6 +21,7 @@ import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 
 import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.jfr.StageEvent;
 
 /**
  * A processor to perform some common actions on the Exchange
@@ -41,6 +42,7 @@ public class CommonProcessor implements Processor {
 
     @Override
     public void process(final Exchange exchange) {
+        final StageEvent event = StageEvent.start("fcrepo.common", exchange);
         final var msg = exchange.getIn();
         exchange.setProperty("event", msg.getBody());
         final AS2Event json = msg.getBody(AS2Event.class);
@@ -49,5 +51,6 @@ public class CommonProcessor implements Processor {
         msg.setHeader(config.getFedoraUriHeader(), exchange.getProperty("fedoraBaseUrl"));
         msg.setBody(null);
         exchange.setMessage(msg);
+        event.commit();
     }
 }
@@ -18,6 +18,12 @@
 
 package ca.islandora.alpaca.indexing.fcrepo;
 
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.CANONICAL_URL;
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.IS_NEW_VERSION;
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.JSONLD_URL;
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.JSON_URL;
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.SOURCE_FIELD;
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.UUID;
 import static org.apache.camel.LoggingLevel.DEBUG;
 import static org.apache.camel.LoggingLevel.ERROR;
 import static org.apache.camel.LoggingLevel.INFO;
@@ -26,12 +32,14 @@ import static org.apache.camel.LoggingLevel.WARN;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
 import org.apache.camel.Predicate;
 import org.apache.camel.Processor;
 import org.apache.camel.builder.PredicateBuilder;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.http.base.HttpOperationFailedException;
 import org.apache.camel.model.dataformat.JsonLibrary;
+import org.apache.camel.support.ExpressionAdapter;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -39,6 +47,10 @@ import ca.islandora.alpaca.support.event.AS2Event;
 import ca.islandora.alpaca.support.exceptions.MissingCanonicalUrlException;
 import ca.islandora.alpaca.support.exceptions.MissingJsonUrlException;
 import ca.islandora.alpaca.support.exceptions.MissingJsonldUrlException;
+import ca.islandora.alpaca.support.http.RequestDeadlines;
+import ca.islandora.alpaca.support.jms.ConsumerLane;
+import ca.islandora.alpaca.support.timing.ExchangeTimer;
+import ca.islandora.alpaca.support.timing.Stage;
 
 /**
  * Camel Route to index Drupal nodes into Fedora.
@@ -48,6 +60,16 @@ import ca.islandora.alpaca.support.exceptions.MissingJsonldUrlException;
  */
 public class FcrepoIndexer extends RouteBuilder {
 
+    /**
+     * Endpoint collecting requests for the Milliner batch endpoint.
+     */
+    private static final String MILLINER_BATCH = "direct:millinerBatch";
+
+    /**
+     * Endpoint sending a batch to Milliner.
+     */
+    private static final String MILLINER_BATCH_SEND = "direct:millinerBatchSend";
+
     @Autowired
     private FcrepoIndexerOptions config;
 
@@ -68,6 +90,17 @@ public class FcrepoIndexer extends RouteBuilder {
         final Predicate is404 = PredicateBuilder.toPredicate(simple("${exception.statusCode} == 404"));
         final Predicate is410 = PredicateBuilder.toPredicate(simple("${exception.statusCode} == 410"));
         final Processor commonProcessor = new CommonProcessor(config);
+        final Processor idempotent = config.idempotent("fcrepo");
+        final Processor millinerRateLimit = config.rateLimit(config.getMillinerBaseUrl());
+        final String milliner = config.addHttpOptions(config.getMillinerBaseUrl());
+        // In batch mode node and media index requests are collected and rate limited per batch.
+        final String millinerIndex = config.isMillinerBatchEnabled() ? MILLINER_BATCH : milliner;
+        final Processor millinerIndexRateLimit = config.rateLimit(millinerIndex);
+        final ExchangeTimer timing = config.timing();
+        final Processor parsed = timing.stage(Stage.PARSE);
+        final Processor written = timing.stage(Stage.WRITE);
+        // Abort the Milliner requests of an event past its deadline.
+        final Processor deadline = RequestDeadlines.deadline(getContext(), config.getDeadline());
 
         onException(HttpOperationFailedException.class)
                 .onWhen(is412)
@@ -103,132 +136,227 @@ public class FcrepoIndexer extends RouteBuilder {
                         "Error indexing resource in fcrepo: ${exception.message}\n\n${exception.stacktrace}"
                 );
 
-        from(config.getNodeIndex())
-                .routeId("FcrepoIndexerNode")
-                // Parse the event into a POJO.
-                .unmarshal().json(JsonLibrary.Jackson, AS2Event.class)
-                // Extract relevant data from the event.
-                .process(commonProcessor)
-                .setProperty("uuid").simple("${exchangeProperty.event.object.id.replaceAll(\"urn:uuid:\",\"\")}")
-                .setProperty("jsonldUrl").simple("${exchangeProperty.event.object.getJsonldUrl().href}")
-                .log(DEBUG, LOGGER, "Received Node event for UUID (${exchangeProperty.uuid}), jsonld URL (" +
-                        "${exchangeProperty.jsonldUrl}), fedora base URL (${exchangeProperty.fedoraBaseUrl})")
-                // Prepare the message.
-                .setHeader(Exchange.HTTP_METHOD, constant("POST"))
-                .setHeader("Content-Location", simple("${exchangeProperty.jsonldUrl}"))
-                .multicast().parallelProcessing()
-                    .to("seda:nodeIndex", "seda:nodeVersionIndex")
-                .end();
+        for (final ConsumerLane lane : config.getNodeIndexLanes()) {
+            from(lane.getEndpoint())
+                    .routeId(lane.routeId("FcrepoIndexerNode"))
+                    .process(timing.start())
+                    .process(deadline)
+                    // Parse the event into a POJO.
+                    .unmarshal().json(JsonLibrary.Jackson, AS2Event.class)
+                    // Extract relevant data from the event.
+                    .process(commonProcessor)
+                    .process(parsed)
+                    // Skip events already indexed.
+                    .process(idempotent)
+                    .setProperty("uuid", UUID)
+                    .setProperty("jsonldUrl", JSONLD_URL)
+                    .log(DEBUG, LOGGER, "Received Node event for UUID (${exchangeProperty.uuid}), jsonld URL (" +
+                            "${exchangeProperty.jsonldUrl}), fedora base URL (${exchangeProperty.fedoraBaseUrl})")
+                    // Prepare the message.
+                    .setHeader(Exchange.HTTP_METHOD, constant("POST"))
+                    .setHeader("Content-Location", exchangeProperty("jsonldUrl"))
+                    // The Milliner requests are timed by the routes they are handed to.
+                    .process(timing.handOff())
+                    .multicast().parallelProcessing()
+                        .to("seda:nodeIndex", "seda:nodeVersionIndex")
+                    .end();
+        }
 
         from("seda:nodeIndex")
                 .routeId("FcrepoIndexerNodeIndex")
-                .toD(makeMillinerUri("node/${exchangeProperty.uuid}"));
+                // Forget the event if indexing it fails here, after the message was acknowledged.
+                .process(idempotent)
+                .process(timing.resume())
+                .setHeader(Exchange.HTTP_PATH, millinerPath("node/", "uuid", ""))
+                .process(millinerIndexRateLimit)
+                .to(millinerIndex)
+                .process(written);
 
         from("seda:nodeVersionIndex")
                 .routeId("FcrepoIndexerNodeVersion")
+                // Forget the event if indexing it fails here, after the message was acknowledged.
+                .process(idempotent)
                 .log(TRACE, LOGGER, "Node indexer version endpoint, isNewVersion is " +
                         "(${exchangeProperty.event.object.isNewVersion}")
-                .filter(simple("${exchangeProperty.event.object.isNewVersion}"))
-                    .toD(makeMillinerUri("node/${exchangeProperty.uuid}/version"))
+                .filter(IS_NEW_VERSION)
+                    .process(timing.resume())
+                    .setHeader(Exchange.HTTP_PATH, millinerPath("node/", "uuid", "/version"))
+                    .process(millinerIndexRateLimit)
+                    .to(millinerIndex)
+                    .process(written)
                 .end();
 
-        from(config.getNodeDelete())
-                .routeId("FcrepoIndexerDeleteNode")
-                .onException(HttpOperationFailedException.class)
-                        .onWhen(is404)
+        for (final ConsumerLane lane : config.getNodeDeleteLanes()) {
+            from(lane.getEndpoint())
+                    .routeId(lane.routeId("FcrepoIndexerDeleteNode"))
+                    .onException(HttpOperationFailedException.class)
+                            .onWhen(is404)
+                            .useOriginalMessage()
+                            .handled(true)
+                            .log(
+                                    INFO,
+                                    LOGGER,
+                                    "Received 404 from Milliner, skipping de-indexing."
+                            )
+                            .end()
+                    .process(timing.start())
+                    .process(deadline)
+                    // Parse the event into a POJO.
+                    .unmarshal().json(JsonLibrary.Jackson, AS2Event.class)
+                    // Extract relevant data from the event.
+                    .process(commonProcessor)
+                    .process(parsed)
+                    // Skip events already indexed.
+                    .process(idempotent)
+                    .setProperty("uuid", UUID)
+                    .log(DEBUG, LOGGER, "Received Node delete event for UUID (${exchangeProperty.uuid}), fedora " +
+                            "base URL (${exchangeProperty.fedoraBaseUrl})")
+                    // Prepare the message.
+                    .setHeader(Exchange.HTTP_METHOD, constant("DELETE"))
+                    // Remove the file from Drupal.
+                    .setHeader(Exchange.HTTP_PATH, millinerPath("node/", "uuid", ""))
+                    .process(millinerRateLimit)
+                    .to(milliner)
+                    .process(written);
+        }
+
+        for (final ConsumerLane lane : config.getMediaIndexLanes()) {
+            from(lane.getEndpoint())
+                    .routeId(lane.routeId("FcrepoIndexerMedia"))
+                    .onException(MissingJsonUrlException.class)
                         .useOriginalMessage()
                         .handled(true)
                         .log(
-                                INFO,
-                                LOGGER,
-                                "Received 404 from Milliner, skipping de-indexing."
+                            WARN,
+                            LOGGER,
+                            "Could not locate the Json Url for the media, event could be pre-upload. " +
+                            "Skipping processing."
                         )
-                        .end()
-                // Parse the event into a POJO.
-                .unmarshal().json(JsonLibrary.Jackson, AS2Event.class)
-                // Extract relevant data from the event.
-                .process(commonProcessor)
-                .setProperty("uuid").simple("${exchangeProperty.event.object.id.replaceAll(\"urn:uuid:\",\"\")}")
-                .log(DEBUG, LOGGER, "Received Node delete event for UUID (${exchangeProperty.uuid}), fedora base URL" +
-                        " (${exchangeProperty.fedoraBaseUrl})")
-                // Prepare the message.
-                .setHeader(Exchange.HTTP_METHOD, constant("DELETE"))
-                // Remove the file from Drupal.
-                .toD(makeMillinerUri("node/${exchangeProperty.uuid}"));
-
-        from(config.getMediaIndex())
-                .routeId("FcrepoIndexerMedia")
-                .onException(MissingJsonUrlException.class)
-                    .useOriginalMessage()
-                    .handled(true)
-                    .log(
-                        WARN,
-                        LOGGER,
-                        "Could not locate the Json Url for the media, event could be pre-upload. Skipping processing."
-                    )
-                .end()
-                // Parse the event into a POJO.
-                .unmarshal().json(JsonLibrary.Jackson, AS2Event.class)
-                // Extract relevant data from the event.
-                .process(commonProcessor)
-                .setProperty("sourceField").simple("${exchangeProperty.event.attachment.content.sourceField}")
-                .setProperty("jsonUrl").simple("${exchangeProperty.event.object.getJsonUrl().href}")
-                .log(DEBUG, LOGGER, "Received Media event for sourceField (${exchangeProperty.sourceField}), jsonld" +
-                        " URL (${exchangeProperty.jsonUrl}), fedora Base URL (${exchangeProperty.fedoraBaseUrl})")
-                // Prepare the message.
-                .setHeader(Exchange.HTTP_METHOD, constant("POST"))
-                .setHeader("Content-Location", simple("${exchangeProperty.jsonUrl}"))
-                .multicast().parallelProcessing()
-                    .to("seda:mediaIndex", "seda:mediaVersionIndex")
-                .end();
+                    .end()
+                    .process(timing.start())
+                    .process(deadline)
+                    // Parse the event into a POJO.
+                    .unmarshal().json(JsonLibrary.Jackson, AS2Event.class)
+                    // Extract relevant data from the event.
+                    .process(commonProcessor)
+                    .process(parsed)
+                    // Skip events already indexed.
+                    .process(idempotent)
+                    .setProperty("sourceField", SOURCE_FIELD)
+                    .setProperty("jsonUrl", JSON_URL)
+                    .log(DEBUG, LOGGER, "Received Media event for sourceField (${exchangeProperty.sourceField}), " +
+                            "jsonld URL (${exchangeProperty.jsonUrl}), fedora Base URL " +
+                            "(${exchangeProperty.fedoraBaseUrl})")
+                    // Prepare the message.
+                    .setHeader(Exchange.HTTP_METHOD, constant("POST"))
+                    .setHeader("Content-Location", exchangeProperty("jsonUrl"))
+                    // The Milliner requests are timed by the routes they are handed to.
+                    .process(timing.handOff())
+                    .multicast().parallelProcessing()
+                        .to("seda:mediaIndex", "seda:mediaVersionIndex")
+                    .end();
+        }
 
         from("seda:mediaIndex")
                 .routeId("FcrepoIndexerMediaIndex")
-                .toD(makeMillinerUri("media/${exchangeProperty.sourceField}"));
+                // Forget the event if indexing it fails here, after the message was acknowledged.
+                .process(idempotent)
+                .process(timing.resume())
+                .setHeader(Exchange.HTTP_PATH, millinerPath("media/", "sourceField", ""))
+                .process(millinerIndexRateLimit)
+                .to(millinerIndex)
+                .process(written);
 
         from("seda:mediaVersionIndex")
                 .routeId("FcrepoIndexerMediaIndexVersion")
+                // Forget the event if indexing it fails here, after the message was acknowledged.
+                .process(idempotent)
                 .log(TRACE, LOGGER, "Media indexer version endpoint, isNewVersion is " +
                         "(${exchangeProperty.event.object.isNewVersion}")
-                .filter(simple("${exchangeProperty.event.object.isNewVersion}"))
+                .filter(IS_NEW_VERSION)
+                    .process(timing.resume())
                     //pass it to milliner
-                    .toD(makeMillinerUri("media/${exchangeProperty.sourceField}/version"))
+                    .setHeader(Exchange.HTTP_PATH, millinerPath("media/", "sourceField", "/version"))
+                    .process(millinerIndexRateLimit)
+                    .to(millinerIndex)
+                    .process(written)
                 .end();
 
-        from(config.getExternalIndex())
-                .routeId("FcrepoIndexerExternalFile")
-                .onException(MissingCanonicalUrlException.class)
-                    .useOriginalMessage()
-                    .handled(true)
-                    .log(
-                            ERROR,
-                            LOGGER,
-                            "Unable to index external file to Fedora, missing the Drupal URL."
-                    )
-                    .end()
-                // Parse the event into a POJO.
-                .unmarshal().json(JsonLibrary.Jackson, AS2Event.class)
-                // Extract relevant data from the event.
-                .process(commonProcessor)
-                .setProperty("uuid").simple("${exchangeProperty.event.object.id.replaceAll(\"urn:uuid:\",\"\")}")
-                .setProperty("drupal").simple("${exchangeProperty.event.object.getCanonicalUrl().href}")
-                .log(DEBUG, LOGGER, "Received File external event for UUID (${exchangeProperty.uuid}), drupal URL " +
-                        "(${exchangeProperty.drupal}), fedora base URL (${exchangeProperty.fedoraBaseUrl})")
-                // Prepare the message.
-                .setHeader(Exchange.HTTP_METHOD, constant("POST"))
-                .setHeader("Content-Location", simple("${exchangeProperty.drupal}"))
-                // Pass it to milliner.
-                .toD(makeMillinerUri("external/${exchangeProperty.uuid}"));
+        for (final ConsumerLane lane : config.getExternalIndexLanes()) {
+            from(lane.getEndpoint())
+                    .routeId(lane.routeId("FcrepoIndexerExternalFile"))
+                    .onException(MissingCanonicalUrlException.class)
+                        .useOriginalMessage()
+                        .handled(true)
+                        .log(
+                                ERROR,
+                                LOGGER,
+                                "Unable to index external file to Fedora, missing the Drupal URL."
+                        )
+                        .end()
+                    .process(timing.start())
+                    .process(deadline)
+                    // Parse the event into a POJO.
+                    .unmarshal().json(JsonLibrary.Jackson, AS2Event.class)
+                    // Extract relevant data from the event.
+                    .process(commonProcessor)
+                    .process(parsed)
+                    // Skip events already indexed.
+                    .process(idempotent)
+                    .setProperty("uuid", UUID)
+                    .setProperty("drupal", CANONICAL_URL)
+                    .log(DEBUG, LOGGER, "Received File external event for UUID (${exchangeProperty.uuid}), drupal " +
+                            "URL (${exchangeProperty.drupal}), fedora base URL (${exchangeProperty.fedoraBaseUrl})")
+                    // Prepare the message.
+                    .setHeader(Exchange.HTTP_METHOD, constant("POST"))
+                    .setHeader("Content-Location", exchangeProperty("drupal"))
+                    // Pass it to milliner.
+                    .setHeader(Exchange.HTTP_PATH, millinerPath("external/", "uuid", ""))
+                    .process(millinerRateLimit)
+                    .to(milliner)
+                    .process(written);
+        }
+
+        if (config.isMillinerBatchEnabled()) {
+            from(MILLINER_BATCH)
+                    .routeId("FcrepoIndexerMillinerBatch")
+                    .process(new MillinerBatchProcessor(getContext(), config, MILLINER_BATCH_SEND));
+
+            // Failures are passed back to each item in the batch, which are retried individually.
+            from(MILLINER_BATCH_SEND)
+                    .routeId("FcrepoIndexerMillinerBatchSend")
+                    .errorHandler(noErrorHandler())
+                    .setHeader(Exchange.HTTP_PATH, constant(config.getMillinerBatchPath()))
+                    .process(millinerRateLimit)
+                    .to(milliner)
+                    // Read the response while the connection is still open.
+                    .convertBodyTo(String.class);
+        }
     }
 
     /**
-     * Utility to build a milliner URI.
-     * @param uriPart
-     *   The part of the uri after the milliner base uri.
+     * Utility to build the path of a Milliner request, this is sent in the CamelHttpPath header so all requests
+     * share one producer instead of one endpoint per node or media.
+     * @param prefix
+     *   The part of the path before the property value.
+     * @param property
+     *   The exchange property holding the identifier.
+     * @param suffix
+     *   The part of the path after the property value.
      * @return
-     *   The full URI.
+     *   The path expression.
      */
-    private String makeMillinerUri(final String uriPart) {
-        return config.addHttpOptions(config.getMillinerBaseUrl() + uriPart);
+    private static Expression millinerPath(final String prefix, final String property, final String suffix) {
+        return new ExpressionAdapter() {
+            @Override
+            public Object evaluate(final Exchange exchange) {
+                return prefix + exchange.getProperty(property, String.class) + suffix;
+            }
+
+            @Override
+            public String toString() {
+                return prefix + "${exchangeProperty." + property + "}" + suffix;
+            }
+        };
     }
 }
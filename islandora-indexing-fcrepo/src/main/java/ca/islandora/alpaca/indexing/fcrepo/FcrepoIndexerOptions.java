@@ -17,6 +17,8 @@
  */
 package ca.islandora.alpaca.indexing.fcrepo;
 
+import java.util.List;
+
 import org.apache.camel.builder.RouteBuilder;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -25,6 +27,7 @@ import org.springframework.context.annotation.Configuration;
 
 import ca.islandora.alpaca.support.config.ConditionOnPropertyTrue;
 import ca.islandora.alpaca.support.config.PropertyConfig;
+import ca.islandora.alpaca.support.jms.ConsumerLane;
 
 /**
  * Property configuration class.
@@ -44,6 +47,18 @@ public class FcrepoIndexerOptions extends PropertyConfig {
   private static final String FCREPO_INDEXER_CONCURRENT = "fcrepo.indexer.concurrent-consumers";
   private static final String FCREPO_INDEXER_MAX_CONCURRENT = "fcrepo.indexer.max-concurrent-consumers";
   private static final String FCREPO_INDEXER_ASYNC_CONSUMER = "fcrepo.indexer.async-consumer";
+  private static final String FCREPO_INDEXER_BATCH_ENABLED = "fcrepo.indexer.milliner.batch.enabled";
+  private static final String FCREPO_INDEXER_BATCH_PATH = "fcrepo.indexer.milliner.batch.path";
+  private static final String FCREPO_INDEXER_BATCH_SIZE = "fcrepo.indexer.milliner.batch.size";
+  private static final String FCREPO_INDEXER_BATCH_TIMEOUT = "fcrepo.indexer.milliner.batch.timeout";
+  private static final String FCREPO_INDEXER_BULK_MODE = "fcrepo.indexer.bulk.mode";
+  private static final String FCREPO_INDEXER_BULK_PRIORITY = "fcrepo.indexer.bulk.priority";
+  private static final String FCREPO_INDEXER_BULK_INTERACTIVE = "fcrepo.indexer.bulk.interactive-consumers";
+  private static final String FCREPO_INDEXER_DEADLINE = "fcrepo.indexer.deadline";
+  private static final String FCREPO_INDEXER_NODE_SELECTOR = "fcrepo.indexer.node.selector";
+  private static final String FCREPO_INDEXER_DELETE_SELECTOR = "fcrepo.indexer.delete.selector";
+  private static final String FCREPO_INDEXER_MEDIA_SELECTOR = "fcrepo.indexer.media.selector";
+  private static final String FCREPO_INDEXER_EXTERNAL_SELECTOR = "fcrepo.indexer.external.selector";
 
   @Value("${" + FCREPO_INDEXER_NODE_INDEX + ":}")
   private String fcrepoNodeIndex;
@@ -72,6 +87,42 @@ public class FcrepoIndexerOptions extends PropertyConfig {
   @Value("${" + FCREPO_INDEXER_ASYNC_CONSUMER + ":false}")
   private boolean fcrepoAsyncConsumers;
 
+  @Value("${" + FCREPO_INDEXER_BATCH_ENABLED + ":false}")
+  private boolean fcrepoBatchEnabled;
+
+  @Value("${" + FCREPO_INDEXER_BATCH_PATH + ":batch}")
+  private String fcrepoBatchPath;
+
+  @Value("${" + FCREPO_INDEXER_BATCH_SIZE + ":50}")
+  private int fcrepoBatchSize;
+
+  @Value("${" + FCREPO_INDEXER_BATCH_TIMEOUT + ":1000}")
+  private long fcrepoBatchTimeout;
+
+  @Value("${" + FCREPO_INDEXER_BULK_MODE + ":off}")
+  private String fcrepoBulkMode;
+
+  @Value("${" + FCREPO_INDEXER_BULK_PRIORITY + ":4}")
+  private int fcrepoBulkPriority;
+
+  @Value("${" + FCREPO_INDEXER_BULK_INTERACTIVE + ":1}")
+  private int fcrepoInteractiveConsumers;
+
+  @Value("${" + FCREPO_INDEXER_DEADLINE + ":-1}")
+  private long fcrepoDeadline;
+
+  @Value("${" + FCREPO_INDEXER_NODE_SELECTOR + ":}")
+  private String fcrepoNodeSelector;
+
+  @Value("${" + FCREPO_INDEXER_DELETE_SELECTOR + ":}")
+  private String fcrepoDeleteSelector;
+
+  @Value("${" + FCREPO_INDEXER_MEDIA_SELECTOR + ":}")
+  private String fcrepoMediaSelector;
+
+  @Value("${" + FCREPO_INDEXER_EXTERNAL_SELECTOR + ":}")
+  private String fcrepoExternalSelector;
+
   /**
    * Defines that Fedora indexer is only enabled if the appropriate property is set to "true".
    */
@@ -109,6 +160,54 @@ public class FcrepoIndexerOptions extends PropertyConfig {
     return addConcurrent(JMS_ENDPOINT_NAME + ":" + fcrepoExternalIndex);
   }
 
+  /**
+   * @return the lanes consuming the node index queue.
+   */
+  public List<ConsumerLane> getNodeIndexLanes() {
+    return lanes(JMS_ENDPOINT_NAME + ":" + fcrepoNodeIndex,
+        messageSelector(FCREPO_INDEXER_NODE_SELECTOR, fcrepoNodeSelector));
+  }
+
+  /**
+   * @return the lanes consuming the node delete queue.
+   */
+  public List<ConsumerLane> getNodeDeleteLanes() {
+    return lanes(JMS_ENDPOINT_NAME + ":" + fcrepoNodeDelete,
+        messageSelector(FCREPO_INDEXER_DELETE_SELECTOR, fcrepoDeleteSelector));
+  }
+
+  /**
+   * @return the lanes consuming the media index queue.
+   */
+  public List<ConsumerLane> getMediaIndexLanes() {
+    return lanes(JMS_ENDPOINT_NAME + ":" + fcrepoMediaIndex,
+        messageSelector(FCREPO_INDEXER_MEDIA_SELECTOR, fcrepoMediaSelector));
+  }
+
+  /**
+   * @return the lanes consuming the external content index queue.
+   */
+  public List<ConsumerLane> getExternalIndexLanes() {
+    return lanes(JMS_ENDPOINT_NAME + ":" + fcrepoExternalIndex,
+        messageSelector(FCREPO_INDEXER_EXTERNAL_SELECTOR, fcrepoExternalSelector));
+  }
+
+  /**
+   * The lanes consuming a queue, per fcrepo.indexer.bulk.mode. When there is a bulk lane the interactive lane has
+   * fcrepo.indexer.bulk.interactive-consumers of its own and the bulk lane the indexer's consumers.
+   * @param queueString
+   *   The topic/queue string.
+   * @param selector
+   *   The message selector of the events to consume, or null for all of them.
+   * @return
+   *   The lanes.
+   */
+  private List<ConsumerLane> lanes(final String queueString, final String selector) {
+    final int interactive = Math.max(1, fcrepoInteractiveConsumers);
+    return consumerLanes(queueString, FCREPO_INDEXER_BULK_MODE, fcrepoBulkMode, fcrepoBulkPriority, selector,
+        queue -> addJmsOptions(queue, interactive, interactive, fcrepoAsyncConsumers), this::addConcurrent);
+  }
+
   /**
    * Utility to avoid passing variables each time.
    * @param queueString
@@ -134,6 +233,41 @@ public class FcrepoIndexerOptions extends PropertyConfig {
     return fcrepoFedoraUriHeader;
   }
 
+  /**
+   * @return whether node and media index requests are sent to Milliner in batches.
+   */
+  public boolean isMillinerBatchEnabled() {
+    return fcrepoBatchEnabled;
+  }
+
+  /**
+   * @return the path of the Milliner batch endpoint, relative to the milliner base url.
+   */
+  public String getMillinerBatchPath() {
+    return fcrepoBatchPath;
+  }
+
+  /**
+   * @return the maximum number of requests in a batch.
+   */
+  public int getMillinerBatchSize() {
+    return fcrepoBatchSize;
+  }
+
+  /**
+   * @return the maximum milliseconds a request waits for its batch to fill.
+   */
+  public long getMillinerBatchTimeout() {
+    return fcrepoBatchTimeout;
+  }
+
+  /**
+   * @return the milliseconds an event's Milliner requests have to be answered in, or -1 for no deadline.
+   */
+  public long getDeadline() {
+    return fcrepoDeadline;
+  }
+
   /**
    * @return bean for the fcrepo indexer camel route.
    */
@@ -0,0 +1,287 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.indexing.fcrepo;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.http.base.HttpOperationFailedException;
+import org.apache.camel.support.AsyncProcessorSupport;
+import org.slf4j.Logger;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Collects Milliner index requests and sends them to the Milliner batch endpoint.
+ *
+ * Each exchange is held until its batch is sent, then completed with the result Milliner returned for that item. A
+ * failed item gets an HttpOperationFailedException with the item's status code, so the route's exception handling
+ * (412 and 410 skip, others retry) works the same as for individual requests.
+ *
+ * The batch request is a JSON object with a list of items, each with an "id" to correlate the response, the
+ * "method", the "path" relative to the Milliner base url, the "content_location" and the "fedora_endpoint".
+ * Milliner responds with an "items" list of "id", "status" and optional "message". Requests are batched separately
+ * for each Authorization header.
+ *
+ * @author agent
+ */
+public class MillinerBatchProcessor extends AsyncProcessorSupport {
+
+    private static final Logger LOGGER = getLogger(MillinerBatchProcessor.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Number of threads sending batches.
+     */
+    private static final int SENDER_THREADS = 4;
+
+    private final CamelContext camelContext;
+
+    private final FcrepoIndexerOptions config;
+
+    private final String sendEndpoint;
+
+    /**
+     * Pending batches by Authorization header.
+     */
+    private final Map<String, Batch> pending = new HashMap<>();
+
+    private ScheduledExecutorService executor;
+
+    private ProducerTemplate template;
+
+    /**
+     * Basic constructor.
+     * @param camelContext
+     *   The camel context.
+     * @param config
+     *   The fcrepo indexer options.
+     * @param sendEndpoint
+     *   Endpoint which POSTs a batch to Milliner and returns the response body as a String.
+     */
+    public MillinerBatchProcessor(final CamelContext camelContext, final FcrepoIndexerOptions config,
+                                  final String sendEndpoint) {
+        this.camelContext = camelContext;
+        this.config = config;
+        this.sendEndpoint = sendEndpoint;
+    }
+
+    @Override
+    public boolean process(final Exchange exchange, final AsyncCallback callback) {
+        final String authorization = exchange.getIn().getHeader("Authorization", "", String.class);
+        final Item item = new Item(exchange, callback);
+        Batch full = null;
+        synchronized (pending) {
+            final Batch batch = pending.computeIfAbsent(authorization, Batch::new);
+            batch.items.add(item);
+            if (batch.items.size() >= config.getMillinerBatchSize()) {
+                pending.remove(authorization);
+                if (batch.timer != null) {
+                    batch.timer.cancel(false);
+                }
+                full = batch;
+            } else if (batch.timer == null) {
+                batch.timer = executor.schedule(() -> flush(authorization, batch),
+                        config.getMillinerBatchTimeout(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            final Batch toSend = full;
+            executor.execute(() -> send(toSend));
+        }
+        return false;
+    }
+
+    /**
+     * Send a batch that has reached its timeout, unless it was already sent for being full.
+     * @param authorization
+     *   The batch key.
+     * @param batch
+     *   The batch.
+     */
+    private void flush(final String authorization, final Batch batch) {
+        synchronized (pending) {
+            if (!pending.remove(authorization, batch)) {
+                return;
+            }
+        }
+        send(batch);
+    }
+
+    /**
+     * Send a batch to Milliner and complete each of its exchanges.
+     * @param batch
+     *   The batch.
+     */
+    private void send(final Batch batch) {
+        final Map<String, Item> byId = new LinkedHashMap<>();
+        final List<Map<String, Object>> items = new ArrayList<>(batch.items.size());
+        for (final Item item : batch.items) {
+            final String id = Integer.toString(byId.size());
+            byId.put(id, item);
+            final Map<String, Object> json = new LinkedHashMap<>();
+            json.put("id", id);
+            json.put("method", item.method);
+            json.put("path", item.path);
+            json.put("content_location", item.contentLocation);
+            json.put("fedora_endpoint", item.fedoraEndpoint);
+            items.add(json);
+        }
+        LOGGER.debug("Sending batch of {} requests to Milliner", items.size());
+        try {
+            final String body = MAPPER.writeValueAsString(Map.of("items", items));
+            final Exchange response = template.request(sendEndpoint, exchange -> {
+                exchange.getIn().setHeader(Exchange.HTTP_METHOD, "POST");
+                exchange.getIn().setHeader(Exchange.CONTENT_TYPE, "application/json");
+                if (!batch.authorization.isEmpty()) {
+                    exchange.getIn().setHeader("Authorization", batch.authorization);
+                }
+                exchange.getIn().setBody(body);
+            });
+            if (response.getException() != null) {
+                throw response.getException();
+            }
+            final Map<String, List<Map<String, Object>>> results = MAPPER.readValue(
+                    response.getMessage().getBody(String.class),
+                    new TypeReference<Map<String, List<Map<String, Object>>>>() {});
+            for (final Map<String, Object> result : results.getOrDefault("items", List.of())) {
+                final Item item = byId.remove(String.valueOf(result.get("id")));
+                if (item == null) {
+                    continue;
+                }
+                final int status = status(result.get("status"));
+                final Object message = result.get("message");
+                if (status < 0) {
+                    // Only this item is failed, the others' results are still good.
+                    item.complete(500, "Milliner batch response has an invalid status \"" + result.get("status") +
+                            "\" for this item");
+                } else {
+                    item.complete(status, message == null ? null : String.valueOf(message));
+                }
+            }
+            for (final Item item : byId.values()) {
+                item.complete(500, "Milliner batch response has no result for this item");
+            }
+        } catch (final Exception e) {
+            LOGGER.warn("Milliner batch request failed: {}", e.getMessage());
+            byId.values().forEach(item -> item.fail(e));
+        }
+    }
+
+    /**
+     * @param status
+     *   The status of an item in Milliner's response, a number or a string.
+     * @return the status, or -1 if it isn't one.
+     */
+    private static int status(final Object status) {
+        if (status instanceof Number) {
+            return ((Number) status).intValue();
+        }
+        if (status != null) {
+            try {
+                return Integer.parseInt(status.toString().trim());
+            } catch (final NumberFormatException e) {
+                LOGGER.debug("Milliner batch response has an invalid status: {}", status);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        executor = camelContext.getExecutorServiceManager().newScheduledThreadPool(this, "MillinerBatch",
+                SENDER_THREADS);
+        template = camelContext.createProducerTemplate();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        // Send whatever is waiting, so those exchanges complete instead of hanging.
+        final List<Batch> remaining;
+        synchronized (pending) {
+            remaining = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        remaining.forEach(this::send);
+        camelContext.getExecutorServiceManager().shutdown(executor);
+        template.stop();
+        super.doStop();
+    }
+
+    /**
+     * Requests waiting to be sent together.
+     */
+    private static class Batch {
+        private final String authorization;
+        private final List<Item> items = new ArrayList<>();
+        private ScheduledFuture<?> timer;
+
+        Batch(final String authorization) {
+            this.authorization = authorization;
+        }
+    }
+
+    /**
+     * A single exchange waiting on a batch.
+     */
+    private class Item {
+        private final Exchange exchange;
+        private final AsyncCallback callback;
+        private final String method;
+        private final String path;
+        private final String contentLocation;
+        private final String fedoraEndpoint;
+
+        Item(final Exchange exchange, final AsyncCallback callback) {
+            this.exchange = exchange;
+            this.callback = callback;
+            this.method = exchange.getIn().getHeader(Exchange.HTTP_METHOD, "POST", String.class);
+            this.path = exchange.getIn().getHeader(Exchange.HTTP_PATH, String.class);
+            this.contentLocation = exchange.getIn().getHeader("Content-Location", String.class);
+            this.fedoraEndpoint = exchange.getIn().getHeader(config.getFedoraUriHeader(), String.class);
+        }
+
+        void complete(final int status, final String message) {
+            if (status >= 300) {
+                exchange.setException(new HttpOperationFailedException(config.getMillinerBaseUrl() + path, status,
+                        message, null, null, message));
+            }
+            callback.done(false);
+        }
+
+        void fail(final Exception e) {
+            exchange.setException(e);
+            callback.done(false);
+        }
+    }
+}
@@ -26,7 +26,6 @@ import org.apache.camel.ProducerTemplate;
 import org.apache.camel.builder.AdviceWith;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.component.mock.MockEndpoint;
-import org.apache.camel.model.ToDynamicDefinition;
 import org.apache.camel.spring.javaconfig.CamelConfiguration;
 import org.apache.camel.test.spring.CamelSpringRunner;
 import org.apache.camel.test.spring.CamelSpringTestSupport;
@@ -74,16 +73,14 @@ public class FcrepoIndexerTest extends CamelSpringTestSupport {
             a.replaceFromWith("direct:start")
         );
         AdviceWith.adviceWith(context, nodeSubRoute, a ->
-            a.weaveByType(ToDynamicDefinition.class).selectIndex(0).replace().toD("mock:localhost:8000" +
-                    "/milliner/node/${exchangeProperty.uuid}")
+            a.weaveByToUri("http://localhost:8000/milliner/*").replace().to("mock:milliner")
         );
         context.start();
 
         // Assert we POST to milliner with creds.
-        final MockEndpoint milliner = getMockEndpoint(
-            "mock:localhost:8000/milliner/node/72358916-51e9-4712-b756-4b0404c91b1d"
-        );
+        final MockEndpoint milliner = getMockEndpoint("mock:milliner");
         milliner.expectedMessageCount(1);
+        milliner.expectedHeaderReceived(Exchange.HTTP_PATH, "node/72358916-51e9-4712-b756-4b0404c91b1d");
         milliner.expectedHeaderReceived("Authorization", "Bearer islandora");
         milliner.expectedHeaderReceived("Content-Location", "http://localhost:8000/node/2?_format=jsonld");
         milliner.expectedHeaderReceived(Exchange.HTTP_METHOD, "POST");
@@ -111,16 +108,14 @@ public class FcrepoIndexerTest extends CamelSpringTestSupport {
             a.replaceFromWith("direct:start")
         );
         AdviceWith.adviceWith(context, versionSubRoute, a ->
-            a.weaveByType(ToDynamicDefinition.class).selectIndex(0).replace().toD("mock:localhost:8000" +
-                    "/milliner/node/${exchangeProperty.uuid}/version")
+            a.weaveByToUri("http://localhost:8000/milliner/*").replace().to("mock:milliner")
         );
         context.start();
 
         // Assert we POST to milliner with creds.
-        final MockEndpoint milliner = getMockEndpoint(
-                "mock:localhost:8000/milliner/node/72358916-51e9-4712-b756-4b0404c91b/version"
-        );
+        final MockEndpoint milliner = getMockEndpoint("mock:milliner");
         milliner.expectedMessageCount(1);
+        milliner.expectedHeaderReceived(Exchange.HTTP_PATH, "node/72358916-51e9-4712-b756-4b0404c91b/version");
         milliner.expectedHeaderReceived("Authorization", "Bearer islandora");
         milliner.expectedHeaderReceived("Content-Location", "http://localhost:8000/node/2?_format=jsonld");
         milliner.expectedHeaderReceived(Exchange.HTTP_METHOD, "POST");
@@ -143,16 +138,14 @@ public class FcrepoIndexerTest extends CamelSpringTestSupport {
         context.disableJMX();
         AdviceWith.adviceWith(context, route, a -> {
             a.replaceFromWith("direct:start");
-            a.weaveByType(ToDynamicDefinition.class).selectIndex(0).replace().toD("mock:localhost:8000/milliner/node" +
-                    "/${exchangeProperty.uuid}");
+            a.weaveByToUri("http://localhost:8000/milliner/*").replace().to("mock:milliner");
         });
         context.start();
 
         // Assert we DELETE to milliner with creds.
-        final MockEndpoint milliner = getMockEndpoint(
-            "mock:localhost:8000/milliner/node/72358916-51e9-4712-b756-4b0404c91b1d"
-        );
+        final MockEndpoint milliner = getMockEndpoint("mock:milliner");
         milliner.expectedMessageCount(1);
+        milliner.expectedHeaderReceived(Exchange.HTTP_PATH, "node/72358916-51e9-4712-b756-4b0404c91b1d");
         milliner.expectedHeaderReceived("Authorization", "Bearer islandora");
         milliner.expectedHeaderReceived(Exchange.HTTP_METHOD, "DELETE");
         milliner.expectedHeaderReceived("X-ISLANDORA-FEDORA-HEADER", "http://localhost:8080/fcrepo/rest/node");
@@ -176,16 +169,14 @@ public class FcrepoIndexerTest extends CamelSpringTestSupport {
         context.disableJMX();
         AdviceWith.adviceWith(context, route, a -> {
             a.replaceFromWith("direct:start");
-            a.weaveByType(ToDynamicDefinition.class).selectIndex(0).replace().toD("mock:localhost:8000/milliner/" +
-                    "external/${exchangeProperty.uuid}");
+            a.weaveByToUri("http://localhost:8000/milliner/*").replace().to("mock:milliner");
         });
         context.start();
 
         // Assert we POST to Milliner with creds.
-        final MockEndpoint milliner = getMockEndpoint(
-            "mock:localhost:8000/milliner/external/148dfe8f-9711-4263-97e7-3ef3fb15864f"
-        );
+        final MockEndpoint milliner = getMockEndpoint("mock:milliner");
         milliner.expectedMessageCount(1);
+        milliner.expectedHeaderReceived(Exchange.HTTP_PATH, "external/148dfe8f-9711-4263-97e7-3ef3fb15864f");
         milliner.expectedHeaderReceived("Authorization", "Bearer islandora");
         milliner.expectedHeaderReceived(
             "Content-Location",
@@ -216,17 +207,15 @@ public class FcrepoIndexerTest extends CamelSpringTestSupport {
             a.replaceFromWith("direct:start")
         );
         AdviceWith.adviceWith(context, mediaSubRoute, a->
-            a.weaveByType(ToDynamicDefinition.class).selectIndex(0).replace().toD("mock:localhost:8000/milliner/" +
-                    "media/${exchangeProperty.sourceField}")
+            a.weaveByToUri("http://localhost:8000/milliner/*").replace().to("mock:milliner")
         );
 
         context.start();
 
         // Assert we POST the event to milliner with creds.
-        final MockEndpoint milliner = getMockEndpoint(
-                "mock:localhost:8000/milliner/media/field_media_image"
-        );
+        final MockEndpoint milliner = getMockEndpoint("mock:milliner");
         milliner.expectedMessageCount(1);
+        milliner.expectedHeaderReceived(Exchange.HTTP_PATH, "media/field_media_image");
         milliner.expectedHeaderReceived("Authorization", "Bearer islandora");
         milliner.expectedHeaderReceived("Content-Location", "http://localhost:8000/media/6?_format=json");
         milliner.expectedHeaderReceived(Exchange.HTTP_METHOD, "POST");
@@ -252,15 +241,13 @@ public class FcrepoIndexerTest extends CamelSpringTestSupport {
         context.disableJMX();
         AdviceWith.adviceWith(context, route, a -> a.replaceFromWith("direct:start"));
         AdviceWith.adviceWith(context, versionSubRoute, a ->
-            a.weaveByType(ToDynamicDefinition.class).selectIndex(0).replace().toD("mock:localhost:8000/milliner/" +
-                    "media/${exchangeProperty.sourceField}/version")
+            a.weaveByToUri("http://localhost:8000/milliner/*").replace().to("mock:milliner")
         );
         context.start();
 
         // Assert we POST the event to milliner with creds.
-        final MockEndpoint milliner = getMockEndpoint(
-                "mock:localhost:8000/milliner/media/field_media_image/version"
-        );
+        final MockEndpoint milliner = getMockEndpoint("mock:milliner");
+        milliner.expectedHeaderReceived(Exchange.HTTP_PATH, "media/field_media_image/version");
         milliner.expectedHeaderReceived("Authorization", "Bearer islandora");
         milliner.expectedHeaderReceived("Content-Location", "http://localhost:8000/media/7?_format=json");
         milliner.expectedHeaderReceived(Exchange.HTTP_METHOD, "POST");
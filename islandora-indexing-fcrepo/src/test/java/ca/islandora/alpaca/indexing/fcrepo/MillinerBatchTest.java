@@ -0,0 +1,222 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.indexing.fcrepo;
+
+import static org.apache.camel.util.ObjectHelper.loadResourceAsStream;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.AdviceWith;
+import org.apache.camel.builder.NotifyBuilder;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spring.javaconfig.CamelConfiguration;
+import org.apache.camel.test.spring.CamelSpringRunner;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+
+import ca.islandora.alpaca.support.config.ActivemqConfig;
+
+/**
+ * Tests the Milliner batch mode against a stub Milliner.
+ *
+ * @author agent
+ */
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@RunWith(CamelSpringRunner.class)
+public class MillinerBatchTest extends CamelSpringTestSupport {
+
+    private static final String INDEX_ROUTES = "FcrepoIndexer(Node|Media)Index";
+
+    private static final String NODE_UUID = "72358916-51e9-4712-b756-4b0404c91b1d";
+
+    private static StubMilliner milliner;
+
+    @Override
+    public boolean isUseAdviceWith() {
+        return true;
+    }
+
+    @Override
+    public boolean isUseRouteBuilder() {
+        return false;
+    }
+
+    @Test
+    public void testNodeAndMediaShareBatch() throws Exception {
+        startRoutes();
+        final NotifyBuilder done = new NotifyBuilder(context).fromRoute(INDEX_ROUTES)
+                .whenDone(2).create();
+
+        sendEvent("direct:node", "NodeAS2Event.jsonld");
+        sendEvent("direct:media", "MediaAS2Event.jsonld");
+
+        assertTrue(done.matches(10, TimeUnit.SECONDS));
+        assertEquals(List.of(2), milliner.getBatchSizes());
+        assertEquals(List.of("media/field_media_image", "node/" + NODE_UUID), paths());
+        final var node = request("node/" + NODE_UUID);
+        assertEquals("http://localhost:8000/node/2?_format=jsonld", node.get("content_location"));
+        assertEquals("http://localhost:8080/fcrepo/rest/node", node.get("fedora_endpoint"));
+    }
+
+    @Test
+    public void testTimeoutFlushesPartialBatch() throws Exception {
+        startRoutes();
+        final NotifyBuilder done = new NotifyBuilder(context).fromRoute(INDEX_ROUTES)
+                .whenDone(1).create();
+
+        sendEvent("direct:node", "NodeAS2Event.jsonld");
+
+        assertTrue(done.matches(10, TimeUnit.SECONDS));
+        assertEquals(List.of(1), milliner.getBatchSizes());
+    }
+
+    @Test
+    public void testFailedItemIsRetried() throws Exception {
+        milliner.respondWith("media/field_media_image", 500);
+        startRoutes();
+        final NotifyBuilder done = new NotifyBuilder(context).fromRoute(INDEX_ROUTES)
+                .whenDone(2).create();
+
+        sendEvent("direct:node", "NodeAS2Event.jsonld");
+        sendEvent("direct:media", "MediaAS2Event.jsonld");
+
+        assertTrue(done.matches(10, TimeUnit.SECONDS));
+        // The node succeeded in the first batch, only the media is sent again.
+        assertEquals(List.of("media/field_media_image", "media/field_media_image", "node/" + NODE_UUID), paths());
+    }
+
+    @Test
+    public void testPreconditionFailedIsNotRetried() throws Exception {
+        milliner.respondWith("node/" + NODE_UUID, 412);
+        startRoutes();
+        final NotifyBuilder done = new NotifyBuilder(context).fromRoute(INDEX_ROUTES)
+                .whenDone(2).create();
+
+        sendEvent("direct:node", "NodeAS2Event.jsonld");
+        sendEvent("direct:media", "MediaAS2Event.jsonld");
+
+        assertTrue(done.matches(10, TimeUnit.SECONDS));
+        assertEquals(List.of("media/field_media_image", "node/" + NODE_UUID), paths());
+    }
+
+    @Test
+    public void testInvalidStatusFailsOnlyItsItem() throws Exception {
+        milliner.respondInBatchWith("media/field_media_image", "201");
+        milliner.respondInBatchWith("node/" + NODE_UUID, "created");
+        startRoutes();
+        final NotifyBuilder done = new NotifyBuilder(context).fromRoute(INDEX_ROUTES)
+                .whenDone(2).create();
+
+        sendEvent("direct:node", "NodeAS2Event.jsonld");
+        sendEvent("direct:media", "MediaAS2Event.jsonld");
+
+        assertTrue(done.matches(10, TimeUnit.SECONDS));
+        // A status given as a string is read, only the node with an invalid status is sent again.
+        assertEquals(List.of("media/field_media_image", "node/" + NODE_UUID, "node/" + NODE_UUID), paths());
+    }
+
+    @After
+    public void resetMilliner() {
+        milliner.reset();
+    }
+
+    private void startRoutes() throws Exception {
+        context.disableJMX();
+        AdviceWith.adviceWith(context, "FcrepoIndexerNode", a -> a.replaceFromWith("direct:node"));
+        AdviceWith.adviceWith(context, "FcrepoIndexerMedia", a -> a.replaceFromWith("direct:media"));
+        context.start();
+    }
+
+    private void sendEvent(final String endpoint, final String resource) {
+        final ProducerTemplate template = context.createProducerTemplate();
+        template.send(endpoint, exchange -> {
+            exchange.getIn().setHeader("Authorization", "Bearer islandora");
+            exchange.getIn().setBody(IOUtils.toString(loadResourceAsStream(resource), "UTF-8"), String.class);
+        });
+    }
+
+    private List<String> paths() {
+        // Sorted, the order of the items within a batch isn't fixed.
+        return milliner.getRequests().stream().map(r -> String.valueOf(r.get("path"))).sorted()
+                .collect(Collectors.toList());
+    }
+
+    private Map<String, Object> request(final String path) {
+        return milliner.getRequests().stream().filter(r -> path.equals(r.get("path"))).findFirst().orElseThrow();
+    }
+
+    @BeforeClass
+    public static void setProperties() throws Exception {
+        milliner = new StubMilliner();
+        System.setProperty("error.maxRedeliveries", "1");
+        System.setProperty("fcrepo.indexer.enabled", "true");
+        System.setProperty("fcrepo.indexer.node", "topic:islandora-indexing-fcrepo-content");
+        System.setProperty("fcrepo.indexer.delete", "topic:islandora-indexing-fcrepo-delete");
+        System.setProperty("fcrepo.indexer.external", "topic:islandora-indexing-fcrepo-file-external");
+        System.setProperty("fcrepo.indexer.media", "topic:islandora-indexing-fcrepo-media");
+        System.setProperty("fcrepo.indexer.milliner.baseUrl", milliner.getBaseUrl());
+        System.setProperty("fcrepo.indexer.fedoraHeader", "X-ISLANDORA-FEDORA-HEADER");
+        System.setProperty("fcrepo.indexer.milliner.batch.enabled", "true");
+        System.setProperty("fcrepo.indexer.milliner.batch.size", "2");
+        System.setProperty("fcrepo.indexer.milliner.batch.timeout", "500");
+    }
+
+    @AfterClass
+    public static void clearProperties() {
+        System.clearProperty("fcrepo.indexer.milliner.batch.enabled");
+        System.clearProperty("fcrepo.indexer.milliner.batch.size");
+        System.clearProperty("fcrepo.indexer.milliner.batch.timeout");
+        milliner.close();
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        final var context = new AnnotationConfigApplicationContext();
+        context.register(MillinerBatchTest.ContextConfig.class);
+        return context;
+    }
+
+    @Configuration
+    @ComponentScan(basePackageClasses = {FcrepoIndexerOptions.class, ActivemqConfig.class},
+            useDefaultFilters = false,
+            includeFilters = @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE,
+                    classes = {FcrepoIndexerOptions.class, ActivemqConfig.class}))
+    static class ContextConfig extends CamelConfiguration {
+
+        @Bean
+        public RouteBuilder route() {
+            return new FcrepoIndexer();
+        }
+    }
+}
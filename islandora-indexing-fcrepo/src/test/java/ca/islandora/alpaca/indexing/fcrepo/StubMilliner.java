@@ -0,0 +1,161 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.indexing.fcrepo;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A minimal Milliner for tests, it answers single requests and the batch endpoint.
+ *
+ * Every request is answered with 201 unless a different status is set for its path with respondWith().
+ *
+ * @author agent
+ */
+public class StubMilliner implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+
+    private final Map<String, Integer> statuses = new ConcurrentHashMap<>();
+
+    private final Map<String, Object> batchStatuses = new ConcurrentHashMap<>();
+
+    private final List<Map<String, Object>> requests = new CopyOnWriteArrayList<>();
+
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+    /**
+     * Start the stub on a free port.
+     * @throws IOException
+     *   If the server cannot be started.
+     */
+    public StubMilliner() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/milliner/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return the base url of the stub, ending in a slash.
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/milliner/";
+    }
+
+    /**
+     * Respond to requests for a path with a status.
+     * @param path
+     *   The path relative to the base url.
+     * @param status
+     *   The status code.
+     */
+    public void respondWith(final String path, final int status) {
+        statuses.put(path, status);
+    }
+
+    /**
+     * Give the item for a path a status as is in batch responses, ie. a string.
+     * @param path
+     *   The path relative to the base url.
+     * @param status
+     *   The status, as it is written in the response.
+     */
+    public void respondInBatchWith(final String path, final Object status) {
+        batchStatuses.put(path, status);
+    }
+
+    /**
+     * @return every request received, single or batched, as maps of method, path, content_location and
+     *     fedora_endpoint.
+     */
+    public List<Map<String, Object>> getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the number of items in each batch request received.
+     */
+    public List<Integer> getBatchSizes() {
+        return batchSizes;
+    }
+
+    /**
+     * Forget the requests and statuses.
+     */
+    public void reset() {
+        statuses.clear();
+        batchStatuses.clear();
+        requests.clear();
+        batchSizes.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath().substring("/milliner/".length());
+        final String body = new String(exchange.getRequestBody().readAllBytes(), UTF_8);
+        if (path.equals("batch")) {
+            final Map<String, List<Map<String, Object>>> batch = MAPPER.readValue(body,
+                    new TypeReference<Map<String, List<Map<String, Object>>>>() {});
+            final List<Map<String, Object>> results = new ArrayList<>();
+            batchSizes.add(batch.get("items").size());
+            for (final Map<String, Object> item : batch.get("items")) {
+                requests.add(item);
+                final String itemPath = String.valueOf(item.get("path"));
+                final Object status = batchStatuses.getOrDefault(itemPath, statuses.getOrDefault(itemPath, 201));
+                results.add(Map.of("id", item.get("id"), "status", status));
+            }
+            respond(exchange, 200, MAPPER.writeValueAsString(Map.of("items", results)));
+        } else {
+            requests.add(Map.of(
+                    "method", exchange.getRequestMethod(),
+                    "path", path,
+                    "content_location", String.valueOf(exchange.getRequestHeaders().getFirst("Content-Location"))
+            ));
+            respond(exchange, statuses.getOrDefault(path, 201), "");
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body)
+            throws IOException {
+        final byte[] bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -19,13 +19,17 @@
 package ca.islandora.alpaca.indexing.triplestore;
 
 import static ca.islandora.alpaca.indexing.triplestore.processors.FcrepoHeaders.FCREPO_URI;
+import static ca.islandora.alpaca.support.event.AS2EventExpressions.EVENT_PROPERTY;
+import static ca.islandora.alpaca.support.http.HttpPathProcessor.HTTP_ORIGIN_PROPERTY;
 import static org.apache.camel.LoggingLevel.ERROR;
 import static org.apache.camel.LoggingLevel.INFO;
 import static org.apache.camel.LoggingLevel.TRACE;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.model.ProcessorDefinition;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -39,6 +43,11 @@ import ca.islandora.alpaca.support.event.AS2Url;
 import ca.islandora.alpaca.support.exceptions.MissingDescribesUrlException;
 import ca.islandora.alpaca.support.exceptions.MissingJsonldUrlException;
 import ca.islandora.alpaca.support.exceptions.MissingPropertyException;
+import ca.islandora.alpaca.support.http.HttpPathProcessor;
+import ca.islandora.alpaca.support.http.RequestDeadlines;
+import ca.islandora.alpaca.support.jms.ConsumerLane;
+import ca.islandora.alpaca.support.timing.ExchangeTimer;
+import ca.islandora.alpaca.support.timing.Stage;
 
 /**
  * @author dhlamb
@@ -68,26 +77,68 @@ public class TriplestoreIndexer extends RouteBuilder {
                 "Error indexing ${exchangeProperty.uri} in triplestore: ${exception.message}\n\n${exception.stacktrace}"
             );
 
-        from(config.getJmsIndexStream())
-            .routeId("IslandoraTriplestoreIndexer")
-                .log(TRACE, LOGGER, "Received message on IslandoraTriplestoreIndexer")
-              .to("direct:parse.url")
-              .removeHeaders("*", "Authorization")
-              .setHeader(Exchange.HTTP_METHOD, constant("GET"))
-              .setBody(simple("${null}"))
-              .toD(config.addHttpOptions("${exchangeProperty.jsonld_url}", true))
-              .setHeader(FCREPO_URI, simple("${exchangeProperty.subject_url}"))
-              .process(new SparqlUpdateProcessor())
-              .log(INFO, LOGGER, "Indexing ${exchangeProperty.subject_url} in triplestore")
-              .to(config.getTriplestoreBaseUrl());
-
-        from(config.getJmsDeleteStream())
-            .routeId("IslandoraTriplestoreIndexerDelete")
-              .to("direct:parse.url")
-              .setHeader(FCREPO_URI, simple("${exchangeProperty.subject_url}"))
-              .process(new SparqlDeleteProcessor())
-              .log(INFO, LOGGER, "Deleting ${exchangeProperty.subject_url} in triplestore")
-              .to(config.getTriplestoreBaseUrl());
+        final Processor idempotent = config.idempotent("triplestore");
+        final ExchangeTimer timing = config.timing();
+        // Abort the requests of an event past its deadline.
+        final Processor deadline = RequestDeadlines.deadline(getContext(), config.getDeadline());
+
+        final String jsonldOrigin = config.addHttpOptions("${exchangeProperty." + HTTP_ORIGIN_PROPERTY + "}");
+        // Shared by the lanes, so the hedging policy sees all the requests.
+        final Processor hedgedSend = config.isHedgeEnabled() ? config.hedgedSend(simple(jsonldOrigin),
+            config.rateLimit(exchangeProperty("jsonld_url"))) : null;
+        for (final ConsumerLane lane : config.getJmsIndexStreamLanes()) {
+            ProcessorDefinition<?> fetch = from(lane.getEndpoint())
+                .routeId(lane.routeId("IslandoraTriplestoreIndexer"))
+                  .process(timing.start())
+                  .process(deadline)
+                    .log(TRACE, LOGGER, "Received message on IslandoraTriplestoreIndexer")
+                  .to("direct:parse.url")
+                  .process(timing.stage(Stage.PARSE))
+                  // Skip events already indexed.
+                  .process(idempotent)
+                  .removeHeaders("*", "Authorization")
+                  .setHeader(Exchange.HTTP_METHOD, constant("GET"))
+                  .setBody(simple("${null}"))
+                  .process(new HttpPathProcessor(exchangeProperty("jsonld_url")));
+            if (hedgedSend != null) {
+                // Send the GET again if it is slow to answer, and use the first answer.
+                fetch = fetch.process(hedgedSend);
+            } else {
+                fetch = fetch
+                  .process(config.rateLimit(exchangeProperty("jsonld_url")))
+                  .toD(jsonldOrigin, config.getHttpEndpointCacheSize());
+            }
+            fetch
+                  .process(timing.stage(Stage.FETCH))
+                  // The path and query are still set from the request, they must not be added to the triplestore url.
+                  .removeHeader(Exchange.HTTP_PATH)
+                  .removeHeader(Exchange.HTTP_QUERY)
+                  .setHeader(FCREPO_URI, simple("${exchangeProperty.subject_url}"))
+                  .process(new SparqlUpdateProcessor())
+                  .process(timing.stage(Stage.CONVERT))
+                  .log(INFO, LOGGER, "Indexing ${exchangeProperty.subject_url} in triplestore")
+                  .process(config.rateLimit(config.getTriplestoreBaseUrl()))
+                  .to(config.getTriplestoreBaseUrl())
+                  .process(timing.stage(Stage.WRITE));
+        }
+
+        for (final ConsumerLane lane : config.getJmsDeleteStreamLanes()) {
+            from(lane.getEndpoint())
+                .routeId(lane.routeId("IslandoraTriplestoreIndexerDelete"))
+                  .process(timing.start())
+                  .process(deadline)
+                  .to("direct:parse.url")
+                  .process(timing.stage(Stage.PARSE))
+                  // Skip events already indexed.
+                  .process(idempotent)
+                  .setHeader(FCREPO_URI, simple("${exchangeProperty.subject_url}"))
+                  .process(new SparqlDeleteProcessor())
+                  .process(timing.stage(Stage.CONVERT))
+                  .log(INFO, LOGGER, "Deleting ${exchangeProperty.subject_url} in triplestore")
+                  .process(config.rateLimit(config.getTriplestoreBaseUrl()))
+                  .to(config.getTriplestoreBaseUrl())
+                  .process(timing.stage(Stage.WRITE));
+        }
 
         // Extracts the JSONLD URL from the event message and stores it on the exchange.
         from("direct:parse.url")
@@ -124,6 +175,7 @@ public class TriplestoreIndexer extends RouteBuilder {
                   LOGGER.trace("Triplestore ParseUrl incoming message is \n{}", message);
 
                   final AS2Event object = objectMapper.readValue(message, AS2Event.class);
+                  ex.setProperty(EVENT_PROPERTY, object);
 
                   final AS2Url jsonldUrl = object.getObject().getJsonldUrl();
 
@@ -17,6 +17,12 @@
  */
 package ca.islandora.alpaca.indexing.triplestore;
 
+import java.util.List;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Expression;
+import org.apache.camel.Processor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Conditional;
@@ -24,6 +30,9 @@ import org.springframework.context.annotation.Configuration;
 
 import ca.islandora.alpaca.support.config.ConditionOnPropertyTrue;
 import ca.islandora.alpaca.support.config.PropertyConfig;
+import ca.islandora.alpaca.support.http.HedgePolicy;
+import ca.islandora.alpaca.support.http.HedgedSendProcessor;
+import ca.islandora.alpaca.support.jms.ConsumerLane;
 
 /**
  * Triplestore indexer configuration class.
@@ -44,6 +53,18 @@ public class TriplestoreIndexerOptions extends PropertyConfig {
   private static final String TRIPLESTORE_CONCURRENT = "triplestore.indexer.concurrent-consumers";
   private static final String TRIPLESTORE_MAX_CONCURRENT = "triplestore.indexer.max-concurrent-consumers";
   private static final String TRIPLESTORE_ASYNC_CONSUMER = "triplestore.indexer.async-consumer";
+  private static final String TRIPLESTORE_HEDGE_ENABLED = "triplestore.hedge.enabled";
+  private static final String TRIPLESTORE_HEDGE_DELAY = "triplestore.hedge.delay";
+  private static final String TRIPLESTORE_HEDGE_BUDGET = "triplestore.hedge.budget";
+  private static final String TRIPLESTORE_BULK_MODE = "triplestore.indexer.bulk.mode";
+  private static final String TRIPLESTORE_BULK_PRIORITY = "triplestore.indexer.bulk.priority";
+  private static final String TRIPLESTORE_BULK_INTERACTIVE = "triplestore.indexer.bulk.interactive-consumers";
+  private static final String TRIPLESTORE_DEADLINE = "triplestore.indexer.deadline";
+  private static final String TRIPLESTORE_INDEX_SELECTOR = "triplestore.index.selector";
+  private static final String TRIPLESTORE_DELETE_SELECTOR = "triplestore.delete.selector";
+
+  @Autowired
+  private CamelContext camelContext;
 
   @Value("${" + TRIPLESTORE_INDEX_QUEUE + ":}")
   private String jmsIndexStream;
@@ -63,6 +84,33 @@ public class TriplestoreIndexerOptions extends PropertyConfig {
   @Value("${" + TRIPLESTORE_ASYNC_CONSUMER + ":false}")
   private boolean triplestoreAsyncConsumer;
 
+  @Value("${" + TRIPLESTORE_HEDGE_ENABLED + ":false}")
+  private boolean hedgeEnabled;
+
+  @Value("${" + TRIPLESTORE_HEDGE_DELAY + ":-1}")
+  private long hedgeDelay;
+
+  @Value("${" + TRIPLESTORE_HEDGE_BUDGET + ":10}")
+  private double hedgeBudget;
+
+  @Value("${" + TRIPLESTORE_BULK_MODE + ":off}")
+  private String bulkMode;
+
+  @Value("${" + TRIPLESTORE_BULK_PRIORITY + ":4}")
+  private int bulkPriority;
+
+  @Value("${" + TRIPLESTORE_BULK_INTERACTIVE + ":1}")
+  private int interactiveConsumers;
+
+  @Value("${" + TRIPLESTORE_DEADLINE + ":-1}")
+  private long deadline;
+
+  @Value("${" + TRIPLESTORE_INDEX_SELECTOR + ":}")
+  private String jmsIndexSelector;
+
+  @Value("${" + TRIPLESTORE_DELETE_SELECTOR + ":}")
+  private String jmsDeleteSelector;
+
   /**
    * Defines that triplestore indexer is only enabled if the appropriate property is set to "true".
    */
@@ -88,6 +136,22 @@ public class TriplestoreIndexerOptions extends PropertyConfig {
     return addConcurrent(JMS_ENDPOINT_NAME + ":" + jmsDeleteStream);
   }
 
+  /**
+   * @return the lanes consuming the jms index stream.
+   */
+  public List<ConsumerLane> getJmsIndexStreamLanes() {
+    return lanes(JMS_ENDPOINT_NAME + ":" + jmsIndexStream,
+        messageSelector(TRIPLESTORE_INDEX_SELECTOR, jmsIndexSelector));
+  }
+
+  /**
+   * @return the lanes consuming the jms delete stream.
+   */
+  public List<ConsumerLane> getJmsDeleteStreamLanes() {
+    return lanes(JMS_ENDPOINT_NAME + ":" + jmsDeleteStream,
+        messageSelector(TRIPLESTORE_DELETE_SELECTOR, jmsDeleteSelector));
+  }
+
   /**
    * @return the triplestore base url.
    */
@@ -95,6 +159,35 @@ public class TriplestoreIndexerOptions extends PropertyConfig {
     return addHttpOptions(triplestoreBaseUrl);
   }
 
+  /**
+   * @return the milliseconds an event's requests have to be answered in, or -1 for no deadline.
+   */
+  public long getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * @return whether the JSON-LD requests are hedged.
+   */
+  public boolean isHedgeEnabled() {
+    return hedgeEnabled;
+  }
+
+  /**
+   * Processor which sends a GET request, and sends it again if it isn't answered within triplestore.hedge.delay
+   * milliseconds, or the 95th percentile of the response times if -1 (the default). At most triplestore.hedge.budget
+   * percent (default 10) of the requests are sent again.
+   * @param uri
+   *   The uri to send the request to.
+   * @param beforeSend
+   *   Processor run before each request is sent.
+   * @return the processor.
+   */
+  public Processor hedgedSend(final Expression uri, final Processor beforeSend) {
+    return new HedgedSendProcessor(camelContext, new HedgePolicy("triplestore", hedgeDelay, hedgeBudget), uri,
+        beforeSend, getHttpEndpointCacheSize());
+  }
+
   /**
    * Utility to avoid passing variables each time.
    * @param queueString
@@ -106,6 +199,22 @@ public class TriplestoreIndexerOptions extends PropertyConfig {
     return addJmsOptions(queueString, triplestoreConcurrent, triplestoreMaxConcurrent, triplestoreAsyncConsumer);
   }
 
+  /**
+   * The lanes consuming a queue, per triplestore.indexer.bulk.mode. When there is a bulk lane the interactive lane
+   * has triplestore.indexer.bulk.interactive-consumers of its own and the bulk lane the indexer's consumers.
+   * @param queueString
+   *   The topic/queue string.
+   * @param selector
+   *   The message selector of the events to consume, or null for all of them.
+   * @return
+   *   The lanes.
+   */
+  private List<ConsumerLane> lanes(final String queueString, final String selector) {
+    final int interactive = Math.max(1, interactiveConsumers);
+    return consumerLanes(queueString, TRIPLESTORE_BULK_MODE, bulkMode, bulkPriority, selector,
+        queue -> addJmsOptions(queue, interactive, interactive, triplestoreAsyncConsumer), this::addConcurrent);
+  }
+
   /**
    * @return Triplestore indexer bean.
    */
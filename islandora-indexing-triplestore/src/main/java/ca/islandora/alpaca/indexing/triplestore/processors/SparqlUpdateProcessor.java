@@ -39,6 +39,8 @@ import org.apache.camel.Message;
 import org.apache.camel.NoSuchHeaderException;
 import org.apache.camel.Processor;
 
+import ca.islandora.alpaca.support.jfr.StageEvent;
+
 /**
  * Represents a processor for creating the sparql-update message to
  * be passed to an external triplestore.
@@ -65,13 +67,17 @@ public class SparqlUpdateProcessor implements Processor {
         final Model model = createDefaultModel();
         final String subject = getSubjectUri(exchange);
 
+        final StageEvent parseEvent = StageEvent.start("sparql.parse", exchange);
         read(model, in.getBody(InputStream.class),
                 contentTypeToLang(parse(in.getHeader(CONTENT_TYPE, String.class)).getMimeType()));
+        parseEvent.commit();
 
+        final StageEvent serializeEvent = StageEvent.start("sparql.serialize", exchange);
         model.write(serializedGraph, "N-TRIPLE");
 
         in.setBody("update=" + encode(deleteWhere(subject, namedGraph) + ";\n" +
                 insertData(serializedGraph.toString("UTF-8"), namedGraph), "UTF-8"));
+        serializeEvent.commit();
 
         in.setHeader(HTTP_METHOD, "POST");
         in.setHeader(CONTENT_TYPE, "application/x-www-form-urlencoded; charset=utf-8");
@@ -0,0 +1,179 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.event;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.apache.camel.Predicate;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.spi.Language;
+import org.apache.camel.support.DefaultExchange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the Simple expressions the routes used to evaluate on every exchange with AS2EventExpressions.
+ *
+ * Run with ./gradlew :islandora-support:jmh
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AS2EventExpressionsBenchmark {
+
+    private CamelContext context;
+
+    private Exchange exchange;
+
+    private Expression simpleUuid;
+
+    private Expression simpleJsonldUrl;
+
+    private Expression simpleSourceField;
+
+    private Predicate simpleIsNewVersion;
+
+    /**
+     * Build the context, the exchange and the Simple expressions.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        context = new DefaultCamelContext();
+        context.start();
+
+        final AS2Url canonical = new AS2Url();
+        canonical.setHref("http://localhost:8000/node/1");
+        canonical.setMediaType("text/html");
+        canonical.setRel("canonical");
+        final AS2Url jsonld = new AS2Url();
+        jsonld.setHref("http://localhost:8000/node/1?_format=jsonld");
+        jsonld.setMediaType("application/ld+json");
+        jsonld.setRel("alternate");
+        final AS2Object object = new AS2Object();
+        object.setId("urn:uuid:72358916-51e9-4712-b756-4b0404c91b1d");
+        object.setUrl(new AS2Url[]{canonical, jsonld});
+        object.setIsNewVersion(true);
+        final AS2AttachmentContent content = new AS2AttachmentContent();
+        content.setSourceField("field_media_image");
+        final AS2Attachment attachment = new AS2Attachment();
+        attachment.setContent(content);
+        final AS2Event event = new AS2Event();
+        event.setObject(object);
+        event.setAttachment(attachment);
+
+        exchange = new DefaultExchange(context);
+        exchange.setProperty(AS2EventExpressions.EVENT_PROPERTY, event);
+
+        final Language simple = context.resolveLanguage("simple");
+        simpleUuid = simple.createExpression(
+                "${exchangeProperty.event.object.id.replaceAll(\"urn:uuid:\",\"\")}");
+        simpleJsonldUrl = simple.createExpression("${exchangeProperty.event.object.getJsonldUrl().href}");
+        simpleSourceField = simple.createExpression("${exchangeProperty.event.attachment.content.sourceField}");
+        simpleIsNewVersion = simple.createPredicate("${exchangeProperty.event.object.isNewVersion}");
+    }
+
+    /**
+     * Stop the context.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.stop();
+    }
+
+    /**
+     * Evaluate the uuid with Simple.
+     */
+    @Benchmark
+    public String simpleUuid() {
+        return simpleUuid.evaluate(exchange, String.class);
+    }
+
+    /**
+     * Evaluate the uuid with AS2EventExpressions.
+     */
+    @Benchmark
+    public String typedUuid() {
+        return AS2EventExpressions.UUID.evaluate(exchange, String.class);
+    }
+
+    /**
+     * Evaluate the jsonld url with Simple.
+     */
+    @Benchmark
+    public String simpleJsonldUrl() {
+        return simpleJsonldUrl.evaluate(exchange, String.class);
+    }
+
+    /**
+     * Evaluate the jsonld url with AS2EventExpressions.
+     */
+    @Benchmark
+    public String typedJsonldUrl() {
+        return AS2EventExpressions.JSONLD_URL.evaluate(exchange, String.class);
+    }
+
+    /**
+     * Evaluate the source field with Simple.
+     */
+    @Benchmark
+    public String simpleSourceField() {
+        return simpleSourceField.evaluate(exchange, String.class);
+    }
+
+    /**
+     * Evaluate the source field with AS2EventExpressions.
+     */
+    @Benchmark
+    public String typedSourceField() {
+        return AS2EventExpressions.SOURCE_FIELD.evaluate(exchange, String.class);
+    }
+
+    /**
+     * Evaluate the isNewVersion with Simple.
+     */
+    @Benchmark
+    public boolean simpleIsNewVersion() {
+        return simpleIsNewVersion.matches(exchange);
+    }
+
+    /**
+     * Evaluate the isNewVersion with AS2EventExpressions.
+     */
+    @Benchmark
+    public boolean typedIsNewVersion() {
+        return AS2EventExpressions.IS_NEW_VERSION.matches(exchange);
+    }
+}
@@ -24,6 +24,7 @@ import javax.jms.JMSException;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.pool.PooledConnectionFactory;
+import org.apache.camel.CamelContext;
 import org.apache.camel.component.activemq.ActiveMQComponent;
 import org.apache.camel.component.jms.JmsConfiguration;
 import org.slf4j.Logger;
@@ -31,6 +32,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import ca.islandora.alpaca.support.jms.ConsumerBudget;
+import ca.islandora.alpaca.support.jms.UnselectedEvents;
+
 /**
  * ActiveMQ configuration class
  *
@@ -45,6 +49,7 @@ public class ActivemqConfig extends PropertyConfig {
   public static final String JMS_USERNAME = "jms.username";
   public static final String JMS_PASSWORD = "jms.password";
   public static final String CONNECTIONS = "jms.connections";
+  public static final String UNSELECTED_DROP = "jms.unselected.drop";
 
   @Value("${" + JMS_BROKER_URL + ":tcp://localhost:61616}")
   private String jmsBrokerUrl;
@@ -58,6 +63,9 @@ public class ActivemqConfig extends PropertyConfig {
   @Value("${" + CONNECTIONS + ":10}")
   private int jmsConnections;
 
+  @Value("${" + UNSELECTED_DROP + ":false}")
+  private boolean jmsUnselectedDrop;
+
   /**
    * @return the jms broker url
    */
@@ -95,6 +103,13 @@ public class ActivemqConfig extends PropertyConfig {
     return jmsConnections;
   }
 
+  /**
+   * @return whether to drop the events none of a queue's selectors match.
+   */
+  public boolean isJmsUnselectedDrop() {
+    return jmsUnselectedDrop;
+  }
+
   /**
    * @return JMS Connection factory bean.
    * @throws JMSException on failure to create new connection.
@@ -147,4 +162,32 @@ public class ActivemqConfig extends PropertyConfig {
     return component;
   }
 
+  /**
+   * @param camelContext the camel context.
+   * @return the budget shared by the consumers of all queues, added to the camel context.
+   * @throws Exception on failure to add the service.
+   */
+  @Bean
+  public ConsumerBudget consumerBudget(final CamelContext camelContext) throws Exception {
+    final var budget = new ConsumerBudget(camelContext, getJmsConsumerBudget(), getJmsConsumerWeights(),
+        getJmsConsumerBudgetInterval());
+    camelContext.addService(budget);
+    return budget;
+  }
+
+  /**
+   * @param camelContext the camel context.
+   * @return the consumer of the events no route selects, started with the camel context if jms.unselected.drop is
+   *   true.
+   * @throws Exception on failure to add the startup listener.
+   */
+  @Bean
+  public UnselectedEvents unselectedEvents(final CamelContext camelContext) throws Exception {
+    final var unselected = new UnselectedEvents(camelContext);
+    if (isJmsUnselectedDrop()) {
+      camelContext.addStartupListener(unselected);
+    }
+    return unselected;
+  }
+
 }
@@ -0,0 +1,90 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.config;
+
+import org.apache.activemq.pool.PooledConnectionFactory;
+import org.apache.camel.CamelContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+
+import ca.islandora.alpaca.support.jms.ConsumerAutoscaler;
+import ca.islandora.alpaca.support.jms.ConsumerBudget;
+import ca.islandora.alpaca.support.jms.StatisticsPluginClient;
+
+/**
+ * Resizes the consumers of each queue from its depth on the broker.
+ *
+ * The broker must have the statistics plugin enabled.
+ *
+ * @author agent
+ */
+@Configuration
+@Conditional(AutoscaleConfig.AutoscaleEnabled.class)
+public class AutoscaleConfig {
+
+    public static final String AUTOSCALE_ENABLED_PROPERTY = "jms.autoscale.enabled";
+    public static final String AUTOSCALE_INTERVAL_PROPERTY = "jms.autoscale.interval";
+    public static final String AUTOSCALE_MAX_CONSUMERS_PROPERTY = "jms.autoscale.max_consumers";
+    public static final String AUTOSCALE_DRAIN_TIME_PROPERTY = "jms.autoscale.drain_time";
+    public static final String AUTOSCALE_TIMEOUT_PROPERTY = "jms.autoscale.timeout";
+
+    @Value("${" + AUTOSCALE_INTERVAL_PROPERTY + ":10000}")
+    private long interval;
+
+    @Value("${" + AUTOSCALE_MAX_CONSUMERS_PROPERTY + ":10}")
+    private int maxConsumers;
+
+    @Value("${" + AUTOSCALE_DRAIN_TIME_PROPERTY + ":60000}")
+    private long drainTime;
+
+    @Value("${" + AUTOSCALE_TIMEOUT_PROPERTY + ":2000}")
+    private long timeout;
+
+    /**
+     * Defines that the autoscaler is only enabled if the appropriate property is set to "true".
+     */
+    static class AutoscaleEnabled extends ConditionOnPropertyTrue {
+        AutoscaleEnabled() {
+            super(AUTOSCALE_ENABLED_PROPERTY, false);
+        }
+    }
+
+    /**
+     * @param camelContext
+     *   The camel context.
+     * @param connectionFactory
+     *   The broker connection factory.
+     * @param consumerBudget
+     *   The budget shared by all consumers.
+     * @return the autoscaler, added to the camel context.
+     * @throws Exception
+     *   If the service cannot be added.
+     */
+    @Bean
+    public ConsumerAutoscaler consumerAutoscaler(final CamelContext camelContext,
+                                                 final PooledConnectionFactory connectionFactory,
+                                                 final ConsumerBudget consumerBudget) throws Exception {
+        final var autoscaler = new ConsumerAutoscaler(camelContext,
+                new StatisticsPluginClient(connectionFactory, timeout), interval, maxConsumers, drainTime,
+                consumerBudget);
+        camelContext.addService(autoscaler);
+        return autoscaler;
+    }
+}
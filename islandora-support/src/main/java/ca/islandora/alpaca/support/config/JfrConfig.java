@@ -0,0 +1,61 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.config;
+
+import org.apache.camel.CamelContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+
+import ca.islandora.alpaca.support.jfr.JfrEventNotifier;
+
+/**
+ * Emits Java Flight Recorder events for exchanges and HTTP requests.
+ *
+ * The events are only recorded while a recording with them enabled is running, ie. one started with the alpaca.jfc
+ * settings.
+ *
+ * @author agent
+ */
+@Configuration
+@Conditional(JfrConfig.JfrEnabled.class)
+public class JfrConfig {
+
+    public static final String JFR_ENABLED_PROPERTY = "jfr.enabled";
+
+    /**
+     * Defines that the flight recorder events are only enabled if the appropriate property is set to "true".
+     */
+    static class JfrEnabled extends ConditionOnPropertyTrue {
+        JfrEnabled() {
+            super(JFR_ENABLED_PROPERTY, true);
+        }
+    }
+
+    /**
+     * @param camelContext
+     *   The camel context.
+     * @return the event notifier, added to the camel context.
+     */
+    @Bean
+    public JfrEventNotifier jfrEventNotifier(final CamelContext camelContext) {
+        final var notifier = new JfrEventNotifier();
+        camelContext.getManagementStrategy().addEventNotifier(notifier);
+        return notifier;
+    }
+}
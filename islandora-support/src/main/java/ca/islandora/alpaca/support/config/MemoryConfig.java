@@ -0,0 +1,71 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.config;
+
+import org.apache.camel.CamelContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+
+import ca.islandora.alpaca.support.memory.MemoryGovernor;
+
+/**
+ * Suspends the consumers of all routes while memory is short.
+ *
+ * @author agent
+ */
+@Configuration
+@Conditional(MemoryConfig.MemoryGovernorEnabled.class)
+public class MemoryConfig {
+
+    public static final String MEMORY_GOVERNOR_ENABLED_PROPERTY = "memory.governor.enabled";
+    public static final String MEMORY_GOVERNOR_HIGH_PROPERTY = "memory.governor.high_watermark";
+    public static final String MEMORY_GOVERNOR_LOW_PROPERTY = "memory.governor.low_watermark";
+    public static final String MEMORY_GOVERNOR_INTERVAL_PROPERTY = "memory.governor.interval";
+
+    @Value("${" + MEMORY_GOVERNOR_HIGH_PROPERTY + ":0.85}")
+    private double highWatermark;
+
+    @Value("${" + MEMORY_GOVERNOR_LOW_PROPERTY + ":0.7}")
+    private double lowWatermark;
+
+    @Value("${" + MEMORY_GOVERNOR_INTERVAL_PROPERTY + ":1000}")
+    private long interval;
+
+    /**
+     * Defines that the memory governor is only enabled if the appropriate property is set to "true".
+     */
+    static class MemoryGovernorEnabled extends ConditionOnPropertyTrue {
+        MemoryGovernorEnabled() {
+            super(MEMORY_GOVERNOR_ENABLED_PROPERTY, false);
+        }
+    }
+
+    /**
+     * @param camelContext
+     *   The camel context.
+     * @return the memory governor, added to the camel context.
+     */
+    @Bean
+    public MemoryGovernor memoryGovernor(final CamelContext camelContext) {
+        final var governor = new MemoryGovernor(camelContext, highWatermark, lowWatermark, interval);
+        camelContext.getManagementStrategy().addEventNotifier(governor);
+        return governor;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.config;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+
+/**
+ * Publishes the metrics Alpaca records over JMX.
+ *
+ * Meters are registered with the Micrometer global registry, this adds a JMX registry to it.
+ *
+ * @author agent
+ */
+@Configuration
+@Conditional(MetricsConfig.MetricsJmxEnabled.class)
+public class MetricsConfig {
+
+    private static final Logger LOGGER = getLogger(MetricsConfig.class);
+
+    public static final String METRICS_JMX_ENABLED_PROPERTY = "metrics.jmx.enabled";
+    public static final String METRICS_JMX_DOMAIN_PROPERTY = "metrics.jmx.domain";
+
+    @Value("${" + METRICS_JMX_DOMAIN_PROPERTY + ":ca.islandora.alpaca}")
+    private String domain;
+
+    private MeterRegistry registry;
+
+    /**
+     * Defines that the JMX metrics are only enabled if the appropriate property is set to "true".
+     */
+    static class MetricsJmxEnabled extends ConditionOnPropertyTrue {
+        MetricsJmxEnabled() {
+            super(METRICS_JMX_ENABLED_PROPERTY, true);
+        }
+    }
+
+    /**
+     * @return the JMX meter registry.
+     */
+    @Bean
+    public MeterRegistry jmxMeterRegistry() {
+        LOGGER.debug("Publishing metrics to JMX domain {}", domain);
+        registry = new JmxMeterRegistry(new JmxConfig() {
+            @Override
+            public String get(final String key) {
+                return null;
+            }
+
+            @Override
+            public String domain() {
+                return domain;
+            }
+        }, Clock.SYSTEM);
+        Metrics.addRegistry(registry);
+        return registry;
+    }
+
+    /**
+     * Remove the registry from the global registry.
+     */
+    @PreDestroy
+    public void removeRegistry() {
+        if (registry != null) {
+            Metrics.removeRegistry(registry);
+            registry.close();
+        }
+    }
+}
@@ -19,14 +19,34 @@ package ca.islandora.alpaca.support.config;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+import javax.jms.InvalidSelectorException;
+
+import org.apache.activemq.selector.SelectorParser;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Expression;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.ExpressionBuilder;
 import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.annotation.PropertySources;
 
+import ca.islandora.alpaca.support.http.HostRateLimiter;
+import ca.islandora.alpaca.support.http.RateLimitProcessor;
+import ca.islandora.alpaca.support.idempotent.IdempotentEventProcessor;
+import ca.islandora.alpaca.support.idempotent.OffHeapIdempotentRepository;
+import ca.islandora.alpaca.support.jms.ConsumerLane;
+import ca.islandora.alpaca.support.timing.ExchangeTimer;
+
 /**
  * Abstract class of common properties
  *
@@ -49,6 +69,21 @@ public abstract class PropertyConfig {
   protected static final String JMS_ENDPOINT_NAME = "broker";
   protected static final String MAX_REDELIVERIES_PROPERTY = "error.maxRedeliveries";
   protected static final String ADDITIONAL_HTTP_OPTIONS = "http.additional_options";
+  protected static final String HTTP_ENDPOINT_CACHE_SIZE = "http.endpoint_cache_size";
+  protected static final String HTTP_RATE_LIMIT = "http.rate_limit";
+  protected static final String HTTP_RATE_LIMIT_BURST = "http.rate_limit.burst";
+  protected static final String HTTP_RATE_LIMIT_HOSTS = "http.rate_limit.hosts";
+  protected static final String IDEMPOTENT_ENABLED = "idempotent.enabled";
+  protected static final String IDEMPOTENT_CAPACITY = "idempotent.capacity";
+  protected static final String IDEMPOTENT_TTL = "idempotent.ttl";
+  protected static final String IDEMPOTENT_DIRECTORY = "idempotent.directory";
+  protected static final String TIMING_ENABLED = "timing.enabled";
+  protected static final String TIMING_SLOW_THRESHOLD = "timing.slow_threshold";
+  protected static final String JMS_CONSUMER_BUDGET = "jms.consumers.budget";
+  protected static final String JMS_CONSUMER_WEIGHTS = "jms.consumers.weights";
+  protected static final String JMS_CONSUMER_BUDGET_INTERVAL = "jms.consumers.budget.interval";
+  // registry name of the camel context's rate limiter
+  private static final String RATE_LIMITER_NAME = "alpacaHostRateLimiter";
 
   @Value("${" + MAX_REDELIVERIES_PROPERTY + ":5}")
   private int maxRedeliveries;
@@ -56,6 +91,52 @@ public abstract class PropertyConfig {
   @Value("#{'${" + ADDITIONAL_HTTP_OPTIONS + ":}'.split(',')}")
   private List<String> additionalHttpOptions;
 
+  @Value("${" + HTTP_ENDPOINT_CACHE_SIZE + ":10}")
+  private int httpEndpointCacheSize;
+
+  @Value("${" + HTTP_RATE_LIMIT + ":-1}")
+  private double httpRateLimit;
+
+  @Value("${" + HTTP_RATE_LIMIT_BURST + ":1}")
+  private int httpRateLimitBurst;
+
+  @Value("#{'${" + HTTP_RATE_LIMIT_HOSTS + ":}'.split(',')}")
+  private List<String> httpRateLimitHosts;
+
+  @Value("${" + IDEMPOTENT_ENABLED + ":false}")
+  private boolean idempotentEnabled;
+
+  @Value("${" + IDEMPOTENT_CAPACITY + ":1000000}")
+  private int idempotentCapacity;
+
+  @Value("${" + IDEMPOTENT_TTL + ":600000}")
+  private long idempotentTtl;
+
+  @Value("${" + IDEMPOTENT_DIRECTORY + ":}")
+  private String idempotentDirectory;
+
+  @Value("${" + TIMING_ENABLED + ":true}")
+  private boolean timingEnabled;
+
+  @Value("${" + TIMING_SLOW_THRESHOLD + ":30000}")
+  private long timingSlowThreshold;
+
+  @Value("${" + JMS_CONSUMER_BUDGET + ":-1}")
+  private int jmsConsumerBudget;
+
+  @Value("#{'${" + JMS_CONSUMER_WEIGHTS + ":}'.split(',')}")
+  private List<String> jmsConsumerWeights;
+
+  @Value("${" + JMS_CONSUMER_BUDGET_INTERVAL + ":1000}")
+  private long jmsConsumerBudgetInterval;
+
+  @Autowired
+  private CamelContext camelContext;
+
+  private HostRateLimiter rateLimiter;
+
+  private ExchangeTimer exchangeTimer;
+
   /**
    * @return the error.maxRedeliveries amount.
    */
@@ -63,6 +144,111 @@ public abstract class PropertyConfig {
     return maxRedeliveries;
   }
 
+  /**
+   * @return the maximum number of HTTP producers kept by a toD(), one is needed per downstream host.
+   */
+  public int getHttpEndpointCacheSize() {
+    return httpEndpointCacheSize;
+  }
+
+  /**
+   * @return the most consumers of all queues together, 0 or less for no limit.
+   */
+  public int getJmsConsumerBudget() {
+    return jmsConsumerBudget;
+  }
+
+  /**
+   * @return how often in milliseconds the consumer budget is shared between the queues.
+   */
+  public long getJmsConsumerBudgetInterval() {
+    return jmsConsumerBudgetInterval;
+  }
+
+  /**
+   * @return the weight of each queue's share of the consumer budget, by queue name.
+   */
+  public Map<String, Double> getJmsConsumerWeights() {
+    final Map<String, Double> weights = new HashMap<>();
+    for (final String queueWeight : jmsConsumerWeights) {
+      final String[] parts = queueWeight.split("=", 2);
+      if (parts.length == 2 && !parts[0].isBlank()) {
+        try {
+          final double weight = Double.parseDouble(parts[1].trim());
+          if (weight > 0) {
+            weights.put(parts[0].trim(), weight);
+            continue;
+          }
+        } catch (final NumberFormatException e) {
+          // Logged below.
+        }
+        LOGGER.warn("Ignoring invalid weight \"{}\" in {}", queueWeight, JMS_CONSUMER_WEIGHTS);
+      } else if (!queueWeight.isBlank()) {
+        LOGGER.warn("Ignoring invalid entry \"{}\" in {}, expected queue=weight", queueWeight, JMS_CONSUMER_WEIGHTS);
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * The lanes consuming a queue's events, see ConsumerLane.
+   * @param queueString
+   *   The original topic/queue string.
+   * @param modeProperty
+   *   The name of the bulk mode property.
+   * @param mode
+   *   The value of the bulk mode property, off, queue or priority.
+   * @param priority
+   *   In priority mode, the lowest JMSPriority of interactive events.
+   * @param selector
+   *   The message selector of the events to consume, or null for all of them.
+   * @param interactiveOptions
+   *   Adds the consumer options of the interactive lane, when there is a bulk lane.
+   * @param consumerOptions
+   *   Adds the route's consumer options, to the bulk lane or the only lane.
+   * @return
+   *   The interactive lane, followed by the bulk lane if there is one.
+   */
+  protected static List<ConsumerLane> consumerLanes(final String queueString, final String modeProperty,
+                                                    final String mode, final int priority, final String selector,
+                                                    final UnaryOperator<String> interactiveOptions,
+                                                    final UnaryOperator<String> consumerOptions) {
+    ConsumerLane.Mode lanesMode;
+    try {
+      lanesMode = ConsumerLane.Mode.of(mode);
+    } catch (final IllegalArgumentException e) {
+      LOGGER.warn("Ignoring invalid value \"{}\" of {}, expected off, queue or priority", mode, modeProperty);
+      lanesMode = ConsumerLane.Mode.OFF;
+    }
+    final List<ConsumerLane> lanes = ConsumerLane.lanes(queueString, lanesMode, priority, selector);
+    return lanes.stream().map(lane -> lane.withEndpoint(lanes.size() > 1 && !lane.isBulk() ?
+        interactiveOptions.apply(lane.getEndpoint()) : consumerOptions.apply(lane.getEndpoint())))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Utility to check a JMS message selector, so an invalid one doesn't keep the route's consumers from starting.
+   * @param selectorProperty
+   *   The name of the selector property.
+   * @param selector
+   *   The value of the selector property.
+   * @return
+   *   The selector, or null if it is blank or invalid.
+   */
+  protected static String messageSelector(final String selectorProperty, final String selector) {
+    if (selector == null || selector.isBlank()) {
+      return null;
+    }
+    try {
+      SelectorParser.parse(selector);
+    } catch (final InvalidSelectorException e) {
+      LOGGER.warn("Ignoring invalid value \"{}\" of {}, consuming all events: {}", selector, selectorProperty,
+          e.getMessage());
+      return null;
+    }
+    return selector.trim();
+  }
+
   /**
    * Utility function to append various JMS options like concurrentConsumer variables.
    * @param queueString
@@ -155,4 +341,93 @@ public abstract class PropertyConfig {
   public String addHttpOptions(final String httpEndpoint) {
     return addHttpOptions(httpEndpoint, false);
   }
+
+  /**
+   * Processor which waits until the per-host rate limit allows a request to the target uri.
+   * @param targetUri
+   *   Expression resolving to the uri of the next request.
+   * @return
+   *   The rate limiting processor.
+   */
+  public Processor rateLimit(final Expression targetUri) {
+    return new RateLimitProcessor(getRateLimiter(), targetUri);
+  }
+
+  /**
+   * Processor which waits until the per-host rate limit allows a request to the target uri.
+   * @param targetUri
+   *   The uri of the next request.
+   * @return
+   *   The rate limiting processor.
+   */
+  public Processor rateLimit(final String targetUri) {
+    return rateLimit(ExpressionBuilder.constantExpression(targetUri));
+  }
+
+  /**
+   * @return the rate limiter built from the http.rate_limit properties, shared by the routes of the camel context.
+   */
+  protected synchronized HostRateLimiter getRateLimiter() {
+    if (rateLimiter == null) {
+      synchronized (camelContext) {
+        rateLimiter = camelContext.getRegistry().lookupByNameAndType(RATE_LIMITER_NAME, HostRateLimiter.class);
+        if (rateLimiter == null) {
+          rateLimiter = newRateLimiter();
+          camelContext.getRegistry().bind(RATE_LIMITER_NAME, rateLimiter);
+        }
+      }
+    }
+    return rateLimiter;
+  }
+
+  /**
+   * @return a rate limiter built from the http.rate_limit properties.
+   */
+  private HostRateLimiter newRateLimiter() {
+    final Map<String, Double> hostRates = new HashMap<>();
+    for (final String hostRate : httpRateLimitHosts) {
+      final String[] parts = hostRate.split("=", 2);
+      if (parts.length == 2 && !parts[0].isBlank()) {
+        try {
+          hostRates.put(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+        } catch (final NumberFormatException e) {
+          LOGGER.warn("Ignoring invalid rate \"{}\" in {}", hostRate, HTTP_RATE_LIMIT_HOSTS);
+        }
+      } else if (!hostRate.isBlank()) {
+        LOGGER.warn("Ignoring invalid entry \"{}\" in {}, expected host=rate", hostRate, HTTP_RATE_LIMIT_HOSTS);
+      }
+    }
+    return new HostRateLimiter(httpRateLimit, httpRateLimitBurst, hostRates);
+  }
+
+  /**
+   * Processor which stops the route for an event message already processed within the idempotent.ttl, it must follow
+   * the processor which sets the "event" exchange property. Routes the event is handed on to must run it too, to
+   * forget the message if they fail. Does nothing unless idempotent.enabled is true. The seen events are kept in a
+   * file named after the repository when idempotent.directory is set.
+   * @param name
+   *   Name of the repository of seen events, used to tag its metrics and name its file.
+   * @return
+   *   The idempotent processor.
+   */
+  public Processor idempotent(final String name) {
+    if (!idempotentEnabled) {
+      return exchange -> { };
+    }
+    final Path file = idempotentDirectory == null || idempotentDirectory.isBlank() ? null :
+        Paths.get(idempotentDirectory.trim(), name + ".idempotent");
+    return new IdempotentEventProcessor(new OffHeapIdempotentRepository(name, idempotentCapacity, idempotentTtl,
+        file));
+  }
+
+  /**
+   * Timer of the stages of each exchange, its processors do nothing unless timing.enabled is true.
+   * @return the exchange timer.
+   */
+  public synchronized ExchangeTimer timing() {
+    if (exchangeTimer == null) {
+      exchangeTimer = new ExchangeTimer(timingEnabled, timingSlowThreshold);
+    }
+    return exchangeTimer;
+  }
 }
@@ -25,6 +25,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import ca.islandora.alpaca.support.http.CancellableRequestExecutor;
+
 /**
  * Class to enable the HTTP client configurer.
  *
@@ -57,6 +59,8 @@ public class RequestConfigurerConfig {
      * @return the http component
      */
     private HttpComponent configComponent(final HttpComponent component) {
+        // Let requests be aborted, ie. the slower of a hedged pair.
+        component.setHttpClientConfigurer(builder -> builder.setRequestExecutor(new CancellableRequestExecutor()));
         if (enabled) {
             LOGGER.debug("Request configurer enabled, setting request.timeout {}, connection.timeout {}, socket" +
                     ".timeout {}", requestTimeout, connectTimeout, socketTimeout);
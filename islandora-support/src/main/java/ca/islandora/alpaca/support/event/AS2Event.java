@@ -55,6 +55,10 @@ public class AS2Event {
      * The event attachment.
      */
     private AS2Attachment attachment;
+    /**
+     * When the event was published, ie. 2021-03-01T12:00:00+00:00
+     */
+    private String published;
 
     /**
      * @return  Event type (Create, Update, Delete, etc...)
@@ -125,6 +129,20 @@ public class AS2Event {
         this.attachment = attachment;
     }
 
+    /**
+     * @return  When the event was published as an ISO 8601 date and time, or null if not sent
+     */
+    public String getPublished() {
+        return published;
+    }
+
+    /**
+     * @param   published   When the event was published as an ISO 8601 date and time
+     */
+    public void setPublished(final String published) {
+        this.published = published;
+    }
+
     /**
      * @return  JSON-LD Context
      */
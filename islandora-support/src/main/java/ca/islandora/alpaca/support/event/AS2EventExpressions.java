@@ -0,0 +1,167 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.event;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.apache.camel.Predicate;
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.builder.PredicateBuilder;
+import org.apache.camel.support.ExpressionAdapter;
+
+/**
+ * Typed expressions that read values directly from the AS2Event stored on the exchange.
+ *
+ * These replace Simple expressions like ${exchangeProperty.event.object.getJsonldUrl().href}, which are resolved by
+ * reflection on every message.
+ *
+ * @author agent
+ */
+public final class AS2EventExpressions {
+
+    /**
+     * The exchange property holding the parsed AS2Event.
+     */
+    public static final String EVENT_PROPERTY = "event";
+
+    /**
+     * The object id without the urn:uuid: prefix.
+     */
+    public static final Expression UUID = expression("uuid",
+            e -> e.getObject().getId().replace("urn:uuid:", ""));
+
+    /**
+     * The href of the object's application/ld+json url.
+     */
+    public static final Expression JSONLD_URL = expression("jsonldUrl",
+            e -> e.getObject().getJsonldUrl().getHref());
+
+    /**
+     * The href of the object's application/json url.
+     */
+    public static final Expression JSON_URL = expression("jsonUrl",
+            e -> e.getObject().getJsonUrl().getHref());
+
+    /**
+     * The href of the object's canonical url.
+     */
+    public static final Expression CANONICAL_URL = expression("canonicalUrl",
+            e -> e.getObject().getCanonicalUrl().getHref());
+
+    /**
+     * The attachment's source field.
+     */
+    public static final Expression SOURCE_FIELD = expression("sourceField",
+            e -> e.getAttachment().getContent().getSourceField());
+
+    /**
+     * The attachment's source uri.
+     */
+    public static final Expression SOURCE_URI = expression("sourceUri",
+            e -> e.getAttachment().getContent().getSourceUri());
+
+    /**
+     * The attachment's destination uri.
+     */
+    public static final Expression DESTINATION_URI = expression("destinationUri",
+            e -> e.getAttachment().getContent().getDestinationUri());
+
+    /**
+     * The attachment's file upload uri.
+     */
+    public static final Expression FILE_UPLOAD_URI = expression("fileUploadUri",
+            e -> e.getAttachment().getContent().getFileUploadUri());
+
+    /**
+     * The attachment's mimetype.
+     */
+    public static final Expression MIMETYPE = expression("mimetype",
+            e -> e.getAttachment().getContent().getMimetype());
+
+    /**
+     * The attachment's args.
+     */
+    public static final Expression ARGS = expression("args",
+            e -> e.getAttachment().getContent().getArgs());
+
+    /**
+     * Whether the object is a new version, a missing value is false.
+     */
+    public static final Predicate IS_NEW_VERSION = PredicateBuilder.toPredicate(expression("isNewVersion",
+            e -> Boolean.TRUE.equals(e.getObject().getIsNewVersion())));
+
+    /**
+     * Reads a value from an AS2Event, allowing for the MissingPropertyExceptions thrown by AS2Object.
+     */
+    @FunctionalInterface
+    public interface EventAccessor {
+        /**
+         * @param event
+         *   The event.
+         * @return the value.
+         * @throws Exception
+         *   If the value cannot be read.
+         */
+        Object apply(AS2Event event) throws Exception;
+    }
+
+    private AS2EventExpressions() {
+        // Utility class.
+    }
+
+    /**
+     * Get the event from the exchange.
+     * @param exchange
+     *   The exchange.
+     * @return the AS2Event stored on the exchange.
+     */
+    public static AS2Event getEvent(final Exchange exchange) {
+        return exchange.getProperty(EVENT_PROPERTY, AS2Event.class);
+    }
+
+    /**
+     * Build an expression from an accessor of the exchange's AS2Event.
+     *
+     * Checked exceptions are wrapped in a RuntimeCamelException, onException() handlers still match on the cause.
+     *
+     * @param name
+     *   A name for the expression, used in toString().
+     * @param accessor
+     *   The accessor.
+     * @return the expression.
+     */
+    public static Expression expression(final String name, final EventAccessor accessor) {
+        return new ExpressionAdapter() {
+            @Override
+            public Object evaluate(final Exchange exchange) {
+                try {
+                    return accessor.apply(getEvent(exchange));
+                } catch (final RuntimeException e) {
+                    throw e;
+                } catch (final Exception e) {
+                    throw new RuntimeCamelException(e);
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "event." + name;
+            }
+        };
+    }
+}
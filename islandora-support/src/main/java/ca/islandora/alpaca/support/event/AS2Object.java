@@ -19,6 +19,7 @@
 package ca.islandora.alpaca.support.event;
 
 import java.util.Arrays;
+import java.util.function.Supplier;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -116,7 +117,7 @@ public class AS2Object {
      *   When there is no url with application/ld+json mimetype
      */
     public AS2Url getJsonldUrl() throws MissingPropertyException {
-        return getObjectUrl("application/ld+json", null, new MissingJsonldUrlException());
+        return getObjectUrl("application/ld+json", null, MissingJsonldUrlException::new);
     }
 
     /**
@@ -125,7 +126,7 @@ public class AS2Object {
      *   When there is no url with rel = canonical and text/html mimetype
      */
     public AS2Url getJsonUrl() throws MissingPropertyException {
-        return getObjectUrl("application/json", null, new MissingJsonUrlException());
+        return getObjectUrl("application/json", null, MissingJsonUrlException::new);
     }
 
     /**
@@ -134,7 +135,7 @@ public class AS2Object {
      *   When there is no url with rel = canonical and text/html mimetype
      */
     public AS2Url getCanonicalUrl() throws MissingPropertyException {
-        return getObjectUrl(null, "canonical", new MissingCanonicalUrlException());
+        return getObjectUrl(null, "canonical", MissingCanonicalUrlException::new);
     }
 
     /**
@@ -143,7 +144,7 @@ public class AS2Object {
      *   When there is no url with rel = describes
      */
     public AS2Url getDescribesUrl() throws MissingPropertyException {
-        return getObjectUrl(null, "describes", new MissingDescribesUrlException());
+        return getObjectUrl(null, "describes", MissingDescribesUrlException::new);
     }
 
     /**
@@ -153,16 +154,16 @@ public class AS2Object {
      * @param rel
      *   The rel to filter on or null for none.
      * @param e
-     *   The exception to throw if we can't find a matching url
+     *   Supplies the exception to throw if we can't find a matching url
      * @return
      *   The first matching AS2Url.
      * @throws MissingPropertyException
      *   If no matching url can be found.
      */
-    private AS2Url getObjectUrl(final String mimetype, final String rel, final MissingPropertyException e) throws
-            MissingPropertyException {
+    private AS2Url getObjectUrl(final String mimetype, final String rel, final Supplier<MissingPropertyException> e)
+            throws MissingPropertyException {
         if (url == null) {
-            throw e;
+            throw e.get();
         }
         final var filterUrl = Arrays.stream(url).filter(a -> {
             if (mimetype != null && (a.getMediaType() == null || !a.getMediaType().equalsIgnoreCase(mimetype))) {
@@ -174,7 +175,7 @@ public class AS2Object {
             return true;
         }).findFirst().orElse(null);
         if (filterUrl == null) {
-            throw e;
+            throw e.get();
         }
         return filterUrl;
     }
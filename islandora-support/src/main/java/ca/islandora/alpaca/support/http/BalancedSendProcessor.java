@@ -0,0 +1,149 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.http.base.HttpOperationFailedException;
+import org.apache.camel.support.service.ServiceHelper;
+import org.apache.camel.support.service.ServiceSupport;
+
+/**
+ * Sends the exchange to the endpoint of a service chosen by an EndpointBalancer.
+ *
+ * A failed request is rethrown for the route's error handler, a redelivery chooses the endpoint again. It can be shared
+ * by several routes, ie. the lanes of a derivative connector, and is only stopped with the last of them.
+ *
+ * @author agent
+ */
+public class BalancedSendProcessor extends ServiceSupport implements Processor {
+
+    /**
+     * The exchange property holding the uri of the chosen endpoint, while the request is sent.
+     */
+    public static final String SERVICE_ENDPOINT_PROPERTY = "AlpacaServiceEndpoint";
+
+    private final CamelContext camelContext;
+
+    private final EndpointBalancer balancer;
+
+    private final Processor beforeSend;
+
+    private ProducerTemplate template;
+
+    private RequestDeadlines deadlines;
+
+    private final AtomicInteger users = new AtomicInteger();
+
+    /**
+     * Basic constructor.
+     * @param camelContext
+     *   The camel context.
+     * @param balancer
+     *   The balancer of the service's endpoints.
+     * @param beforeSend
+     *   Processor run once the endpoint is chosen, ie. to rate limit requests to it.
+     */
+    public BalancedSendProcessor(final CamelContext camelContext, final EndpointBalancer balancer,
+                                 final Processor beforeSend) {
+        this.camelContext = camelContext;
+        this.balancer = balancer;
+        this.beforeSend = beforeSend;
+    }
+
+    /**
+     * @param exception
+     *   The exception a request failed with.
+     * @return whether the failure is the endpoint's, rather than the request's.
+     */
+    public static boolean isEndpointFailure(final Throwable exception) {
+        if (exception instanceof HttpOperationFailedException) {
+            return ((HttpOperationFailedException) exception).getStatusCode() >= 500;
+        }
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void process(final Exchange exchange) throws Exception {
+        final EndpointBalancer.Endpoint endpoint = balancer.choose();
+        exchange.setProperty(SERVICE_ENDPOINT_PROPERTY, endpoint.getUri());
+        beforeSend.process(exchange);
+        final long start = balancer.started(endpoint);
+        final RequestCancellation cancellation = new RequestCancellation();
+        boolean sent = false;
+        try {
+            if (deadlines == null) {
+                template.send(endpoint.getUri(), exchange);
+            } else {
+                // Aborted when the exchange is past its deadline.
+                deadlines.run(exchange, cancellation, () -> template.send(endpoint.getUri(), exchange));
+            }
+            sent = true;
+        } finally {
+            if (!sent || cancellation.isCancelled()) {
+                // Says nothing of the endpoint's health.
+                balancer.abandoned(endpoint);
+            } else {
+                balancer.finished(endpoint, start, !isEndpointFailure(exchange.getException()));
+            }
+            exchange.removeProperty(SERVICE_ENDPOINT_PROPERTY);
+        }
+        final Exception exception = exchange.getException();
+        if (exception != null) {
+            exchange.setException(null);
+            throw exception;
+        }
+    }
+
+    @Override
+    public void start() {
+        users.incrementAndGet();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (users.updateAndGet(count -> Math.max(0, count - 1)) == 0) {
+            super.stop();
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        template = camelContext.createProducerTemplate(balancer.getEndpoints().size());
+        ServiceHelper.startService(template);
+        deadlines = RequestDeadlines.of(camelContext);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        ServiceHelper.stopService(template);
+        template = null;
+        balancer.close();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * Request executor which attaches each connection to the RequestCancellation of the sending thread, if it has one.
+ *
+ * @author agent
+ */
+public class CancellableRequestExecutor extends HttpRequestExecutor {
+
+    @Override
+    public HttpResponse execute(final HttpRequest request, final HttpClientConnection conn,
+                                final HttpContext context) throws IOException, HttpException {
+        final RequestCancellation cancellation = RequestCancellation.current();
+        if (cancellation == null) {
+            return super.execute(request, conn, context);
+        }
+        cancellation.attach(conn);
+        try {
+            return super.execute(request, conn, context);
+        } catch (final IOException e) {
+            if (cancellation.isCancelled()) {
+                final InterruptedIOException cancelled =
+                        new InterruptedIOException("Request cancelled: " + cancellation.getReason());
+                cancelled.initCause(e);
+                throw cancelled;
+            }
+            throw e;
+        } finally {
+            cancellation.detach();
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Chooses which of several instances of a service to send a request to.
+ *
+ * Two of the healthy endpoints are picked at random and the one with fewer requests outstanding is used, or the one
+ * which has been answering faster on a tie. This sends work away from a busy or slow instance without every request
+ * going to the same least loaded one. An endpoint is ejected for the eject time after the given number of consecutive
+ * failures, and ejected again by its next failure until it succeeds. If every endpoint is ejected they are all used.
+ *
+ * @author agent
+ */
+public class EndpointBalancer {
+
+    private static final Logger LOGGER = getLogger(EndpointBalancer.class);
+
+    /**
+     * Weight of the latest response time in the moving average.
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final String name;
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+
+    private final int ejectAfter;
+
+    private final long ejectNanos;
+
+    private final LongSupplier nanoClock;
+
+    private final MeterRegistry registry;
+
+    private final List<Meter> meters = new ArrayList<>();
+
+    /**
+     * Basic constructor.
+     * @param name
+     *   Name of the service, used to tag its metrics.
+     * @param uris
+     *   The endpoint uris of the service's instances.
+     * @param ejectAfter
+     *   Consecutive failures after which an endpoint is ejected.
+     * @param ejectMillis
+     *   How long in milliseconds an endpoint is ejected for.
+     */
+    public EndpointBalancer(final String name, final List<String> uris, final int ejectAfter,
+                            final long ejectMillis) {
+        this(name, uris, ejectAfter, ejectMillis, System::nanoTime, Metrics.globalRegistry);
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     *   Name of the service, used to tag its metrics.
+     * @param uris
+     *   The endpoint uris of the service's instances.
+     * @param ejectAfter
+     *   Consecutive failures after which an endpoint is ejected.
+     * @param ejectMillis
+     *   How long in milliseconds an endpoint is ejected for.
+     * @param nanoClock
+     *   Clock in nanoseconds.
+     * @param registry
+     *   Registry of the endpoint metrics.
+     */
+    EndpointBalancer(final String name, final List<String> uris, final int ejectAfter, final long ejectMillis,
+                     final LongSupplier nanoClock, final MeterRegistry registry) {
+        if (uris.isEmpty()) {
+            throw new IllegalArgumentException("Service " + name + " has no endpoints");
+        }
+        this.name = name;
+        this.ejectAfter = Math.max(1, ejectAfter);
+        this.ejectNanos = TimeUnit.MILLISECONDS.toNanos(ejectMillis);
+        this.nanoClock = nanoClock;
+        this.registry = registry;
+        for (final String uri : uris) {
+            endpoints.add(new Endpoint(uri));
+        }
+    }
+
+    /**
+     * @return the endpoints of the service.
+     */
+    public List<Endpoint> getEndpoints() {
+        return List.copyOf(endpoints);
+    }
+
+    /**
+     * Choose the endpoint for a request, call started() before sending it.
+     * @return the endpoint.
+     */
+    public Endpoint choose() {
+        return choose(null);
+    }
+
+    /**
+     * Choose the endpoint for a request, preferring one other than the given endpoint.
+     * @param avoid
+     *   An endpoint not to choose if there is another healthy one, or null.
+     * @return the endpoint.
+     */
+    public Endpoint choose(final Endpoint avoid) {
+        final long now = nanoClock.getAsLong();
+        final List<Endpoint> healthy = new ArrayList<>(endpoints.size());
+        for (final Endpoint endpoint : endpoints) {
+            if (endpoint != avoid && !endpoint.isEjected(now)) {
+                healthy.add(endpoint);
+            }
+        }
+        if (healthy.isEmpty()) {
+            if (avoid != null && !avoid.isEjected(now)) {
+                return avoid;
+            }
+            // Better to try an ejected endpoint than to fail without trying.
+            healthy.addAll(endpoints);
+        }
+        if (healthy.size() == 1) {
+            return healthy.get(0);
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(healthy.size());
+        final int second = (first + 1 + random.nextInt(healthy.size() - 1)) % healthy.size();
+        final Endpoint a = healthy.get(first);
+        final Endpoint b = healthy.get(second);
+        final int outstandingA = a.outstanding.get();
+        final int outstandingB = b.outstanding.get();
+        if (outstandingA != outstandingB) {
+            return outstandingA < outstandingB ? a : b;
+        }
+        return a.latencyNanos <= b.latencyNanos ? a : b;
+    }
+
+    /**
+     * Record that a request was sent to the endpoint.
+     * @param endpoint
+     *   The endpoint.
+     * @return the time it was sent in nanoseconds, to pass to finished().
+     */
+    public long started(final Endpoint endpoint) {
+        endpoint.outstanding.incrementAndGet();
+        return nanoClock.getAsLong();
+    }
+
+    /**
+     * Record the outcome of a request.
+     * @param endpoint
+     *   The endpoint.
+     * @param startNanos
+     *   What started() returned.
+     * @param healthy
+     *   False if the endpoint failed to answer the request, ie. it could not be reached or had a server error.
+     */
+    public void finished(final Endpoint endpoint, final long startNanos, final boolean healthy) {
+        final long now = nanoClock.getAsLong();
+        final long nanos = now - startNanos;
+        endpoint.outstanding.decrementAndGet();
+        (healthy ? endpoint.succeeded : endpoint.failed).record(nanos, TimeUnit.NANOSECONDS);
+        synchronized (endpoint) {
+            if (healthy) {
+                endpoint.latencyNanos = endpoint.latencyNanos == 0 ? nanos :
+                        endpoint.latencyNanos + LATENCY_WEIGHT * (nanos - endpoint.latencyNanos);
+                if (endpoint.failures >= ejectAfter) {
+                    LOGGER.info("Endpoint {} of {} is answering again", endpoint.uri, name);
+                }
+                endpoint.failures = 0;
+            } else {
+                endpoint.failures += 1;
+                if (endpoint.failures >= ejectAfter) {
+                    endpoint.ejectedUntil = now + ejectNanos;
+                    LOGGER.warn("Ejecting endpoint {} of {} for {} ms after {} consecutive failures", endpoint.uri,
+                            name, TimeUnit.NANOSECONDS.toMillis(ejectNanos), endpoint.failures);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record that a request was cancelled before it was answered, it says nothing of the endpoint's health.
+     * @param endpoint
+     *   The endpoint.
+     */
+    public void abandoned(final Endpoint endpoint) {
+        endpoint.outstanding.decrementAndGet();
+    }
+
+    /**
+     * Remove the endpoint metrics.
+     */
+    public void close() {
+        synchronized (meters) {
+            meters.forEach(registry::remove);
+            meters.clear();
+        }
+    }
+
+    /**
+     * An instance of the service.
+     */
+    public final class Endpoint {
+        private final String uri;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final Timer succeeded;
+        private final Timer failed;
+        private double latencyNanos;
+        private int failures;
+        private long ejectedUntil;
+
+        /**
+         * @param uri
+         *   The endpoint uri.
+         */
+        private Endpoint(final String uri) {
+            this.uri = uri;
+            final String label = label(uri);
+            succeeded = Timer.builder("alpaca.service.requests").description("Requests to each service endpoint")
+                    .tag("service", name).tag("endpoint", label).tag("outcome", "success")
+                    .publishPercentiles(0.5, 0.95, 0.99).register(registry);
+            failed = Timer.builder("alpaca.service.requests").description("Requests to each service endpoint")
+                    .tag("service", name).tag("endpoint", label).tag("outcome", "failure").register(registry);
+            synchronized (meters) {
+                meters.add(succeeded);
+                meters.add(failed);
+                meters.add(Gauge.builder("alpaca.service.outstanding", outstanding, AtomicInteger::get)
+                        .description("Requests waiting on each service endpoint").tag("service", name)
+                        .tag("endpoint", label).register(registry));
+                meters.add(Gauge.builder("alpaca.service.ejected", this, e -> e.isEjected(nanoClock.getAsLong()) ?
+                        1 : 0).description("1 while the service endpoint is ejected").tag("service", name)
+                        .tag("endpoint", label).register(registry));
+            }
+        }
+
+        /**
+         * @return the endpoint uri.
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * @return the requests sent to the endpoint which haven't finished.
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * @param now
+         *   The time in nanoseconds.
+         * @return whether the endpoint is ejected.
+         */
+        synchronized boolean isEjected(final long now) {
+            return failures >= ejectAfter && now - ejectedUntil < 0;
+        }
+
+        @Override
+        public String toString() {
+            return uri;
+        }
+    }
+
+    /**
+     * @param uri
+     *   An endpoint uri.
+     * @return the uri without its query, which holds the Camel options.
+     */
+    private static String label(final String uri) {
+        final int query = uri.indexOf('?');
+        return query < 0 ? uri : uri.substring(0, query);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Decides when a request is hedged, sent again while the first is still waiting for an answer.
+ *
+ * A request is hedged once it has waited the fixed delay, or the 95th percentile of the recent response times when
+ * there is no fixed delay. Hedges are paid for from a budget which grows by the budget percentage of each request, so
+ * at most that share of the requests is sent twice however slow the service gets.
+ *
+ * @author agent
+ */
+public class HedgePolicy {
+
+    /**
+     * The number of recent response times the percentile is taken over.
+     */
+    private static final int WINDOW = 128;
+
+    /**
+     * The response times needed before requests are hedged after the percentile.
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * The most hedges the budget can save up.
+     */
+    private static final int MAX_HEDGES = 10;
+
+    /**
+     * The budget is counted in percent of a request, which adds up exactly for whole percentages.
+     */
+    private static final double HEDGE_COST = 100;
+
+    private static final double PERCENTILE = 0.95;
+
+    private final long fixedDelayNanos;
+
+    private final double budget;
+
+    private final long[] samples = new long[WINDOW];
+
+    private int count;
+
+    private int next;
+
+    private double tokens;
+
+    private final MeterRegistry registry;
+
+    private final List<Meter> meters = new ArrayList<>();
+
+    private final Counter won;
+
+    private final Counter lost;
+
+    private final Counter denied;
+
+    /**
+     * Basic constructor.
+     * @param name
+     *   Name of the service, used to tag the metrics.
+     * @param delayMillis
+     *   Milliseconds to wait before hedging a request, or -1 to wait for the 95th percentile of the response times.
+     * @param budgetPercent
+     *   The most requests to hedge, as a percentage of all requests.
+     */
+    public HedgePolicy(final String name, final long delayMillis, final double budgetPercent) {
+        this(name, delayMillis, budgetPercent, Metrics.globalRegistry);
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     *   Name of the service, used to tag the metrics.
+     * @param delayMillis
+     *   Milliseconds to wait before hedging a request, or -1 to wait for the 95th percentile of the response times.
+     * @param budgetPercent
+     *   The most requests to hedge, as a percentage of all requests.
+     * @param registry
+     *   Registry of the metrics.
+     */
+    HedgePolicy(final String name, final long delayMillis, final double budgetPercent,
+                final MeterRegistry registry) {
+        this.fixedDelayNanos = delayMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        this.budget = Math.max(0, budgetPercent);
+        this.registry = registry;
+        won = counter(name, "won");
+        lost = counter(name, "lost");
+        denied = counter(name, "denied");
+    }
+
+    /**
+     * Called as a request is sent, adds its share to the budget.
+     * @return how long in nanoseconds to wait before hedging the request, or -1 if it can't be hedged.
+     */
+    public synchronized long delayNanos() {
+        tokens = Math.min(MAX_HEDGES * HEDGE_COST, tokens + budget);
+        if (tokens < HEDGE_COST) {
+            return -1;
+        }
+        if (fixedDelayNanos >= 0) {
+            return fixedDelayNanos;
+        }
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        final long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(PERCENTILE * count) - 1];
+    }
+
+    /**
+     * Take a hedge from the budget, for a request which has waited the delay.
+     * @return whether the request may be hedged.
+     */
+    public synchronized boolean tryHedge() {
+        if (tokens < HEDGE_COST) {
+            denied.increment();
+            return false;
+        }
+        tokens -= HEDGE_COST;
+        return true;
+    }
+
+    /**
+     * Record the response time of a request which was answered.
+     * @param nanos
+     *   The response time in nanoseconds.
+     */
+    public synchronized void record(final long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % WINDOW;
+        count = Math.min(WINDOW, count + 1);
+    }
+
+    /**
+     * Record which request answered first.
+     * @param hedgeWon
+     *   True if the hedge answered before the request it hedged.
+     */
+    public void hedged(final boolean hedgeWon) {
+        (hedgeWon ? won : lost).increment();
+    }
+
+    /**
+     * Remove the metrics.
+     */
+    public void close() {
+        synchronized (meters) {
+            meters.forEach(registry::remove);
+            meters.clear();
+        }
+    }
+
+    private Counter counter(final String name, final String result) {
+        final Counter counter = Counter.builder("alpaca.service.hedges")
+                .description("Requests sent again while waiting for an answer").tag("service", name)
+                .tag("result", result).register(registry);
+        synchronized (meters) {
+            meters.add(counter);
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import static ca.islandora.alpaca.support.http.BalancedSendProcessor.SERVICE_ENDPOINT_PROPERTY;
+import static ca.islandora.alpaca.support.http.BalancedSendProcessor.isEndpointFailure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.ThreadPoolProfileBuilder;
+import org.apache.camel.spi.ExecutorServiceManager;
+import org.apache.camel.support.ExchangeHelper;
+import org.apache.camel.support.service.ServiceHelper;
+import org.apache.camel.support.service.ServiceSupport;
+import org.apache.camel.util.concurrent.ThreadPoolRejectedPolicy;
+import org.apache.http.conn.EofSensorInputStream;
+
+/**
+ * Sends an idempotent request, and sends it again if it isn't answered within the HedgePolicy's delay.
+ *
+ * The first answer is used and the other request is cancelled. A failed answer is only used if the other request
+ * fails too. The hedge goes to another of the service's endpoints when it has several, otherwise to the same one.
+ * A failed request is rethrown for the route's error handler.
+ *
+ * @author agent
+ */
+public class HedgedSendProcessor extends ServiceSupport implements Processor {
+
+    /**
+     * The most hedges waiting for an answer at once, a slow request isn't hedged while they are all in use.
+     */
+    private static final int MAX_HEDGES = 10;
+
+    private final CamelContext camelContext;
+
+    private final HedgePolicy policy;
+
+    private final Expression uri;
+
+    private final EndpointBalancer balancer;
+
+    private final Processor beforeSend;
+
+    private final int cacheSize;
+
+    private ProducerTemplate template;
+
+    private ExecutorService executor;
+
+    private ScheduledExecutorService scheduler;
+
+    private RequestDeadlines deadlines;
+
+    private final AtomicInteger users = new AtomicInteger();
+
+    /**
+     * Constructor for a request to a single endpoint.
+     * @param camelContext
+     *   The camel context.
+     * @param policy
+     *   When to hedge requests.
+     * @param uri
+     *   The uri to send the request to, evaluated on the exchange.
+     * @param beforeSend
+     *   Processor run before each request is sent, ie. to rate limit requests.
+     * @param cacheSize
+     *   The number of endpoints to keep producers for.
+     */
+    public HedgedSendProcessor(final CamelContext camelContext, final HedgePolicy policy, final Expression uri,
+                               final Processor beforeSend, final int cacheSize) {
+        this.camelContext = camelContext;
+        this.policy = policy;
+        this.uri = uri;
+        this.balancer = null;
+        this.beforeSend = beforeSend;
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Constructor for a request to one of a service's endpoints.
+     * @param camelContext
+     *   The camel context.
+     * @param policy
+     *   When to hedge requests.
+     * @param balancer
+     *   The balancer of the service's endpoints.
+     * @param beforeSend
+     *   Processor run once the endpoint is chosen, ie. to rate limit requests to it.
+     */
+    public HedgedSendProcessor(final CamelContext camelContext, final HedgePolicy policy,
+                               final EndpointBalancer balancer, final Processor beforeSend) {
+        this.camelContext = camelContext;
+        this.policy = policy;
+        this.uri = null;
+        this.balancer = balancer;
+        this.beforeSend = beforeSend;
+        this.cacheSize = balancer.getEndpoints().size();
+    }
+
+    @Override
+    public void process(final Exchange exchange) throws Exception {
+        final long delay = policy.delayNanos();
+        final Attempt primary = new Attempt(exchange, null);
+        Attempt winner = primary;
+        if (delay < 0) {
+            primary.run();
+        } else {
+            final Race race = new Race(exchange, primary);
+            final ScheduledFuture<?> timer = scheduler.schedule(race::hedge, delay, TimeUnit.NANOSECONDS);
+            // The request is sent on this thread, only the hedge on the executor.
+            primary.run();
+            timer.cancel(false);
+            winner = race.finish();
+        }
+        ExchangeHelper.copyResults(exchange, winner.copy);
+        exchange.removeProperty(SERVICE_ENDPOINT_PROPERTY);
+        final Exception exception = exchange.getException();
+        if (exception != null) {
+            exchange.setException(null);
+            throw exception;
+        }
+    }
+
+    @Override
+    public void start() {
+        users.incrementAndGet();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (users.updateAndGet(count -> Math.max(0, count - 1)) == 0) {
+            super.stop();
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        template = camelContext.createProducerTemplate(cacheSize);
+        ServiceHelper.startService(template);
+        final ExecutorServiceManager manager = camelContext.getExecutorServiceManager();
+        scheduler = manager.newSingleThreadScheduledExecutor(this, "AlpacaHedgeTimer");
+        // No queue, a hedge is only worth sending at once.
+        executor = manager.newThreadPool(this, "AlpacaHedgedSend", new ThreadPoolProfileBuilder("AlpacaHedgedSend")
+                .poolSize(MAX_HEDGES).maxPoolSize(MAX_HEDGES).maxQueueSize(0).allowCoreThreadTimeOut(true)
+                .rejectedPolicy(ThreadPoolRejectedPolicy.Abort).build());
+        deadlines = RequestDeadlines.of(camelContext);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        camelContext.getExecutorServiceManager().shutdown(scheduler);
+        scheduler = null;
+        camelContext.getExecutorServiceManager().shutdown(executor);
+        executor = null;
+        ServiceHelper.stopService(template);
+        template = null;
+        policy.close();
+        if (balancer != null) {
+            balancer.close();
+        }
+    }
+
+    /**
+     * Release the connection held by the body of a response which isn't used.
+     * @param copy
+     *   The exchange of the request.
+     */
+    private static void discard(final Exchange copy) {
+        final Object body = copy.getMessage().getBody();
+        try {
+            if (body instanceof EofSensorInputStream) {
+                // Closing would read the rest of the response to reuse the connection.
+                ((EofSensorInputStream) body).abortConnection();
+            } else if (body instanceof Closeable) {
+                ((Closeable) body).close();
+            }
+        } catch (final IOException e) {
+            // The connection is not reused.
+        }
+    }
+
+    /**
+     * A request sent on the caller's thread and its hedge, the first successful answer wins.
+     */
+    private class Race {
+        private final Exchange exchange;
+        private final Attempt primary;
+        private final AtomicReference<Attempt> winner = new AtomicReference<>();
+        private Attempt hedge;
+        private boolean primaryDone;
+
+        /**
+         * @param exchange
+         *   The exchange.
+         * @param primary
+         *   The request being sent.
+         */
+        Race(final Exchange exchange, final Attempt primary) {
+            this.exchange = exchange;
+            this.primary = primary;
+        }
+
+        /**
+         * Send the hedge if the request is still waiting and the budget allows it, run once the delay has passed.
+         */
+        synchronized void hedge() {
+            if (primaryDone || !policy.tryHedge()) {
+                return;
+            }
+            final Attempt attempt = new Attempt(exchange, primary.endpoint);
+            try {
+                attempt.submit();
+            } catch (final RejectedExecutionException e) {
+                // As many hedges as allowed are already waiting.
+                attempt.abandon();
+                return;
+            }
+            hedge = attempt;
+            attempt.future.thenAccept(copy -> {
+                if (copy.getException() == null && winner.compareAndSet(null, attempt)) {
+                    primary.cancel("hedged request answered first");
+                }
+            });
+        }
+
+        /**
+         * Decide which answer to use once the request on the caller's thread has returned.
+         * @return the attempt to use the answer of.
+         * @throws Exception
+         *   If interrupted while waiting for the hedge.
+         */
+        Attempt finish() throws Exception {
+            final Attempt sent;
+            synchronized (this) {
+                primaryDone = true;
+                sent = hedge;
+            }
+            if (sent == null) {
+                return primary;
+            }
+            if (primary.copy.getException() == null && winner.compareAndSet(null, primary)) {
+                sent.cancel("hedged request answered first");
+                policy.hedged(false);
+                return primary;
+            }
+            try {
+                // The hedge answered first, or the request failed and the hedge may still succeed.
+                sent.future.get();
+            } catch (final InterruptedException e) {
+                sent.cancel("interrupted");
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+            if (sent.copy.getException() == null) {
+                discard(primary.copy);
+                policy.hedged(true);
+                return sent;
+            }
+            policy.hedged(false);
+            return primary;
+        }
+    }
+
+    /**
+     * One of the requests, sent with a copy of the exchange.
+     */
+    private class Attempt {
+        private final Exchange copy;
+        private final EndpointBalancer.Endpoint endpoint;
+        private final String target;
+        private final RequestCancellation cancellation = new RequestCancellation();
+        private CompletableFuture<Exchange> future;
+
+        /**
+         * @param exchange
+         *   The exchange to copy.
+         * @param avoid
+         *   The endpoint of the request being hedged, or null.
+         */
+        Attempt(final Exchange exchange, final EndpointBalancer.Endpoint avoid) {
+            copy = exchange.copy();
+            if (balancer == null) {
+                endpoint = null;
+                target = uri.evaluate(exchange, String.class);
+            } else {
+                endpoint = balancer.choose(avoid);
+                target = endpoint.getUri();
+                copy.setProperty(SERVICE_ENDPOINT_PROPERTY, target);
+            }
+        }
+
+        /**
+         * Send the request on the executor.
+         */
+        void submit() {
+            future = CompletableFuture.supplyAsync(this::run, executor);
+        }
+
+        /**
+         * Send the request on this thread.
+         * @return the exchange of the request.
+         */
+        Exchange run() {
+            try {
+                beforeSend.process(copy);
+            } catch (final Exception e) {
+                copy.setException(e);
+                return copy;
+            }
+            final long sent = System.nanoTime();
+            final long start = balancer == null ? sent : balancer.started(endpoint);
+            try {
+                if (deadlines == null) {
+                    cancellation.run(() -> template.send(target, copy));
+                } else {
+                    // Aborted when the exchange is past its deadline.
+                    deadlines.run(copy, cancellation, () -> template.send(target, copy));
+                }
+            } catch (final Exception e) {
+                copy.setException(e);
+            }
+            final boolean cancelled = cancellation.isCancelled();
+            if (balancer != null) {
+                if (cancelled) {
+                    balancer.abandoned(endpoint);
+                } else {
+                    balancer.finished(endpoint, start, !isEndpointFailure(copy.getException()));
+                }
+            }
+            if (!cancelled && copy.getException() == null) {
+                policy.record(System.nanoTime() - sent);
+            }
+            return copy;
+        }
+
+        /**
+         * Cancel the request, and release the connection of its answer if it has one.
+         * @param why
+         *   Why the request is cancelled.
+         */
+        void cancel(final String why) {
+            cancellation.cancel(why);
+            if (future != null) {
+                future.thenAccept(HedgedSendProcessor::discard);
+            }
+        }
+
+        /**
+         * Give up the endpoint chosen for a request which wasn't sent.
+         */
+        void abandon() {
+            if (balancer != null) {
+                balancer.abandoned(endpoint);
+            }
+        }
+    }
+}
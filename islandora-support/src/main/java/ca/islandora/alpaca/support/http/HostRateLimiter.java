@@ -0,0 +1,124 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+
+/**
+ * Rate limits outbound requests per downstream host.
+ *
+ * The buckets are held by the limiter, so the routes sharing a limiter draw on the same budget for each host. Each
+ * camel context has one limiter, see PropertyConfig.
+ *
+ * @author agent
+ */
+public class HostRateLimiter {
+
+    private static final Logger LOGGER = getLogger(HostRateLimiter.class);
+
+    /**
+     * Buckets by lower-cased host name.
+     */
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Permits per second for hosts without an override, -1 means no limit.
+     */
+    private final double defaultRate;
+
+    /**
+     * The burst size.
+     */
+    private final int burst;
+
+    /**
+     * Permits per second by lower-cased host name.
+     */
+    private final Map<String, Double> hostRates;
+
+    /**
+     * Basic constructor.
+     * @param defaultRate
+     *   Permits per second for hosts without an override, -1 means no limit.
+     * @param burst
+     *   The number of requests allowed at once when the bucket is full.
+     * @param hostRates
+     *   Permits per second by host name.
+     */
+    public HostRateLimiter(final double defaultRate, final int burst, final Map<String, Double> hostRates) {
+        this.defaultRate = defaultRate;
+        this.burst = burst;
+        this.hostRates = new ConcurrentHashMap<>();
+        hostRates.forEach((host, rate) -> this.hostRates.put(host.toLowerCase(Locale.ROOT), rate));
+    }
+
+    /**
+     * @return whether any host is rate limited.
+     */
+    public boolean isEnabled() {
+        return defaultRate > 0 || hostRates.values().stream().anyMatch(r -> r > 0);
+    }
+
+    /**
+     * Wait for a permit to send to the host of the uri.
+     * @param uri
+     *   The uri we are about to send a request to.
+     * @throws InterruptedException
+     *   If interrupted while waiting.
+     */
+    public void acquire(final String uri) throws InterruptedException {
+        final String host = getHost(uri);
+        if (host == null) {
+            return;
+        }
+        final double rate = hostRates.getOrDefault(host, defaultRate);
+        if (rate > 0) {
+            buckets.computeIfAbsent(host, h -> {
+                LOGGER.debug("Limiting requests to {} to {} per second (burst {})", h, rate, burst);
+                return new TokenBucket(rate, burst);
+            }).acquire();
+        }
+    }
+
+    /**
+     * Extract the lower-cased host from a uri.
+     * @param uri
+     *   The uri.
+     * @return the host or null if the uri has none.
+     */
+    private static String getHost(final String uri) {
+        if (uri == null || uri.isBlank()) {
+            return null;
+        }
+        try {
+            final String host = URI.create(uri.trim()).getHost();
+            return host == null ? null : host.toLowerCase(Locale.ROOT);
+        } catch (final IllegalArgumentException e) {
+            LOGGER.debug("Unable to determine host of {}, not rate limiting", uri);
+            return null;
+        }
+    }
+}
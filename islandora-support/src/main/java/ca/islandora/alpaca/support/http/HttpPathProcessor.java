@@ -0,0 +1,70 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import java.net.URI;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.apache.camel.Processor;
+
+/**
+ * Splits a per-message uri into its origin (scheme://host:port) and the CamelHttpPath and CamelHttpQuery headers.
+ *
+ * Sending to the origin with toD() means Camel only creates one producer per downstream host, rather than one for
+ * every uri it has ever seen.
+ *
+ * @author agent
+ */
+public class HttpPathProcessor implements Processor {
+
+    /**
+     * The exchange property the origin is stored in.
+     */
+    public static final String HTTP_ORIGIN_PROPERTY = "httpOrigin";
+
+    private final Expression targetUri;
+
+    /**
+     * Basic constructor.
+     * @param targetUri
+     *   Expression resolving to the full uri of the request.
+     */
+    public HttpPathProcessor(final Expression targetUri) {
+        this.targetUri = targetUri;
+    }
+
+    @Override
+    public void process(final Exchange exchange) throws Exception {
+        final URI uri = new URI(targetUri.evaluate(exchange, String.class).trim());
+        if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+            throw new IllegalArgumentException("Cannot send to " + uri + ", it is not an absolute http(s) uri");
+        }
+        exchange.setProperty(HTTP_ORIGIN_PROPERTY, uri.getScheme() + "://" + uri.getRawAuthority());
+        if (uri.getRawPath() == null || uri.getRawPath().isEmpty()) {
+            exchange.getIn().removeHeader(Exchange.HTTP_PATH);
+        } else {
+            exchange.getIn().setHeader(Exchange.HTTP_PATH, uri.getRawPath());
+        }
+        if (uri.getRawQuery() == null) {
+            exchange.getIn().removeHeader(Exchange.HTTP_QUERY);
+        } else {
+            exchange.getIn().setHeader(Exchange.HTTP_QUERY, uri.getRawQuery());
+        }
+    }
+}
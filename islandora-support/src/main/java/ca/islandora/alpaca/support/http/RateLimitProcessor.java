@@ -0,0 +1,53 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.apache.camel.Processor;
+
+/**
+ * Blocks the exchange until the rate limiter allows a request to the target host.
+ *
+ * @author agent
+ */
+public class RateLimitProcessor implements Processor {
+
+    private final HostRateLimiter limiter;
+
+    private final Expression targetUri;
+
+    /**
+     * Basic constructor.
+     * @param limiter
+     *   The rate limiter.
+     * @param targetUri
+     *   Expression resolving to the uri the next request is sent to.
+     */
+    public RateLimitProcessor(final HostRateLimiter limiter, final Expression targetUri) {
+        this.limiter = limiter;
+        this.targetUri = targetUri;
+    }
+
+    @Override
+    public void process(final Exchange exchange) throws Exception {
+        if (limiter.isEnabled()) {
+            limiter.acquire(targetUri.evaluate(exchange, String.class));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+
+import org.apache.http.HttpClientConnection;
+
+/**
+ * Lets another thread abort the HTTP request a thread is making.
+ *
+ * While a thread runs a task with run(), the connection of each request it sends through an HTTP client with the
+ * CancellableRequestExecutor is attached to the cancellation. Cancelling shuts the connection down, which fails the
+ * request at once with an IOException and keeps the connection from going back to the pool. A request sent after the
+ * cancellation fails before it is written.
+ *
+ * @author agent
+ */
+public class RequestCancellation {
+
+    private static final ThreadLocal<RequestCancellation> CURRENT = new ThreadLocal<>();
+
+    private boolean cancelled;
+
+    private String reason;
+
+    private HttpClientConnection connection;
+
+    /**
+     * Run a task, requests it sends can be aborted with cancel().
+     * @param task
+     *   The task.
+     * @param <T>
+     *   The type of the task's result.
+     * @return the task's result.
+     * @throws Exception
+     *   If the task fails.
+     */
+    public <T> T run(final Callable<T> task) throws Exception {
+        final RequestCancellation previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Abort the request being sent, and any sent after it.
+     * @param why
+     *   Why the request is cancelled, for the exception message.
+     */
+    public void cancel(final String why) {
+        final HttpClientConnection open;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            reason = why;
+            open = connection;
+        }
+        if (open != null) {
+            shutdown(open);
+        }
+    }
+
+    /**
+     * @return whether the requests have been cancelled.
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the cancellation of the requests the current thread sends, or null.
+     */
+    static RequestCancellation current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Attach the connection a request is about to be sent on.
+     * @param conn
+     *   The connection.
+     * @throws InterruptedIOException
+     *   If the requests have been cancelled.
+     */
+    synchronized void attach(final HttpClientConnection conn) throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Request cancelled: " + reason);
+        }
+        connection = conn;
+    }
+
+    /**
+     * Detach the connection once the response has been received.
+     */
+    synchronized void detach() {
+        connection = null;
+    }
+
+    /**
+     * @return why the requests were cancelled.
+     */
+    synchronized String getReason() {
+        return reason;
+    }
+
+    private static void shutdown(final HttpClientConnection conn) {
+        try {
+            conn.shutdown();
+        } catch (final IOException e) {
+            // The connection is closed either way.
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangeTimedOutException;
+import org.apache.camel.ExtendedCamelContext;
+import org.apache.camel.NamedNode;
+import org.apache.camel.Processor;
+import org.apache.camel.model.SendDefinition;
+import org.apache.camel.model.ToDynamicDefinition;
+import org.apache.camel.spi.InterceptStrategy;
+import org.apache.camel.support.processor.DelegateAsyncProcessor;
+import org.apache.camel.support.service.ServiceSupport;
+import org.slf4j.Logger;
+
+/**
+ * Aborts the HTTP requests of an exchange which is past its deadline, or still waiting when Camel stops.
+ *
+ * A route sending HTTP requests sets the exchange's deadline with the deadline() processor as it receives it, which
+ * installs the deadlines in the camel context the first time. The requests the routes send to http or https
+ * endpoints with to() or toD() then run under a RequestCancellation. When the exchange has a deadline it is cancelled
+ * as the deadline passes, releasing the connection and the thread at once rather than at the socket timeout, and a
+ * request sent after the deadline fails with an ExchangeTimedOutException before it is sent. With or without a
+ * deadline, the requests still running when Camel stops services, after the routes' graceful shutdown, are aborted.
+ *
+ * @author agent
+ */
+public class RequestDeadlines extends ServiceSupport implements InterceptStrategy {
+
+    /**
+     * The exchange property holding the deadline, in System.nanoTime().
+     */
+    public static final String DEADLINE_PROPERTY = "AlpacaDeadline";
+
+    private static final Logger LOGGER = getLogger(RequestDeadlines.class);
+
+    private static final Processor NO_DEADLINE = exchange -> { };
+
+    private final CamelContext camelContext;
+
+    private final Set<RequestCancellation> running = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor.
+     * @param camelContext
+     *   The camel context.
+     */
+    RequestDeadlines(final CamelContext camelContext) {
+        this.camelContext = camelContext;
+    }
+
+    /**
+     * Add the deadlines to a camel context, before its routes are started.
+     * @param camelContext
+     *   The camel context.
+     * @return the deadlines of the context.
+     */
+    public static RequestDeadlines install(final CamelContext camelContext) {
+        synchronized (camelContext) {
+            RequestDeadlines deadlines = of(camelContext);
+            if (deadlines == null) {
+                deadlines = new RequestDeadlines(camelContext);
+                camelContext.adapt(ExtendedCamelContext.class).addInterceptStrategy(deadlines);
+                try {
+                    camelContext.addService(deadlines, true, true);
+                } catch (final Exception e) {
+                    throw new IllegalStateException("Unable to start the request deadlines", e);
+                }
+            }
+            return deadlines;
+        }
+    }
+
+    /**
+     * Processor which gives an exchange its deadline, see start(). The deadlines are installed in the camel context
+     * even without a deadline, so the routes' requests are still aborted when Camel stops.
+     * @param camelContext
+     *   The camel context, before its routes are started.
+     * @param millis
+     *   The milliseconds the exchange's requests have to be answered in, or -1 for no deadline.
+     * @return the processor.
+     */
+    public static Processor deadline(final CamelContext camelContext, final long millis) {
+        return install(camelContext).start(millis);
+    }
+
+    /**
+     * @param camelContext
+     *   The camel context.
+     * @return the deadlines of the context, or null if there are none.
+     */
+    public static RequestDeadlines of(final CamelContext camelContext) {
+        return camelContext.hasService(RequestDeadlines.class);
+    }
+
+    /**
+     * Processor which gives an exchange its deadline, unless it already has one ie. from the route it was handed on by.
+     * @param millis
+     *   The milliseconds the exchange's requests have to be answered in, or -1 for no deadline.
+     * @return the processor.
+     */
+    public Processor start(final long millis) {
+        if (millis <= 0) {
+            return NO_DEADLINE;
+        }
+        final long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        return exchange -> {
+            if (exchange.getProperty(DEADLINE_PROPERTY) == null) {
+                exchange.setProperty(DEADLINE_PROPERTY, System.nanoTime() + nanos);
+            }
+        };
+    }
+
+    /**
+     * Run a task sending requests for the exchange, they are cancelled when the exchange's deadline passes.
+     * @param exchange
+     *   The exchange.
+     * @param cancellation
+     *   The cancellation to run the task under.
+     * @param task
+     *   The task.
+     * @param <T>
+     *   The type of the task's result.
+     * @return the task's result.
+     * @throws Exception
+     *   If the task fails, or the deadline has passed.
+     */
+    public <T> T run(final Exchange exchange, final RequestCancellation cancellation, final Callable<T> task)
+            throws Exception {
+        final ScheduledFuture<?> timer = schedule(exchange, cancellation);
+        running.add(cancellation);
+        try {
+            return cancellation.run(task);
+        } finally {
+            finished(cancellation, timer);
+        }
+    }
+
+    @Override
+    public Processor wrapProcessorInInterceptors(final CamelContext context, final NamedNode definition,
+                                                 final Processor target, final Processor nextTarget) {
+        final String uri;
+        if (definition instanceof SendDefinition) {
+            uri = ((SendDefinition<?>) definition).getEndpointUri();
+        } else if (definition instanceof ToDynamicDefinition) {
+            uri = ((ToDynamicDefinition) definition).getUri();
+        } else {
+            return target;
+        }
+        if (!isHttp(context, uri)) {
+            return target;
+        }
+        return new DelegateAsyncProcessor(target) {
+            @Override
+            public boolean process(final Exchange exchange, final AsyncCallback callback) {
+                final RequestCancellation cancellation = new RequestCancellation();
+                final ScheduledFuture<?> timer;
+                try {
+                    timer = schedule(exchange, cancellation);
+                } catch (final ExchangeTimedOutException e) {
+                    exchange.setException(e);
+                    callback.done(true);
+                    return true;
+                }
+                running.add(cancellation);
+                // Kept until the request completes, should the producer complete it on another thread.
+                final AsyncCallback done = doneSync -> {
+                    finished(cancellation, timer);
+                    callback.done(doneSync);
+                };
+                try {
+                    return cancellation.run(() -> processor.process(exchange, done));
+                } catch (final Exception e) {
+                    exchange.setException(e);
+                    done.done(true);
+                    return true;
+                }
+            }
+        };
+    }
+
+    /**
+     * Whether an endpoint is an http one, including sending to the origin set by the HttpPathProcessor and sending
+     * with a ServiceBulkhead's connections.
+     * @param context
+     *   The camel context.
+     * @param endpointUri
+     *   The uri of the endpoint, or the expression resolving to it.
+     * @return whether it is an http or https endpoint.
+     */
+    static boolean isHttp(final CamelContext context, final String endpointUri) {
+        if (endpointUri == null) {
+            return false;
+        }
+        String uri = context.resolvePropertyPlaceholders(endpointUri).trim();
+        if (uri.startsWith(ServiceBulkhead.COMPONENT_PREFIX)) {
+            uri = uri.substring(uri.indexOf(':') + 1);
+        }
+        return uri.startsWith("http:") || uri.startsWith("https:") ||
+                uri.startsWith("${exchangeProperty." + HttpPathProcessor.HTTP_ORIGIN_PROPERTY + "}");
+    }
+
+    /**
+     * Cancel the requests when the exchange's deadline passes.
+     * @param exchange
+     *   The exchange.
+     * @param cancellation
+     *   The cancellation of its requests.
+     * @return the timer, or null if the exchange has no deadline.
+     * @throws ExchangeTimedOutException
+     *   If the deadline has passed.
+     */
+    private ScheduledFuture<?> schedule(final Exchange exchange, final RequestCancellation cancellation)
+            throws ExchangeTimedOutException {
+        final Long deadline = exchange.getProperty(DEADLINE_PROPERTY, Long.class);
+        final ScheduledExecutorService timers = scheduler;
+        if (deadline == null || timers == null) {
+            return null;
+        }
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            throw new ExchangeTimedOutException(exchange, 0, "The exchange is past its deadline");
+        }
+        return timers.schedule(() -> cancellation.cancel("the exchange is past its deadline"), remaining,
+                TimeUnit.NANOSECONDS);
+    }
+
+    private void finished(final RequestCancellation cancellation, final ScheduledFuture<?> timer) {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        running.remove(cancellation);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        scheduler = camelContext.getExecutorServiceManager().newSingleThreadScheduledExecutor(this,
+                "AlpacaRequestDeadlines");
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (!running.isEmpty()) {
+            LOGGER.info("Aborting {} requests still running", running.size());
+            running.forEach(cancellation -> cancellation.cancel("Camel is stopping"));
+        }
+        camelContext.getExecutorServiceManager().shutdown(scheduler);
+        scheduler = null;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.ToDoubleFunction;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Endpoint;
+import org.apache.camel.builder.ThreadPoolProfileBuilder;
+import org.apache.camel.component.http.HttpComponent;
+import org.apache.camel.support.service.ServiceSupport;
+import org.apache.camel.util.concurrent.ThreadPoolRejectedPolicy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * The resources of one service kept apart from the others', so a service which stops answering can only tie up its
+ * own threads and connections.
+ *
+ * The bulkhead can have a connection pool, set on an http component of its own so no endpoint shuts it down, and a
+ * thread pool to run the requests on. When the threads are all busy and the queue is full a request
+ * fails at once with a RejectedExecutionException, to be retried by the route's error handler.
+ *
+ * @author agent
+ */
+public class ServiceBulkhead extends ServiceSupport {
+
+    /**
+     * The start of the names of the bulkheads' http components.
+     */
+    public static final String COMPONENT_PREFIX = "alpacaBulkhead-";
+
+    private final CamelContext camelContext;
+
+    private final String name;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final HttpComponent component;
+
+    private final ExecutorService executor;
+
+    private final MeterRegistry registry;
+
+    private final List<Meter> meters = new ArrayList<>();
+
+    /**
+     * Basic constructor.
+     * @param camelContext
+     *   The camel context, the http component using the connection pool is added to it.
+     * @param name
+     *   Name of the service, used to tag the metrics.
+     * @param threads
+     *   The threads to run the requests on, or 0 to run them on the caller's thread.
+     * @param queue
+     *   The requests which can wait for a thread.
+     * @param connections
+     *   The most connections open to the service, and to each host, or 0 to use the shared connections.
+     */
+    public ServiceBulkhead(final CamelContext camelContext, final String name, final int threads, final int queue,
+                           final int connections) {
+        this(camelContext, name, threads, queue, connections, Metrics.globalRegistry);
+    }
+
+    /**
+     * Constructor.
+     * @param camelContext
+     *   The camel context, the http component using the connection pool is added to it.
+     * @param name
+     *   Name of the service, used to tag the metrics.
+     * @param threads
+     *   The threads to run the requests on, or 0 to run them on the caller's thread.
+     * @param queue
+     *   The requests which can wait for a thread.
+     * @param connections
+     *   The most connections open to the service, and to each host, or 0 to use the shared connections.
+     * @param registry
+     *   Registry of the metrics.
+     */
+    ServiceBulkhead(final CamelContext camelContext, final String name, final int threads, final int queue,
+                    final int connections, final MeterRegistry registry) {
+        this.camelContext = camelContext;
+        this.name = name;
+        this.registry = registry;
+
+        if (connections > 0) {
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(connections);
+            connectionManager.setDefaultMaxPerRoute(connections);
+            // Configured like the shared http component, but with the connector's connections.
+            final HttpComponent shared = camelContext.getComponent("http", HttpComponent.class);
+            component = new BulkheadHttpComponent();
+            component.setHttpClientConfigurer(shared.getHttpClientConfigurer());
+            component.setConnectionRequestTimeout(shared.getConnectionRequestTimeout());
+            component.setConnectTimeout(shared.getConnectTimeout());
+            component.setSocketTimeout(shared.getSocketTimeout());
+            component.setClientConnectionManager(connectionManager);
+            camelContext.addComponent(getComponentName(), component);
+            gauge("saturation", "connections", "Share of the service's connections in use", connectionManager,
+                    m -> (double) m.getTotalStats().getLeased() / m.getMaxTotal());
+            gauge("waiting", "connections", "Requests waiting for a connection to the service", connectionManager,
+                    m -> m.getTotalStats().getPending());
+        } else {
+            connectionManager = null;
+            component = null;
+        }
+
+        if (threads > 0) {
+            executor = camelContext.getExecutorServiceManager().newThreadPool(this, "AlpacaBulkhead-" + name,
+                    new ThreadPoolProfileBuilder("AlpacaBulkhead-" + name).poolSize(threads).maxPoolSize(threads)
+                            .maxQueueSize(Math.max(0, queue)).rejectedPolicy(ThreadPoolRejectedPolicy.Abort).build());
+            if (executor instanceof ThreadPoolExecutor) {
+                final ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+                final Counter rejected = Counter.builder("alpaca.service.bulkhead.rejected")
+                        .description("Requests rejected because the service's threads and queue were full")
+                        .tag("service", name).register(registry);
+                meters.add(rejected);
+                pool.setRejectedExecutionHandler((task, p) -> {
+                    rejected.increment();
+                    throw new RejectedExecutionException("The bulkhead of " + name + " is full, " +
+                            p.getActiveCount() + " requests running and " + p.getQueue().size() + " waiting");
+                });
+                gauge("saturation", "threads", "Share of the service's threads in use", pool,
+                        p -> (double) p.getActiveCount() / p.getMaximumPoolSize());
+                gauge("waiting", "threads", "Requests waiting for a thread of the service", pool,
+                        p -> p.getQueue().size());
+            }
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the name of the http component using the connection pool.
+     */
+    public String getComponentName() {
+        return COMPONENT_PREFIX + name;
+    }
+
+    /**
+     * @return the connection pool, or null if the service uses the shared connections.
+     */
+    public PoolingHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    /**
+     * @return the thread pool to run the requests on, or null to run them on the caller's thread.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Utility to send to an http endpoint with the bulkhead's connection pool.
+     * @param httpEndpoint
+     *   The http endpoint string, with its options.
+     * @return
+     *   The endpoint string using the connection pool, the http endpoint with the bulkhead's component in front.
+     */
+    public String addOptions(final String httpEndpoint) {
+        if (component == null) {
+            return httpEndpoint;
+        }
+        return getComponentName() + ":" + httpEndpoint;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (executor != null) {
+            camelContext.getExecutorServiceManager().shutdown(executor);
+        }
+        if (connectionManager != null) {
+            connectionManager.close();
+        }
+        synchronized (meters) {
+            meters.forEach(registry::remove);
+            meters.clear();
+        }
+    }
+
+    /**
+     * Http component creating its endpoints from the http or https uri following its own name.
+     */
+    private static class BulkheadHttpComponent extends HttpComponent {
+
+        @Override
+        protected Endpoint createEndpoint(final String uri, final String remaining,
+                                          final Map<String, Object> parameters) throws Exception {
+            final int scheme = remaining.indexOf("://");
+            if (scheme < 0) {
+                return super.createEndpoint(uri, remaining, parameters);
+            }
+            return super.createEndpoint(remaining, remaining.substring(scheme + 3), parameters);
+        }
+    }
+
+    private <T> void gauge(final String metric, final String pool, final String description, final T source,
+                           final ToDoubleFunction<T> value) {
+        synchronized (meters) {
+            meters.add(Gauge.builder("alpaca.service.bulkhead." + metric, source, value).description(description)
+                    .tag("service", name).tag("pool", pool).register(registry));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket.
+ *
+ * Implemented as a generic cell rate algorithm: the only state is the theoretical arrival time of the next permit,
+ * which is advanced with a compare-and-set. Callers reserve permits in the order they arrive, so everyone sharing a
+ * bucket gets a fair turn no matter which route they come from.
+ *
+ * @author agent
+ */
+public class TokenBucket {
+
+    /**
+     * Nanoseconds between permits.
+     */
+    private final long intervalNanos;
+
+    /**
+     * How far ahead of the theoretical arrival time a request may be admitted, this allows for bursts.
+     */
+    private final long toleranceNanos;
+
+    /**
+     * The theoretical arrival time of the next permit.
+     */
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * Basic constructor.
+     * @param permitsPerSecond
+     *   The sustained rate, must be greater than 0.
+     * @param burst
+     *   The number of permits that can be taken at once when the bucket is full, values less than 1 are treated as 1.
+     */
+    public TokenBucket(final double permitsPerSecond, final int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be greater than 0");
+        }
+        intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Reserve a permit.
+     * @return the number of nanoseconds the caller must wait before using the permit.
+     */
+    public long reserve() {
+        return reserve(System.nanoTime());
+    }
+
+    /**
+     * Reserve a permit at the provided time.
+     * @param now
+     *   The current time in nanoseconds.
+     * @return the number of nanoseconds the caller must wait before using the permit.
+     */
+    long reserve(final long now) {
+        while (true) {
+            final long current = theoreticalArrival.get();
+            final long start = Math.max(current, now);
+            if (theoreticalArrival.compareAndSet(current, start + intervalNanos)) {
+                return Math.max(0L, start - toleranceNanos - now);
+            }
+        }
+    }
+
+    /**
+     * Reserve a permit and wait until it can be used.
+     * @throws InterruptedException
+     *   If interrupted while waiting, the permit is given back.
+     */
+    public void acquire() throws InterruptedException {
+        final long wait = reserve();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (final InterruptedException e) {
+                release();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Give back a reserved permit which won't be used.
+     */
+    void release() {
+        theoreticalArrival.addAndGet(-intervalNanos);
+    }
+}
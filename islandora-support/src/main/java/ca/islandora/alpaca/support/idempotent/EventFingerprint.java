@@ -0,0 +1,55 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.idempotent;
+
+import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.event.AS2Object;
+
+/**
+ * Builds the idempotent key of an event message.
+ *
+ * The key is the event type, the object id and the JMS message id. Drupal sends identical events for separate edits
+ * of the same object, so the event content can't tell a second edit from a duplicate; the message id can; a message
+ * the broker delivers again, ie. after a consumer crashed, keeps its id while every message Drupal sends gets a new
+ * one.
+ *
+ * @author agent
+ */
+public final class EventFingerprint {
+
+    private EventFingerprint() {
+        // Utility class
+    }
+
+    /**
+     * Fingerprint an event message.
+     * @param messageId
+     *   The JMS message id of the event.
+     * @param event
+     *   The event.
+     * @return the fingerprint, or null if the event has no message id.
+     */
+    public static String of(final String messageId, final AS2Event event) {
+        if (messageId == null || messageId.isBlank()) {
+            return null;
+        }
+        final AS2Object object = event.getObject();
+        final String objectId = object == null ? "" : object.getId();
+        return event.getType() + "|" + objectId + "|" + messageId;
+    }
+}
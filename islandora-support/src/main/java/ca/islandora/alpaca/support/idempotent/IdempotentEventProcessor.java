@@ -0,0 +1,110 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.idempotent;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ExtendedExchange;
+import org.apache.camel.Processor;
+import org.apache.camel.spi.IdempotentRepository;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.apache.camel.support.service.ServiceHelper;
+import org.apache.camel.support.service.ServiceSupport;
+import org.slf4j.Logger;
+
+import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.event.AS2EventExpressions;
+
+/**
+ * Stops the route for an event message that has already been processed.
+ *
+ * Must follow the processor that sets the parsed event as the "event" exchange property, in the route consuming the
+ * JMS message. If the exchange fails the fingerprint is removed again, so a redelivery of the same message is
+ * processed. A route the event is handed on to, ie. over seda, must run the processor too: there it doesn't check the
+ * event again, it only removes the fingerprint if the exchange fails.
+ *
+ * @author agent
+ */
+public class IdempotentEventProcessor extends ServiceSupport implements Processor {
+
+    /**
+     * The exchange property holding the fingerprint of the event, for the routes the event is handed on to.
+     */
+    public static final String KEY_PROPERTY = "AlpacaIdempotentKey";
+
+    private static final String MESSAGE_ID_HEADER = "JMSMessageID";
+
+    private static final Logger LOGGER = getLogger(IdempotentEventProcessor.class);
+
+    private final IdempotentRepository repository;
+
+    /**
+     * Basic constructor.
+     * @param repository
+     *   Repository of the fingerprints already seen.
+     */
+    public IdempotentEventProcessor(final IdempotentRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public void process(final Exchange exchange) throws Exception {
+        final String handedOn = exchange.getProperty(KEY_PROPERTY, String.class);
+        if (handedOn != null) {
+            // Checked by the route which consumed the message, it is failed if this exchange fails.
+            removeOnFailure(exchange, handedOn);
+            return;
+        }
+        final AS2Event event = exchange.getProperty(AS2EventExpressions.EVENT_PROPERTY, AS2Event.class);
+        if (event == null) {
+            return;
+        }
+        final String key = EventFingerprint.of(exchange.getIn().getHeader(MESSAGE_ID_HEADER, String.class), event);
+        if (key == null) {
+            return;
+        }
+        if (!repository.add(key)) {
+            LOGGER.info("Skipping duplicate {} event for {}", event.getType(),
+                    event.getObject() == null ? null : event.getObject().getId());
+            exchange.setRouteStop(true);
+            return;
+        }
+        exchange.setProperty(KEY_PROPERTY, key);
+        removeOnFailure(exchange, key);
+    }
+
+    private void removeOnFailure(final Exchange exchange, final String key) {
+        exchange.adapt(ExtendedExchange.class).addOnCompletion(new SynchronizationAdapter() {
+            @Override
+            public void onFailure(final Exchange failed) {
+                repository.remove(key);
+            }
+        });
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        ServiceHelper.startService(repository);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        ServiceHelper.stopService(repository);
+    }
+}
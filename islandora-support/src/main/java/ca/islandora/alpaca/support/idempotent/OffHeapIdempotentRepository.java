@@ -0,0 +1,429 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.idempotent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.apache.camel.spi.IdempotentRepository;
+import org.apache.camel.support.service.ServiceSupport;
+import org.slf4j.Logger;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * A bounded idempotent repository with expiring keys, stored outside the Java heap.
+ *
+ * Keys are reduced to a 128 bit hash and kept in a direct ByteBuffer laid out as a set-associative table, each set
+ * holds 8 entries of (hash high, hash low, expiry). A full set evicts its entry closest to expiry. This keeps millions
+ * of keys in a fixed amount of memory that the garbage collector never has to scan.
+ *
+ * Given a file the table is memory-mapped from it instead, so the keys survive a restart or a crash of the JVM; the
+ * operating system writes the pages back. Expiry times are wall clock times, so they still hold after a restart.
+ *
+ * @author agent
+ */
+public class OffHeapIdempotentRepository extends ServiceSupport implements IdempotentRepository {
+
+    private static final Logger LOGGER = getLogger(OffHeapIdempotentRepository.class);
+
+    /**
+     * Entries per set.
+     */
+    private static final int WAYS = 8;
+
+    /**
+     * Bytes per entry, two longs of hash and one of expiry.
+     */
+    private static final int ENTRY_BYTES = 24;
+
+    /**
+     * Bytes per set.
+     */
+    private static final int SET_BYTES = WAYS * ENTRY_BYTES;
+
+    /**
+     * The most sets a table of at most Integer.MAX_VALUE bytes can hold, a power of two.
+     */
+    private static final int MAX_SETS = Integer.highestOneBit(Integer.MAX_VALUE / SET_BYTES);
+
+    /**
+     * The most keys a repository can hold.
+     */
+    public static final int MAX_CAPACITY = MAX_SETS * WAYS;
+
+    private static final int MAX_LOCKS = 256;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long SECOND_SEED = 0x9e3779b97f4a7c15L;
+
+    private final String name;
+
+    private final int sets;
+
+    private final long ttlMillis;
+
+    private final Path file;
+
+    private final LongSupplier clock;
+
+    private final Object[] locks;
+
+    private final AtomicLong entries = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final List<Meter> meters = new ArrayList<>();
+
+    private ByteBuffer table;
+
+    /**
+     * Basic constructor.
+     * @param name
+     *   Name of this repository, used to tag its metrics.
+     * @param capacity
+     *   The maximum number of keys, rounded up so the number of sets is a power of two, at most MAX_CAPACITY.
+     * @param ttlMillis
+     *   How long a key is remembered in milliseconds.
+     */
+    public OffHeapIdempotentRepository(final String name, final int capacity, final long ttlMillis) {
+        this(name, capacity, ttlMillis, null);
+    }
+
+    /**
+     * Constructor for a repository kept in a file.
+     * @param name
+     *   Name of this repository, used to tag its metrics.
+     * @param capacity
+     *   The maximum number of keys, rounded up so the number of sets is a power of two, at most MAX_CAPACITY.
+     * @param ttlMillis
+     *   How long a key is remembered in milliseconds.
+     * @param file
+     *   The file to map the table from, or null to keep it in direct memory.
+     */
+    public OffHeapIdempotentRepository(final String name, final int capacity, final long ttlMillis,
+                                       final Path file) {
+        this(name, capacity, ttlMillis, file, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor with a clock for testing.
+     * @param name
+     *   Name of this repository, used to tag its metrics.
+     * @param capacity
+     *   The maximum number of keys.
+     * @param ttlMillis
+     *   How long a key is remembered in milliseconds.
+     * @param file
+     *   The file to map the table from, or null to keep it in direct memory.
+     * @param clock
+     *   Source of the current time in milliseconds.
+     */
+    OffHeapIdempotentRepository(final String name, final int capacity, final long ttlMillis, final Path file,
+                                final LongSupplier clock) {
+        // Checked on the rounded up capacity, so the table's size and offsets fit in an int.
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be between 1 and " + MAX_CAPACITY);
+        }
+        this.name = name;
+        this.sets = Integer.highestOneBit(((capacity + WAYS - 1) / WAYS) * 2 - 1);
+        this.ttlMillis = ttlMillis;
+        this.file = file;
+        this.clock = clock;
+        this.locks = new Object[Math.min(sets, MAX_LOCKS)];
+        for (int i = 0; i < locks.length; i += 1) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public boolean add(final String key) {
+        final long[] hash = hash(key);
+        final int set = setIndex(hash[0]);
+        final long now = clock.getAsLong();
+        synchronized (locks[set % locks.length]) {
+            final int base = setOffset(set);
+            int free = -1;
+            int oldest = base;
+            long oldestExpiry = Long.MAX_VALUE;
+            for (int way = 0; way < WAYS; way += 1) {
+                final int offset = base + way * ENTRY_BYTES;
+                final long hi = table.getLong(offset);
+                final long lo = table.getLong(offset + 8);
+                final long expiry = table.getLong(offset + 16);
+                if (hi == hash[0] && lo == hash[1] && expiry > now) {
+                    hits.increment();
+                    return false;
+                }
+                if (free < 0 && (expiry <= now || (hi == 0 && lo == 0))) {
+                    free = offset;
+                }
+                if (expiry < oldestExpiry) {
+                    oldestExpiry = expiry;
+                    oldest = offset;
+                }
+            }
+            misses.increment();
+            final int target;
+            if (free >= 0) {
+                target = free;
+                if (table.getLong(target) == 0 && table.getLong(target + 8) == 0) {
+                    entries.incrementAndGet();
+                }
+            } else {
+                target = oldest;
+                evictions.increment();
+            }
+            table.putLong(target, hash[0]);
+            table.putLong(target + 8, hash[1]);
+            table.putLong(target + 16, now + ttlMillis);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean contains(final String key) {
+        return find(key, false);
+    }
+
+    @Override
+    public boolean remove(final String key) {
+        return find(key, true);
+    }
+
+    @Override
+    public boolean confirm(final String key) {
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (final Object lock : locks) {
+            synchronized (lock) {
+                for (int set = 0; set < sets; set += 1) {
+                    if (locks[set % locks.length] == lock) {
+                        final int base = setOffset(set);
+                        for (int i = 0; i < SET_BYTES; i += 8) {
+                            table.putLong(base + i, 0L);
+                        }
+                    }
+                }
+            }
+        }
+        entries.set(0);
+    }
+
+    /**
+     * @return the number of keys added that were already present.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of keys added that were not present.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of unexpired keys dropped to make room.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the fraction of adds that found a duplicate.
+     */
+    public double getHitRatio() {
+        final long h = hits.sum();
+        final long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * @return the number of occupied entries, including expired ones not yet overwritten.
+     */
+    public long getEntries() {
+        return entries.get();
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (table == null && file == null) {
+            table = ByteBuffer.allocateDirect(Math.toIntExact((long) sets * SET_BYTES));
+            LOGGER.info("Idempotent repository {} allocated {} bytes of direct memory for {} keys", name,
+                    table.capacity(), sets * WAYS);
+        } else if (table == null) {
+            table = map();
+            LOGGER.info("Idempotent repository {} mapped {} bytes of {} for {} keys, {} entries kept", name,
+                    table.capacity(), file, sets * WAYS, entries.get());
+        }
+        final MeterRegistry registry = Metrics.globalRegistry;
+        meters.add(FunctionCounter.builder("alpaca.idempotent.hits", hits, LongAdder::sum)
+                .description("Duplicate events skipped").tag("repository", name).register(registry));
+        meters.add(FunctionCounter.builder("alpaca.idempotent.misses", misses, LongAdder::sum)
+                .description("New events processed").tag("repository", name).register(registry));
+        meters.add(FunctionCounter.builder("alpaca.idempotent.evictions", evictions, LongAdder::sum)
+                .description("Unexpired keys dropped to make room").tag("repository", name).register(registry));
+        meters.add(Gauge.builder("alpaca.idempotent.hit.ratio", this, OffHeapIdempotentRepository::getHitRatio)
+                .description("Fraction of events that were duplicates").tag("repository", name).register(registry));
+        meters.add(Gauge.builder("alpaca.idempotent.entries", entries, AtomicLong::get)
+                .description("Occupied entries").tag("repository", name).register(registry));
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        meters.forEach(Metrics.globalRegistry::remove);
+        meters.clear();
+        if (table instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) table).force();
+        }
+    }
+
+    /**
+     * Map the table from the file, keeping its entries unless it was written for a different capacity.
+     * @return the mapped table.
+     * @throws IOException
+     *   If the file can't be created or mapped.
+     */
+    private MappedByteBuffer map() throws IOException {
+        final long size = (long) sets * SET_BYTES;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if (channel.size() != size) {
+                if (channel.size() > 0) {
+                    LOGGER.warn("Idempotent repository {} was kept for a different capacity, starting empty", name);
+                }
+                channel.truncate(0);
+            }
+            // The mapping stays valid once the channel is closed.
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            for (int offset = 0; offset < size; offset += ENTRY_BYTES) {
+                if (mapped.getLong(offset) != 0 || mapped.getLong(offset + 8) != 0) {
+                    entries.incrementAndGet();
+                }
+            }
+            return mapped;
+        }
+    }
+
+    /**
+     * Look for an unexpired key, optionally removing it.
+     * @param key
+     *   The key.
+     * @param remove
+     *   Whether to remove the key if found.
+     * @return whether the key was found.
+     */
+    private boolean find(final String key, final boolean remove) {
+        final long[] hash = hash(key);
+        final int set = setIndex(hash[0]);
+        final long now = clock.getAsLong();
+        synchronized (locks[set % locks.length]) {
+            final int base = setOffset(set);
+            for (int way = 0; way < WAYS; way += 1) {
+                final int offset = base + way * ENTRY_BYTES;
+                if (table.getLong(offset) == hash[0] && table.getLong(offset + 8) == hash[1]) {
+                    final boolean live = table.getLong(offset + 16) > now;
+                    if (remove) {
+                        table.putLong(offset, 0L);
+                        table.putLong(offset + 8, 0L);
+                        table.putLong(offset + 16, 0L);
+                        entries.decrementAndGet();
+                    }
+                    return live;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param set
+     *   The set.
+     * @return the offset of the set in the table.
+     */
+    private static int setOffset(final int set) {
+        return Math.toIntExact((long) set * SET_BYTES);
+    }
+
+    private int setIndex(final long hash) {
+        return (int) (hash >>> 32) & (sets - 1);
+    }
+
+    /**
+     * Two FNV-1a hashes with different seeds, each finished with the MurmurHash3 mixer.
+     * @param key
+     *   The key.
+     * @return the high and low 64 bits, never both 0 which marks an empty entry.
+     */
+    static long[] hash(final String key) {
+        long h1 = FNV_OFFSET;
+        long h2 = FNV_OFFSET ^ SECOND_SEED;
+        for (final byte b : key.getBytes(UTF_8)) {
+            h1 = (h1 ^ (b & 0xff)) * FNV_PRIME;
+            h2 = (h2 ^ (b & 0xff)) * FNV_PRIME;
+        }
+        h1 = mix(h1);
+        h2 = mix(h2 ^ h1);
+        if (h1 == 0 && h2 == 0) {
+            h2 = 1;
+        }
+        return new long[]{h1, h2};
+    }
+
+    private static long mix(final long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
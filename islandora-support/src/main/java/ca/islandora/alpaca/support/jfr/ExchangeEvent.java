@@ -0,0 +1,47 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for an exchange, from being taken off the queue until it completes or fails.
+ *
+ * @author agent
+ */
+@Name("ca.islandora.alpaca.Exchange")
+@Label("Exchange")
+@Category("Alpaca")
+@Description("An exchange from being received until it completes or fails")
+@StackTrace(false)
+public class ExchangeEvent extends Event {
+
+    @Label("Route")
+    public String routeId;
+
+    @Label("Exchange Id")
+    public String exchangeId;
+
+    @Label("Failed")
+    public boolean failed;
+}
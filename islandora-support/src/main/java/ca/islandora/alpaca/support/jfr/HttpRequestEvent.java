@@ -0,0 +1,57 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a request to a downstream HTTP service.
+ *
+ * @author agent
+ */
+@Name("ca.islandora.alpaca.HttpRequest")
+@Label("HTTP Request")
+@Category("Alpaca")
+@Description("A request to Drupal, Milliner, the triplestore or a derivative service")
+@StackTrace(false)
+public class HttpRequestEvent extends Event {
+
+    @Label("Route")
+    public String routeId;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Host")
+    public String host;
+
+    @Label("Status")
+    @Description("Response status code, 0 if there was no response")
+    public int status;
+
+    @Label("Response Size")
+    @Description("Response Content-Length or the bytes of a body read into memory, -1 if not known")
+    @DataAmount
+    public long bytes;
+}
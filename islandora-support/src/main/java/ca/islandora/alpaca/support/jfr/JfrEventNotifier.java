@@ -0,0 +1,192 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jfr;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import org.apache.camel.Endpoint;
+import org.apache.camel.Exchange;
+import org.apache.camel.http.base.HttpOperationFailedException;
+import org.apache.camel.spi.CamelEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeCompletedEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeCreatedEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeFailedEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeSendingEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeSentEvent;
+import org.apache.camel.support.EventNotifierSupport;
+import org.apache.camel.support.ExchangeHelper;
+
+/**
+ * Emits flight recorder events for each exchange a route receives and each request sent to an HTTP endpoint.
+ *
+ * Events are only created while a recording with the Alpaca events enabled is running, otherwise a notification only
+ * costs the check of whether the event is enabled.
+ *
+ * @author agent
+ */
+public class JfrEventNotifier extends EventNotifierSupport {
+
+    /**
+     * Exchange property holding the exchange event.
+     */
+    static final String EXCHANGE_EVENT_PROPERTY = "AlpacaJfrExchange";
+
+    /**
+     * Exchange property holding the event of the HTTP request being sent.
+     */
+    static final String HTTP_EVENT_PROPERTY = "AlpacaJfrHttpRequest";
+
+    /**
+     * Basic constructor.
+     */
+    public JfrEventNotifier() {
+        setIgnoreCamelContextEvents(true);
+        setIgnoreRouteEvents(true);
+        setIgnoreServiceEvents(true);
+        setIgnoreExchangeRedeliveryEvents(true);
+        setIgnoreStepEvents(true);
+    }
+
+    @Override
+    public boolean isEnabled(final CamelEvent event) {
+        return event instanceof CamelEvent.ExchangeEvent;
+    }
+
+    @Override
+    public void notify(final CamelEvent event) {
+        final Exchange exchange = ((CamelEvent.ExchangeEvent) event).getExchange();
+        if (event instanceof ExchangeCreatedEvent) {
+            final ExchangeEvent jfr = new ExchangeEvent();
+            if (jfr.isEnabled()) {
+                jfr.begin();
+                exchange.setProperty(EXCHANGE_EVENT_PROPERTY, jfr);
+            }
+        } else if (event instanceof ExchangeCompletedEvent || event instanceof ExchangeFailedEvent) {
+            final ExchangeEvent jfr = exchange.getProperty(EXCHANGE_EVENT_PROPERTY, ExchangeEvent.class);
+            // Exchanges of producer templates have no route.
+            if (jfr != null && exchange.getFromRouteId() != null) {
+                jfr.end();
+                jfr.routeId = exchange.getFromRouteId();
+                jfr.exchangeId = exchange.getExchangeId();
+                jfr.failed = exchange.isFailed();
+                jfr.commit();
+            }
+        } else if (event instanceof ExchangeSendingEvent) {
+            final Endpoint endpoint = ((ExchangeSendingEvent) event).getEndpoint();
+            final String scheme = endpoint.getEndpointKey().split(":", 2)[0];
+            if (scheme.equals("http") || scheme.equals("https")) {
+                final HttpRequestEvent jfr = new HttpRequestEvent();
+                if (jfr.isEnabled()) {
+                    jfr.routeId = exchange.getFromRouteId();
+                    jfr.method = exchange.getIn().getHeader(Exchange.HTTP_METHOD, "GET", String.class);
+                    jfr.host = host(endpoint.getEndpointUri());
+                    jfr.begin();
+                    exchange.setProperty(HTTP_EVENT_PROPERTY, jfr);
+                }
+            }
+        } else if (event instanceof ExchangeSentEvent) {
+            final HttpRequestEvent jfr = exchange.getProperty(HTTP_EVENT_PROPERTY, HttpRequestEvent.class);
+            if (jfr != null) {
+                exchange.removeProperty(HTTP_EVENT_PROPERTY);
+                jfr.end();
+                recordResponse(jfr, exchange);
+                jfr.commit();
+            }
+        }
+    }
+
+    /**
+     * Fill in the status and size of the response.
+     * @param jfr
+     *   The event.
+     * @param exchange
+     *   The exchange after the request was sent.
+     */
+    private static void recordResponse(final HttpRequestEvent jfr, final Exchange exchange) {
+        final HttpOperationFailedException failed = exchange.getException(HttpOperationFailedException.class);
+        if (failed != null) {
+            jfr.status = failed.getStatusCode();
+            final String length = failed.getResponseHeaders() == null ? null :
+                    failed.getResponseHeaders().get(Exchange.CONTENT_LENGTH);
+            if (length != null) {
+                jfr.bytes = parseLength(length);
+            } else {
+                jfr.bytes = failed.getResponseBody() == null ? -1 : encodedLength(failed.getResponseBody(), exchange);
+            }
+            return;
+        }
+        jfr.status = exchange.getMessage().getHeader(Exchange.HTTP_RESPONSE_CODE, 0, Integer.class);
+        final Long length = exchange.getMessage().getHeader(Exchange.CONTENT_LENGTH, Long.class);
+        if (length != null) {
+            jfr.bytes = length;
+        } else {
+            // Only bodies already in memory, a stream would have to be read.
+            final Object body = exchange.getMessage().getBody();
+            if (body instanceof byte[]) {
+                jfr.bytes = ((byte[]) body).length;
+            } else if (body instanceof String) {
+                jfr.bytes = encodedLength((String) body, exchange);
+            } else {
+                jfr.bytes = -1;
+            }
+        }
+    }
+
+    /**
+     * @param length
+     *   A Content-Length header.
+     * @return the length, or -1 if it is not a number.
+     */
+    private static long parseLength(final String length) {
+        try {
+            return Long.parseLong(length.trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param body
+     *   A response body read into a string.
+     * @param exchange
+     *   The exchange, for the charset of the response.
+     * @return the number of bytes of the body in the charset it was read with, or -1 if the charset is not supported.
+     */
+    private static long encodedLength(final String body, final Exchange exchange) {
+        try {
+            return body.getBytes(Charset.forName(ExchangeHelper.getCharsetName(exchange))).length;
+        } catch (final IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param uri
+     *   An endpoint uri.
+     * @return the host and port of the uri, or the uri if it cannot be parsed.
+     */
+    static String host(final String uri) {
+        try {
+            final String authority = URI.create(uri).getRawAuthority();
+            return authority == null ? uri : authority;
+        } catch (final IllegalArgumentException e) {
+            return uri;
+        }
+    }
+}
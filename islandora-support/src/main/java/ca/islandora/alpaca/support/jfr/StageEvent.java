@@ -0,0 +1,70 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jfr;
+
+import org.apache.camel.Exchange;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a stage of processing an exchange, ie. parsing or serializing RDF.
+ *
+ * <pre>
+ * final StageEvent event = StageEvent.start("sparql.parse", exchange);
+ * ...
+ * event.commit();
+ * </pre>
+ *
+ * @author agent
+ */
+@Name("ca.islandora.alpaca.Stage")
+@Label("Processing Stage")
+@Category("Alpaca")
+@Description("A stage of processing an exchange")
+@StackTrace(false)
+public class StageEvent extends Event {
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Route")
+    public String routeId;
+
+    /**
+     * Start timing a stage, the event is only filled in when it is being recorded.
+     * @param stage
+     *   Name of the stage.
+     * @param exchange
+     *   The exchange being processed.
+     * @return the event, to be committed when the stage is done.
+     */
+    public static StageEvent start(final String stage, final Exchange exchange) {
+        final StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage;
+            event.routeId = exchange.getFromRouteId();
+            event.begin();
+        }
+        return event;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jms;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Route;
+import org.apache.camel.component.jms.JmsConsumer;
+import org.apache.camel.component.jms.JmsEndpoint;
+import org.apache.camel.support.service.ServiceSupport;
+import org.slf4j.Logger;
+import org.springframework.jms.listener.AbstractMessageListenerContainer;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Resizes the consumers of each route reading a queue from the depth and rates of the queue on the broker.
+ *
+ * A route with a backlog gets enough consumers to take the messages arriving plus drain the backlog within the drain
+ * time, at the rate each consumer processed messages since the last check. A route with an empty queue gives up one
+ * consumer per check down to what the arriving messages need. The consumers stay between the route's
+ * concurrentConsumers and its maxConcurrentConsumers, or the default maximum if it has none. When there is a consumer
+ * budget the consumers are what the route asks of the budget, and the budget resizes them to its share.
+ *
+ * @author agent
+ */
+public class ConsumerAutoscaler extends ServiceSupport {
+
+    private static final Logger LOGGER = getLogger(ConsumerAutoscaler.class);
+
+    private final CamelContext camelContext;
+
+    private final StatisticsPluginClient statistics;
+
+    private final long intervalMillis;
+
+    private final int defaultMaxConsumers;
+
+    private final long drainMillis;
+
+    private final ConsumerBudget budget;
+
+    private final MeterRegistry registry;
+
+    private final Map<String, RouteState> routes = new ConcurrentHashMap<>();
+
+    private final List<Meter> meters = new ArrayList<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private boolean warnedNoStatistics;
+
+    /**
+     * Basic constructor.
+     * @param camelContext
+     *   The camel context.
+     * @param statistics
+     *   Client of the broker's statistics plugin.
+     * @param intervalMillis
+     *   How often to resize the consumers in milliseconds.
+     * @param defaultMaxConsumers
+     *   Maximum consumers of a route without maxConcurrentConsumers.
+     * @param drainMillis
+     *   How long a backlog should take to drain in milliseconds.
+     * @param budget
+     *   The consumer budget, or null if there is none.
+     */
+    public ConsumerAutoscaler(final CamelContext camelContext, final StatisticsPluginClient statistics,
+                              final long intervalMillis, final int defaultMaxConsumers, final long drainMillis,
+                              final ConsumerBudget budget) {
+        this.camelContext = camelContext;
+        this.statistics = statistics;
+        this.intervalMillis = intervalMillis;
+        this.defaultMaxConsumers = defaultMaxConsumers;
+        this.drainMillis = drainMillis;
+        this.budget = budget != null && budget.isEnabled() ? budget : null;
+        this.registry = Metrics.globalRegistry;
+    }
+
+    /**
+     * The number of consumers a route should have.
+     * @param current
+     *   Consumers the route has.
+     * @param min
+     *   Fewest consumers allowed.
+     * @param max
+     *   Most consumers allowed.
+     * @param previous
+     *   Statistics of the queue at the last check, or null if this is the first.
+     * @param now
+     *   Statistics of the queue now.
+     * @param elapsedMillis
+     *   Milliseconds since the last check.
+     * @param drainMillis
+     *   How long a backlog should take to drain in milliseconds.
+     * @return the number of consumers.
+     */
+    static int target(final int current, final int min, final int max, final QueueStatistics previous,
+                      final QueueStatistics now, final long elapsedMillis, final long drainMillis) {
+        final double seconds = Math.max(1, elapsedMillis) / 1000.0;
+        final double inRate = previous == null ? 0 :
+                Math.max(0, now.getEnqueueCount() - previous.getEnqueueCount()) / seconds;
+        final double outRate = previous == null ? 0 :
+                Math.max(0, now.getDequeueCount() - previous.getDequeueCount()) / seconds;
+        final int wanted;
+        if (outRate > 0) {
+            final double perConsumer = outRate / Math.max(1, current);
+            final double needed = inRate + now.getSize() / (Math.max(1, drainMillis) / 1000.0);
+            wanted = (int) Math.min(Integer.MAX_VALUE, Math.ceil(needed / perConsumer));
+        } else if (now.getSize() > 0) {
+            // A backlog and nothing taken off it yet, how fast a consumer is isn't known.
+            wanted = current * 2;
+        } else {
+            wanted = min;
+        }
+        // Grow at once to drain a backlog, shrink one at a time so a lull doesn't drop the consumers a burst needs.
+        final int next = wanted >= current ? wanted : current - 1;
+        return Math.max(min, Math.min(max, next));
+    }
+
+    /**
+     * Resize the consumers of every route reading a queue.
+     */
+    void scale() {
+        for (final Route route : camelContext.getRoutes()) {
+            if (!(route.getEndpoint() instanceof JmsEndpoint) || !(route.getConsumer() instanceof JmsConsumer)
+                    || ((JmsEndpoint) route.getEndpoint()).isPubSubDomain()
+                    || !camelContext.getRouteController().getRouteStatus(route.getRouteId()).isStarted()) {
+                continue;
+            }
+            try {
+                scale(route);
+            } catch (final JMSException e) {
+                LOGGER.warn("Unable to get queue statistics from the broker: {}", e.getMessage());
+                return;
+            } catch (final Exception e) {
+                LOGGER.warn("Unable to resize the consumers of route {}: {}", route.getRouteId(), e.getMessage());
+            }
+        }
+    }
+
+    private void scale(final Route route) throws Exception {
+        final JmsEndpoint endpoint = (JmsEndpoint) route.getEndpoint();
+        final AbstractMessageListenerContainer listener = ((JmsConsumer) route.getConsumer()).getListenerContainer();
+        if (!(listener instanceof DefaultMessageListenerContainer)) {
+            return;
+        }
+        final DefaultMessageListenerContainer container = (DefaultMessageListenerContainer) listener;
+        final QueueStatistics stats = statistics.get(endpoint.getDestinationName());
+        if (stats == null) {
+            if (!warnedNoStatistics) {
+                LOGGER.warn("No statistics received for queue {}, is the statisticsBrokerPlugin enabled on the " +
+                        "broker?", endpoint.getDestinationName());
+                warnedNoStatistics = true;
+            }
+            return;
+        }
+        final long now = System.nanoTime();
+        final RouteState state = routes.computeIfAbsent(route.getRouteId(), id -> new RouteState(id, endpoint));
+        // With a budget the route may have fewer consumers than it asked for.
+        final int current = budget == null ? container.getConcurrentConsumers() :
+                Math.min(state.consumers, container.getMaxConcurrentConsumers());
+        final int target = target(current, state.min, state.max, state.previous, stats,
+                TimeUnit.NANOSECONDS.toMillis(now - state.previousNanos), drainMillis);
+        if (budget != null) {
+            if (target != state.consumers) {
+                LOGGER.info("Route {} asks for {} consumers, queue {} has {} messages", route.getRouteId(), target,
+                        endpoint.getDestinationName(), stats.getSize());
+            }
+            budget.setDemand(route.getRouteId(), target);
+        } else if (target != current) {
+            LOGGER.info("Resizing consumers of route {} from {} to {}, queue {} has {} messages",
+                    route.getRouteId(), current, target, endpoint.getDestinationName(), stats.getSize());
+            // Lower the minimum first when shrinking, the maximum can't be below it.
+            container.setConcurrentConsumers(target);
+            container.setMaxConcurrentConsumers(target);
+        }
+        state.previous = stats;
+        state.previousNanos = now;
+        state.consumers = target;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        scheduler = camelContext.getExecutorServiceManager().newSingleThreadScheduledExecutor(this,
+                "ConsumerAutoscaler");
+        scheduler.scheduleWithFixedDelay(this::scale, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (scheduler != null) {
+            camelContext.getExecutorServiceManager().shutdown(scheduler);
+            scheduler = null;
+        }
+        statistics.close();
+        synchronized (meters) {
+            meters.forEach(registry::remove);
+            meters.clear();
+        }
+        routes.clear();
+    }
+
+    /**
+     * What was seen of a route's queue at the last check.
+     */
+    private class RouteState {
+        private final int min;
+        private final int max;
+        private QueueStatistics previous;
+        private long previousNanos;
+        private volatile int consumers;
+
+        /**
+         * @param routeId
+         *   The route.
+         * @param endpoint
+         *   The queue it consumes.
+         */
+        RouteState(final String routeId, final JmsEndpoint endpoint) {
+            min = Math.max(1, endpoint.getConcurrentConsumers());
+            max = endpoint.getMaxConcurrentConsumers() > min ? endpoint.getMaxConcurrentConsumers() :
+                    Math.max(min, defaultMaxConsumers);
+            consumers = min;
+            synchronized (meters) {
+                meters.add(Gauge.builder("alpaca.jms.consumers", this, s -> s.consumers)
+                        .description("Consumers of the route's queue").tag("route", routeId).register(registry));
+                meters.add(Gauge.builder("alpaca.jms.queue.size", this,
+                        s -> s.previous == null ? 0 : s.previous.getSize())
+                        .description("Messages waiting on the route's queue").tag("route", routeId)
+                        .register(registry));
+            }
+        }
+    }
+}
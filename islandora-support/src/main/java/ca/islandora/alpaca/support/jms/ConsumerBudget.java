@@ -0,0 +1,265 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jms;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Route;
+import org.apache.camel.component.jms.JmsConsumer;
+import org.apache.camel.component.jms.JmsEndpoint;
+import org.apache.camel.support.service.ServiceSupport;
+import org.slf4j.Logger;
+import org.springframework.jms.listener.AbstractMessageListenerContainer;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Caps the consumers of all routes reading a queue at a budget, shared between the routes by weight.
+ *
+ * Each route is given a share of the budget, weighted max-min fair: every route gets one consumer, then the rest are
+ * handed out one at a time to the route with the fewest for its weight which wants more. A route wants as many
+ * consumers as the autoscaler asked for, or if there is no autoscaler one more than it has exchanges in flight, and
+ * its maxConcurrentConsumers (or the whole budget if it has none) once all its consumers are busy. So an idle route
+ * keeps one consumer and a busy route borrows the rest of the budget until the idle one is busy again.
+ *
+ * @author agent
+ */
+public class ConsumerBudget extends ServiceSupport {
+
+    private static final Logger LOGGER = getLogger(ConsumerBudget.class);
+
+    private final CamelContext camelContext;
+
+    private final int budget;
+
+    private final Map<String, Double> weights;
+
+    private final long intervalMillis;
+
+    private final MeterRegistry registry;
+
+    private final Map<String, Integer> demands = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> shares = new ConcurrentHashMap<>();
+
+    private final List<Meter> meters = new ArrayList<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private boolean warnedOverBudget;
+
+    /**
+     * Basic constructor.
+     * @param camelContext
+     *   The camel context.
+     * @param budget
+     *   Most consumers of all routes together, 0 or less for no budget.
+     * @param weights
+     *   Weight of each queue by name, queues not listed have a weight of 1.
+     * @param intervalMillis
+     *   How often to share out the budget in milliseconds.
+     */
+    public ConsumerBudget(final CamelContext camelContext, final int budget, final Map<String, Double> weights,
+                          final long intervalMillis) {
+        this.camelContext = camelContext;
+        this.budget = budget;
+        this.weights = Map.copyOf(weights);
+        this.intervalMillis = intervalMillis;
+        this.registry = Metrics.globalRegistry;
+    }
+
+    /**
+     * @return whether there is a budget to share.
+     */
+    public boolean isEnabled() {
+        return budget > 0;
+    }
+
+    /**
+     * Set how many consumers a route wants, used instead of its exchanges in flight at the next share out.
+     * @param routeId
+     *   The route.
+     * @param consumers
+     *   The consumers it wants.
+     */
+    public void setDemand(final String routeId, final int consumers) {
+        demands.put(routeId, consumers);
+    }
+
+    /**
+     * Share a budget by weighted max-min fairness. Every route gets one, then the rest go one at a time to the route
+     * with the smallest share for its weight which has less than it wants, the first of these on a tie.
+     * @param budget
+     *   What there is to share.
+     * @param wanted
+     *   What each route wants, at least 1.
+     * @param weights
+     *   Weight of each route, greater than 0.
+     * @return the share of each route.
+     */
+    static int[] allocate(final int budget, final int[] wanted, final double[] weights) {
+        final int[] shares = new int[wanted.length];
+        int remaining = budget;
+        for (int i = 0; i < shares.length; i++) {
+            // A route without a consumer would never take a message.
+            shares[i] = 1;
+            remaining--;
+        }
+        while (remaining > 0) {
+            int next = -1;
+            for (int i = 0; i < shares.length; i++) {
+                if (shares[i] < wanted[i] && (next < 0 || shares[i] / weights[i] < shares[next] / weights[next])) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            shares[next]++;
+            remaining--;
+        }
+        return shares;
+    }
+
+    /**
+     * Share the budget between the routes reading a queue and resize their consumers.
+     * @throws Exception
+     *   If a route's listener container cannot be got.
+     */
+    void share() throws Exception {
+        final List<Route> routes = new ArrayList<>();
+        final List<DefaultMessageListenerContainer> containers = new ArrayList<>();
+        for (final Route route : camelContext.getRoutes()) {
+            if (route.getEndpoint() instanceof JmsEndpoint && route.getConsumer() instanceof JmsConsumer
+                    && !((JmsEndpoint) route.getEndpoint()).isPubSubDomain()) {
+                final AbstractMessageListenerContainer listener =
+                        ((JmsConsumer) route.getConsumer()).getListenerContainer();
+                if (listener instanceof DefaultMessageListenerContainer) {
+                    routes.add(route);
+                    containers.add((DefaultMessageListenerContainer) listener);
+                }
+            }
+        }
+        if (routes.size() > budget && !warnedOverBudget) {
+            LOGGER.warn("{} routes read a queue, more than the budget of {} consumers, each still has one",
+                    routes.size(), budget);
+            warnedOverBudget = true;
+        }
+        final int[] wanted = new int[routes.size()];
+        final double[] routeWeights = new double[routes.size()];
+        for (int i = 0; i < wanted.length; i++) {
+            final Route route = routes.get(i);
+            final JmsEndpoint endpoint = (JmsEndpoint) route.getEndpoint();
+            wanted[i] = Math.max(1, Math.min(maxConsumers(endpoint), wanted(route, containers.get(i))));
+            routeWeights[i] = weights.getOrDefault(endpoint.getDestinationName(), 1.0);
+        }
+        final int[] allocated = allocate(budget, wanted, routeWeights);
+        for (int i = 0; i < allocated.length; i++) {
+            final Route route = routes.get(i);
+            final DefaultMessageListenerContainer container = containers.get(i);
+            final int share = allocated[i];
+            if (container.getMaxConcurrentConsumers() != share) {
+                LOGGER.debug("Route {} wants {} consumers, its share is {}", route.getRouteId(), wanted[i], share);
+                // Lower the minimum first, the maximum can't be below it.
+                container.setConcurrentConsumers(
+                        Math.min(share, ((JmsEndpoint) route.getEndpoint()).getConcurrentConsumers()));
+                container.setMaxConcurrentConsumers(share);
+            }
+            if (shares.put(route.getRouteId(), share) == null) {
+                synchronized (meters) {
+                    meters.add(Gauge.builder("alpaca.jms.consumers.share", shares,
+                            s -> s.getOrDefault(route.getRouteId(), 0))
+                            .description("Consumers of the budget shared to the route")
+                            .tag("route", route.getRouteId()).register(registry));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param route
+     *   The route.
+     * @param container
+     *   Its listener container.
+     * @return the consumers the route wants.
+     */
+    private int wanted(final Route route, final DefaultMessageListenerContainer container) {
+        final Integer demand = demands.get(route.getRouteId());
+        if (demand != null) {
+            return demand;
+        }
+        final int inflight = camelContext.getInflightRepository().size(route.getRouteId());
+        if (inflight >= container.getMaxConcurrentConsumers()) {
+            return Integer.MAX_VALUE;
+        }
+        return inflight + 1;
+    }
+
+    /**
+     * @param endpoint
+     *   The queue a route reads.
+     * @return the most consumers the route may have.
+     */
+    private int maxConsumers(final JmsEndpoint endpoint) {
+        final int max = endpoint.getMaxConcurrentConsumers();
+        return max > 0 ? Math.max(max, endpoint.getConcurrentConsumers()) : budget;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (!isEnabled()) {
+            return;
+        }
+        LOGGER.info("Sharing a budget of {} consumers between the routes reading a queue", budget);
+        scheduler = camelContext.getExecutorServiceManager().newSingleThreadScheduledExecutor(this,
+                "ConsumerBudget");
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                share();
+            } catch (final Exception e) {
+                LOGGER.warn("Unable to share the consumer budget: {}", e.getMessage());
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (scheduler != null) {
+            camelContext.getExecutorServiceManager().shutdown(scheduler);
+            scheduler = null;
+        }
+        synchronized (meters) {
+            meters.forEach(registry::remove);
+            meters.clear();
+        }
+        shares.clear();
+        demands.clear();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jms;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One of the routes consuming a queue's events: the interactive lane, or the bulk lane when bulk events are kept
+ * apart so they don't hold up the interactive ones.
+ *
+ * In QUEUE mode the bulk events are sent to a second queue, named after the queue with .bulk appended. In PRIORITY
+ * mode they share the queue and are told apart by their JMSPriority, which needs the broker to keep the queue's
+ * messages in priority order (prioritizedMessages="true" in its policy entry).
+ *
+ * The lanes can also have a message selector, so the broker only delivers the events the route won't skip. It is
+ * combined with the lanes' priority selector in PRIORITY mode. The events no lane selects can be dropped by
+ * UnselectedEvents.
+ *
+ * @author agent
+ */
+public final class ConsumerLane {
+
+    /**
+     * How bulk events are told apart.
+     */
+    public enum Mode {
+        /**
+         * They aren't, the queue has one lane.
+         */
+        OFF,
+        /**
+         * They are sent to a second queue.
+         */
+        QUEUE,
+        /**
+         * They are sent with a lower JMSPriority.
+         */
+        PRIORITY;
+
+        /**
+         * @param value
+         *   The mode's name, in any case.
+         * @return the mode.
+         */
+        public static Mode of(final String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * A lane's selector in PRIORITY mode, the message selector it was given if any and its priority clause.
+     */
+    private static final Pattern PRIORITY_SELECTOR = Pattern.compile("(?:\\((.*)\\) AND )?JMSPriority (?:>=|<) \\d+");
+
+    private final String endpoint;
+
+    private final boolean bulk;
+
+    /**
+     * Basic constructor.
+     * @param endpoint
+     *   The endpoint the lane consumes.
+     * @param bulk
+     *   Whether it is the bulk lane.
+     */
+    public ConsumerLane(final String endpoint, final boolean bulk) {
+        this.endpoint = endpoint;
+        this.bulk = bulk;
+    }
+
+    /**
+     * The lanes consuming a queue.
+     * @param queueString
+     *   The queue endpoint, ie. broker:queue:islandora-indexing-fcrepo-content.
+     * @param mode
+     *   How bulk events are told apart.
+     * @param priority
+     *   In PRIORITY mode, the lowest JMSPriority of interactive events.
+     * @return the interactive lane, followed by the bulk lane if there is one.
+     */
+    public static List<ConsumerLane> lanes(final String queueString, final Mode mode, final int priority) {
+        return lanes(queueString, mode, priority, null);
+    }
+
+    /**
+     * The lanes consuming a queue.
+     * @param queueString
+     *   The queue endpoint, ie. broker:queue:islandora-indexing-fcrepo-content.
+     * @param mode
+     *   How bulk events are told apart.
+     * @param priority
+     *   In PRIORITY mode, the lowest JMSPriority of interactive events.
+     * @param selector
+     *   The message selector of the events to consume, or null for all of them.
+     * @return the interactive lane, followed by the bulk lane if there is one.
+     */
+    public static List<ConsumerLane> lanes(final String queueString, final Mode mode, final int priority,
+                                           final String selector) {
+        switch (mode) {
+            case QUEUE:
+                final int options = queueString.indexOf('?');
+                final String bulkQueue = options < 0 ? queueString + ".bulk" :
+                        queueString.substring(0, options) + ".bulk" + queueString.substring(options);
+                return List.of(new ConsumerLane(select(queueString, selector), false),
+                        new ConsumerLane(select(bulkQueue, selector), true));
+            case PRIORITY:
+                return List.of(new ConsumerLane(select(queueString, and(selector, "JMSPriority >= " + priority)),
+                                false),
+                        new ConsumerLane(select(queueString, and(selector, "JMSPriority < " + priority)), true));
+            default:
+                return List.of(new ConsumerLane(select(queueString, selector), false));
+        }
+    }
+
+    /**
+     * @return the endpoint the lane consumes.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return whether it is the bulk lane.
+     */
+    public boolean isBulk() {
+        return bulk;
+    }
+
+    /**
+     * @param newEndpoint
+     *   The endpoint, ie. with consumer options added.
+     * @return the lane consuming the endpoint.
+     */
+    public ConsumerLane withEndpoint(final String newEndpoint) {
+        return new ConsumerLane(newEndpoint, bulk);
+    }
+
+    /**
+     * @param routeId
+     *   The id of the queue's route.
+     * @return the id of this lane's route, the route id for the interactive lane.
+     */
+    public String routeId(final String routeId) {
+        return bulk ? routeId + "Bulk" : routeId;
+    }
+
+    /**
+     * The message selector a lane was given, without the priority clause of PRIORITY mode.
+     * @param laneSelector
+     *   The selector of the lane's endpoint, or null.
+     * @return the message selector, or null if the lane consumes all the events of its priority.
+     */
+    public static String selector(final String laneSelector) {
+        if (laneSelector == null || laneSelector.isBlank()) {
+            return null;
+        }
+        final Matcher priority = PRIORITY_SELECTOR.matcher(laneSelector.trim());
+        return priority.matches() ? priority.group(1) : laneSelector.trim();
+    }
+
+    private static String and(final String selector, final String other) {
+        return selector == null || selector.isBlank() ? other : "(" + selector.trim() + ") AND " + other;
+    }
+
+    private static String select(final String queueString, final String selector) {
+        if (selector == null || selector.isBlank()) {
+            return queueString;
+        }
+        return queueString + (queueString.contains("?") ? '&' : '?') + "selector=RAW(" + selector.trim() + ")";
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jms;
+
+/**
+ * Statistics of a queue reported by the broker.
+ *
+ * @author agent
+ */
+public class QueueStatistics {
+
+    private final long size;
+
+    private final long enqueueCount;
+
+    private final long dequeueCount;
+
+    /**
+     * Basic constructor.
+     * @param size
+     *   Messages waiting on the queue.
+     * @param enqueueCount
+     *   Messages sent to the queue since the broker started.
+     * @param dequeueCount
+     *   Messages acknowledged by consumers since the broker started.
+     */
+    public QueueStatistics(final long size, final long enqueueCount, final long dequeueCount) {
+        this.size = size;
+        this.enqueueCount = enqueueCount;
+        this.dequeueCount = dequeueCount;
+    }
+
+    /**
+     * @return messages waiting on the queue.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return messages sent to the queue since the broker started.
+     */
+    public long getEnqueueCount() {
+        return enqueueCount;
+    }
+
+    /**
+     * @return messages acknowledged by consumers since the broker started.
+     */
+    public long getDequeueCount() {
+        return dequeueCount;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jms;
+
+import java.util.UUID;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+
+/**
+ * Requests queue statistics from the ActiveMQ statistics broker plugin.
+ *
+ * The plugin must be enabled in the broker's activemq.xml with &lt;statisticsBrokerPlugin/&gt;. It answers a message
+ * sent to ActiveMQ.Statistics.Destination.&lt;queue&gt; with a map of the queue's statistics.
+ *
+ * @author agent
+ */
+public class StatisticsPluginClient implements AutoCloseable {
+
+    static final String DESTINATION_PREFIX = "ActiveMQ.Statistics.Destination.";
+
+    private final ConnectionFactory connectionFactory;
+
+    private final long timeoutMillis;
+
+    private Connection connection;
+
+    private Session session;
+
+    private TemporaryQueue replies;
+
+    private MessageConsumer consumer;
+
+    /**
+     * Basic constructor.
+     * @param connectionFactory
+     *   Factory of connections to the broker.
+     * @param timeoutMillis
+     *   How long to wait for the statistics in milliseconds.
+     */
+    public StatisticsPluginClient(final ConnectionFactory connectionFactory, final long timeoutMillis) {
+        this.connectionFactory = connectionFactory;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param queue
+     *   Name of the queue.
+     * @return the statistics of the queue, or null if the broker did not answer in time.
+     * @throws JMSException
+     *   If the broker cannot be reached, the connection is closed and opened again by the next request.
+     */
+    public synchronized QueueStatistics get(final String queue) throws JMSException {
+        try {
+            open();
+            final String correlationId = UUID.randomUUID().toString();
+            final MessageProducer producer = session.createProducer(session.createQueue(DESTINATION_PREFIX + queue));
+            try {
+                final Message request = session.createMessage();
+                request.setJMSReplyTo(replies);
+                request.setJMSCorrelationID(correlationId);
+                producer.send(request);
+            } finally {
+                producer.close();
+            }
+            final long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+            while (remaining > 0) {
+                final Message reply = consumer.receive(remaining);
+                // Replies to earlier requests which timed out are skipped.
+                if (reply instanceof MapMessage && correlationId.equals(reply.getJMSCorrelationID())) {
+                    final MapMessage stats = (MapMessage) reply;
+                    return new QueueStatistics(stats.getLong("size"), stats.getLong("enqueueCount"),
+                            stats.getLong("dequeueCount"));
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return null;
+        } catch (final JMSException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void open() throws JMSException {
+        if (connection == null) {
+            connection = connectionFactory.createConnection();
+            connection.start();
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            replies = session.createTemporaryQueue();
+            consumer = session.createConsumer(replies);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (final JMSException e) {
+                // The connection is already broken.
+            }
+            connection = null;
+            session = null;
+            replies = null;
+            consumer = null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jms;
+
+import static org.apache.camel.LoggingLevel.DEBUG;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.ExtendedStartupListener;
+import org.apache.camel.Route;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.jms.JmsEndpoint;
+import org.slf4j.Logger;
+
+/**
+ * Consumes the events of a queue which none of the routes reading it select, so they don't pile up.
+ *
+ * When every route reading a queue has a message selector, the events none of them match stay on the queue. Besides
+ * filling the broker's store, a backlog of them keeps the broker from paging in the events the selectors do match
+ * once it fills the queue's maxPageSize. Once Camel has started, a route is added for each such queue, consuming the
+ * events the routes' selectors don't match and dropping them, as the routes would have skipped them.
+ *
+ * Only the message selectors the routes were configured with are considered, not the priority clauses of their
+ * lanes, which together select every event. The dropped events are lost to any other consumer of the queue, so this
+ * is only added with jms.unselected.drop.
+ *
+ * @author agent
+ */
+public class UnselectedEvents implements ExtendedStartupListener {
+
+    private static final Logger LOGGER = getLogger(UnselectedEvents.class);
+
+    private final CamelContext camelContext;
+
+    /**
+     * Basic constructor.
+     * @param camelContext
+     *   The camel context.
+     */
+    public UnselectedEvents(final CamelContext camelContext) {
+        this.camelContext = camelContext;
+    }
+
+    /**
+     * The selector of the events none of the selectors match. A selector doesn't match an event it is unknown for,
+     * ie. comparing a header the event doesn't have, and neither does its negation, so those are selected too.
+     * @param selectors
+     *   The selectors.
+     * @return the selector of the other events.
+     */
+    static String unselected(final List<String> selectors) {
+        final String any = selectors.stream().map(s -> "(" + s.trim() + ")").collect(Collectors.joining(" OR "));
+        return "NOT (" + any + ") OR (" + any + ") IS NULL";
+    }
+
+    /**
+     * @return the selector of the events no route selects, by the queue endpoint, for the queues only read by routes
+     *   with a selector.
+     */
+    Map<String, String> unselectedQueues() {
+        final Map<String, List<String>> selectors = new LinkedHashMap<>();
+        for (final Route route : camelContext.getRoutes()) {
+            if (!(route.getEndpoint() instanceof JmsEndpoint) || ((JmsEndpoint) route.getEndpoint()).isPubSubDomain()) {
+                continue;
+            }
+            final JmsEndpoint endpoint = (JmsEndpoint) route.getEndpoint();
+            final String uri = endpoint.getEndpointUri();
+            final String queue = uri.contains("?") ? uri.substring(0, uri.indexOf('?')) : uri;
+            final String selector = ConsumerLane.selector(endpoint.getSelector());
+            if (selector == null) {
+                // This route consumes all the queue's events.
+                selectors.put(queue, null);
+            } else if (!selectors.containsKey(queue) || selectors.get(queue) != null) {
+                // The lanes of a route share its selector.
+                final List<String> queueSelectors = selectors.computeIfAbsent(queue, q -> new ArrayList<>());
+                if (!queueSelectors.contains(selector)) {
+                    queueSelectors.add(selector);
+                }
+            }
+        }
+        final Map<String, String> unselected = new LinkedHashMap<>();
+        selectors.forEach((queue, queueSelectors) -> {
+            if (queueSelectors != null) {
+                unselected.put(queue, unselected(queueSelectors));
+            }
+        });
+        return unselected;
+    }
+
+    @Override
+    public void onCamelContextStarted(final CamelContext context, final boolean alreadyStarted) {
+        // The routes are added once they have all started.
+    }
+
+    @Override
+    public void onCamelContextFullyStarted(final CamelContext context, final boolean alreadyStarted)
+            throws Exception {
+        final Map<String, String> unselected = unselectedQueues();
+        if (unselected.isEmpty()) {
+            return;
+        }
+        camelContext.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                unselected.forEach((queue, selector) -> {
+                    LOGGER.info("Dropping the events of {} no route selects", queue);
+                    from(queue + "?selector=RAW(" + selector + ")")
+                        .routeId("AlpacaUnselected-" + queue.substring(queue.lastIndexOf(':') + 1))
+                        .log(DEBUG, LOGGER, "Dropping event ${header.JMSMessageID} of " + queue +
+                            ", no route selects it");
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.memory;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Route;
+import org.apache.camel.StreamCache;
+import org.apache.camel.spi.CamelEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeCompletedEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeCreatedEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeFailedEvent;
+import org.apache.camel.spi.CamelEvent.ExchangeSentEvent;
+import org.apache.camel.support.EventNotifierSupport;
+import org.apache.camel.support.service.ServiceHelper;
+import org.slf4j.Logger;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Suspends the consumers of messages from the broker while memory is short, and resumes them once it is freed.
+ *
+ * Memory pressure is the larger of the heap occupied after the last garbage collection and the size of the message
+ * bodies of the exchanges in flight, as a fraction of the maximum heap. The consumers are suspended when it reaches
+ * the high watermark and resumed when it falls below the low watermark. The in flight bytes are an estimate, bodies
+ * not read into memory are counted by their Content-Length.
+ *
+ * @author agent
+ */
+public class MemoryGovernor extends EventNotifierSupport implements NotificationListener {
+
+    private static final Logger LOGGER = getLogger(MemoryGovernor.class);
+
+    /**
+     * Exchange property holding the bytes counted for the exchange.
+     */
+    static final String BYTES_PROPERTY = "AlpacaMemoryBytes";
+
+    /**
+     * Endpoint schemes which only carry work between Alpaca's own routes.
+     */
+    private static final Set<String> INTERNAL_SCHEMES = Set.of("direct", "seda", "vm");
+
+    private final CamelContext camelContext;
+
+    private final double highWatermark;
+
+    private final double lowWatermark;
+
+    private final long intervalMillis;
+
+    private final long maxHeap;
+
+    private final MeterRegistry registry;
+
+    private final boolean watchGc;
+
+    private final Map<String, AtomicLong> routeBytes = new ConcurrentHashMap<>();
+
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private final Set<String> heapPools;
+
+    private final List<Meter> meters = new ArrayList<>();
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+    private final Set<String> suspended = ConcurrentHashMap.newKeySet();
+
+    private volatile double heapAfterGc;
+
+    private volatile long lastGcNanos = System.nanoTime();
+
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * Basic constructor.
+     * @param camelContext
+     *   The camel context.
+     * @param highWatermark
+     *   Fraction of the maximum heap at which the consumers are suspended.
+     * @param lowWatermark
+     *   Fraction of the maximum heap below which they are resumed.
+     * @param intervalMillis
+     *   How often to check whether the consumers can be resumed, in milliseconds.
+     */
+    public MemoryGovernor(final CamelContext camelContext, final double highWatermark, final double lowWatermark,
+                          final long intervalMillis) {
+        this(camelContext, highWatermark, lowWatermark, intervalMillis, Runtime.getRuntime().maxMemory(),
+                Metrics.globalRegistry, true);
+    }
+
+    /**
+     * Constructor.
+     * @param camelContext
+     *   The camel context.
+     * @param highWatermark
+     *   Fraction of the maximum heap at which the consumers are suspended.
+     * @param lowWatermark
+     *   Fraction of the maximum heap below which they are resumed.
+     * @param intervalMillis
+     *   How often to check whether the consumers can be resumed, in milliseconds.
+     * @param maxHeap
+     *   The maximum heap in bytes.
+     * @param registry
+     *   The registry for the gauges.
+     * @param watchGc
+     *   Whether to listen for the heap occupied after each garbage collection.
+     */
+    MemoryGovernor(final CamelContext camelContext, final double highWatermark, final double lowWatermark,
+                   final long intervalMillis, final long maxHeap, final MeterRegistry registry,
+                   final boolean watchGc) {
+        if (lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("The low watermark " + lowWatermark +
+                    " must not be above the high watermark " + highWatermark);
+        }
+        this.camelContext = camelContext;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.intervalMillis = intervalMillis;
+        this.maxHeap = maxHeap;
+        this.registry = registry;
+        this.watchGc = watchGc;
+        this.heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP).map(MemoryPoolMXBean::getName)
+                .collect(Collectors.toSet());
+        setIgnoreCamelContextEvents(true);
+        setIgnoreRouteEvents(true);
+        setIgnoreServiceEvents(true);
+        setIgnoreExchangeRedeliveryEvents(true);
+        setIgnoreStepEvents(true);
+    }
+
+    @Override
+    public boolean isEnabled(final CamelEvent event) {
+        // Sending events are not used, but sent events are only emitted when the sending event was.
+        return event instanceof CamelEvent.ExchangeEvent;
+    }
+
+    @Override
+    public void notify(final CamelEvent event) {
+        final Exchange exchange = ((CamelEvent.ExchangeEvent) event).getExchange();
+        if (event instanceof ExchangeCreatedEvent || event instanceof ExchangeSentEvent) {
+            count(exchange);
+        } else if (event instanceof ExchangeCompletedEvent || event instanceof ExchangeFailedEvent) {
+            final BodyBytes counted = exchange.getProperty(BYTES_PROPERTY, BodyBytes.class);
+            // Copies made by a multicast or seda share the property until they count their own body.
+            if (counted != null && counted.exchangeId.equals(exchange.getExchangeId()) && !counted.released) {
+                // Kept on the exchange, a producer template sends its sent event after the completed one.
+                counted.released = true;
+                add(counted.routeId, -counted.bytes);
+            }
+        }
+    }
+
+    /**
+     * Count the size of the current body of an exchange in place of the one counted before.
+     * @param exchange
+     *   The exchange.
+     */
+    private void count(final Exchange exchange) {
+        final String routeId = exchange.getFromRouteId();
+        if (routeId == null) {
+            return;
+        }
+        final long bytes = bodyBytes(exchange);
+        BodyBytes counted = exchange.getProperty(BYTES_PROPERTY, BodyBytes.class);
+        if (counted != null && counted.released && counted.exchangeId.equals(exchange.getExchangeId())) {
+            return;
+        }
+        if (counted == null || !counted.exchangeId.equals(exchange.getExchangeId())) {
+            if (bytes == 0) {
+                return;
+            }
+            counted = new BodyBytes(exchange.getExchangeId(), routeId);
+            exchange.setProperty(BYTES_PROPERTY, counted);
+        }
+        final long previous = counted.bytes;
+        counted.bytes = bytes;
+        add(routeId, bytes - previous);
+    }
+
+    /**
+     * @param routeId
+     *   The route.
+     * @param delta
+     *   Change in the bytes in flight.
+     */
+    private void add(final String routeId, final long delta) {
+        if (delta == 0) {
+            return;
+        }
+        routeBytes.computeIfAbsent(routeId, this::register).addAndGet(delta);
+        final ScheduledExecutorService checker = scheduler;
+        if (totalBytes.addAndGet(delta) >= highWatermark * maxHeap && suspended.isEmpty() && checker != null) {
+            // Checked on the scheduler so exchanges don't suspend their own consumer.
+            checker.execute(this::check);
+        }
+    }
+
+    /**
+     * @param exchange
+     *   The exchange.
+     * @return the estimated size of its message body.
+     */
+    static long bodyBytes(final Exchange exchange) {
+        final Object body = exchange.getMessage().getBody();
+        if (body == null) {
+            return 0;
+        } else if (body instanceof byte[]) {
+            return ((byte[]) body).length;
+        } else if (body instanceof String) {
+            return ((String) body).length();
+        } else if (body instanceof StreamCache) {
+            return Math.max(0, ((StreamCache) body).length());
+        }
+        final Long length = exchange.getMessage().getHeader(Exchange.CONTENT_LENGTH, Long.class);
+        return length == null ? 0 : Math.max(0, length);
+    }
+
+    @Override
+    public void handleNotification(final Notification notification, final Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            return;
+        }
+        final GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long used = 0;
+        for (final Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+            if (heapPools.contains(pool.getKey())) {
+                used += pool.getValue().getUsed();
+            }
+        }
+        afterGc(used);
+    }
+
+    /**
+     * Record the heap occupied after a garbage collection.
+     * @param used
+     *   Bytes of heap used after the collection.
+     */
+    void afterGc(final long used) {
+        heapAfterGc = (double) used / maxHeap;
+        lastGcNanos = System.nanoTime();
+        check();
+    }
+
+    /**
+     * Suspend or resume the consumers if a watermark has been crossed.
+     */
+    synchronized void check() {
+        if (!isRunAllowed()) {
+            return;
+        }
+        final double pressure = getPressure();
+        if (suspended.isEmpty() && pressure >= highWatermark) {
+            LOGGER.warn("Memory pressure {} is above the high watermark {}, suspending consumers ({} bytes in flight," +
+                    " heap after GC {})", format(pressure), highWatermark, totalBytes.get(), format(heapAfterGc));
+            for (final Route route : camelContext.getRoutes()) {
+                if (!INTERNAL_SCHEMES.contains(route.getEndpoint().getEndpointUri().split(":", 2)[0])
+                        && ServiceHelper.isStarted(route.getConsumer())) {
+                    suspend(route);
+                }
+            }
+        } else if (!suspended.isEmpty() && (pressure < lowWatermark || watchGc && currentHeap() < lowWatermark)) {
+            LOGGER.info("Memory pressure {} is below the low watermark {}, resuming consumers", format(pressure),
+                    lowWatermark);
+            for (final String routeId : suspended) {
+                resume(routeId);
+            }
+            suspended.clear();
+        } else if (!suspended.isEmpty() && totalBytes.get() <= 0
+                && System.nanoTime() - lastGcNanos > TimeUnit.MILLISECONDS.toNanos(intervalMillis * 10)) {
+            // Nothing is being processed so nothing allocates and no collection will update the heap after GC. The
+            // exchanges it was measured with are gone, so resume and let the next collection suspend them again.
+            LOGGER.info("No garbage collection for {} ms with nothing in flight, resuming consumers",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastGcNanos));
+            heapAfterGc = 0;
+            for (final String routeId : suspended) {
+                resume(routeId);
+            }
+            suspended.clear();
+        }
+    }
+
+    private void suspend(final Route route) {
+        try {
+            ServiceHelper.suspendService(route.getConsumer());
+            suspended.add(route.getRouteId());
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Unable to suspend the consumer of route {}: {}", route.getRouteId(), e.getMessage());
+        }
+    }
+
+    private void resume(final String routeId) {
+        final Route route = camelContext.getRoute(routeId);
+        // The route may have been stopped or suspended as the context shuts down.
+        if (route == null || !camelContext.getRouteController().getRouteStatus(routeId).isStarted()) {
+            return;
+        }
+        try {
+            ServiceHelper.resumeService(route.getConsumer());
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Unable to resume the consumer of route {}: {}", routeId, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the larger of the heap occupied after the last GC and the bytes in flight, as a fraction of the heap.
+     */
+    public double getPressure() {
+        return Math.max(heapAfterGc, (double) totalBytes.get() / maxHeap);
+    }
+
+    /**
+     * @return the fraction of the heap occupied after the last garbage collection.
+     */
+    public double getHeapAfterGc() {
+        return heapAfterGc;
+    }
+
+    /**
+     * @return the bytes of the message bodies in flight.
+     */
+    public long getInflightBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * @return whether the consumers are suspended.
+     */
+    public boolean isSuspended() {
+        return !suspended.isEmpty();
+    }
+
+    /**
+     * @return the fraction of the heap in use now, including garbage, it can only be above the occupancy after GC.
+     */
+    private double currentHeap() {
+        return (double) ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / maxHeap;
+    }
+
+    private static String format(final double fraction) {
+        return String.format("%.2f", fraction);
+    }
+
+    /**
+     * @param routeId
+     *   A route.
+     * @return the counter of bytes in flight for the route, with its gauge.
+     */
+    private AtomicLong register(final String routeId) {
+        final AtomicLong bytes = new AtomicLong();
+        synchronized (meters) {
+            meters.add(Gauge.builder("alpaca.memory.inflight.bytes", bytes, AtomicLong::get)
+                    .description("Estimated bytes of the message bodies in flight").baseUnit("bytes")
+                    .tag("route", routeId).register(registry));
+        }
+        return bytes;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        scheduler = camelContext.getExecutorServiceManager().newSingleThreadScheduledExecutor(this, "MemoryGovernor");
+        scheduler.scheduleWithFixedDelay(this::check, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (watchGc && gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+                emitters.add((NotificationEmitter) gc);
+            }
+        }
+        synchronized (meters) {
+            meters.add(Gauge.builder("alpaca.memory.heap.after.gc", this, MemoryGovernor::getHeapAfterGc)
+                    .description("Fraction of the heap occupied after the last garbage collection")
+                    .register(registry));
+            meters.add(Gauge.builder("alpaca.memory.suspended", this, g -> g.isSuspended() ? 1 : 0)
+                    .description("Whether the consumers are suspended for lack of memory").register(registry));
+        }
+        LOGGER.debug("Memory governor started, suspending consumers at {} and resuming them below {} of {} bytes",
+                highWatermark, lowWatermark, maxHeap);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        for (final NotificationEmitter emitter : emitters) {
+            emitter.removeNotificationListener(this);
+        }
+        emitters.clear();
+        final ScheduledExecutorService checker = scheduler;
+        scheduler = null;
+        if (checker != null) {
+            camelContext.getExecutorServiceManager().shutdown(checker);
+        }
+        synchronized (meters) {
+            meters.forEach(registry::remove);
+            meters.clear();
+        }
+    }
+
+    /**
+     * The body bytes counted for an exchange.
+     */
+    private static class BodyBytes {
+        private final String exchangeId;
+        private final String routeId;
+        private long bytes;
+        private boolean released;
+
+        BodyBytes(final String exchangeId, final String routeId) {
+            this.exchangeId = exchangeId;
+            this.routeId = routeId;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.timing;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ExtendedExchange;
+import org.apache.camel.Processor;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.slf4j.Logger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+
+import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.event.AS2EventExpressions;
+
+/**
+ * Times the stages of processing each exchange of a route.
+ *
+ * The start processor begins the timings when a message is received and the stage processors mark the end of each
+ * stage. When the exchange completes the time of each stage it reached is recorded in the alpaca.exchange.stage timer,
+ * tagged with the route and stage, and an exchange taking longer than the slow threshold is logged.
+ *
+ * Each successful write also records the freshness lag, the time from when the broker accepted the message, and from
+ * when the event was published if it says, until the write. The age of the oldest message each route is processing
+ * is the alpaca.freshness.inflight.age gauge, messages still waiting on a queue are not included.
+ *
+ * @author agent
+ */
+public class ExchangeTimer {
+
+    /**
+     * Exchange property holding the timings.
+     */
+    public static final String TIMINGS_PROPERTY = "AlpacaTimings";
+
+    /**
+     * Header holding the time the broker accepted the message.
+     */
+    static final String JMS_TIMESTAMP = "JMSTimestamp";
+
+    private static final Logger LOGGER = getLogger(ExchangeTimer.class);
+
+    private final boolean enabled;
+
+    private final long slowNanos;
+
+    private final MeterRegistry registry;
+
+    private final LongSupplier nanoClock;
+
+    private final LongSupplier millisClock;
+
+    private final Map<String, RouteMeters> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Basic constructor, records to the global registry.
+     * @param enabled
+     *   Whether to time exchanges, otherwise the processors do nothing.
+     * @param slowMillis
+     *   Exchanges taking at least this many milliseconds are logged, negative to log none.
+     */
+    public ExchangeTimer(final boolean enabled, final long slowMillis) {
+        this(enabled, slowMillis, Metrics.globalRegistry, System::nanoTime, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor.
+     * @param enabled
+     *   Whether to time exchanges, otherwise the processors do nothing.
+     * @param slowMillis
+     *   Exchanges taking at least this many milliseconds are logged, negative to log none.
+     * @param registry
+     *   The registry to record the timers in.
+     * @param nanoClock
+     *   Source of System.nanoTime().
+     * @param millisClock
+     *   Source of System.currentTimeMillis(), compared to the JMSTimestamp.
+     */
+    public ExchangeTimer(final boolean enabled, final long slowMillis, final MeterRegistry registry,
+                         final LongSupplier nanoClock, final LongSupplier millisClock) {
+        this.enabled = enabled;
+        this.slowNanos = slowMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(slowMillis);
+        this.registry = registry;
+        this.nanoClock = nanoClock;
+        this.millisClock = millisClock;
+    }
+
+    /**
+     * @return processor starting the timings, it must be the first step of the route.
+     */
+    public Processor start() {
+        if (!enabled) {
+            return exchange -> { };
+        }
+        return this::start;
+    }
+
+    /**
+     * @param stage
+     *   The stage ending.
+     * @return processor marking the end of a stage.
+     */
+    public Processor stage(final Stage stage) {
+        return exchange -> {
+            final ExchangeTimings timings = exchange.getProperty(TIMINGS_PROPERTY, ExchangeTimings.class);
+            if (timings != null) {
+                timings.mark(stage, nanoClock.getAsLong());
+                if (stage == Stage.WRITE) {
+                    recordFreshness(timings, exchange);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return processor handing the timings to the routes continuing the processing, which report them instead.
+     */
+    public Processor handOff() {
+        return exchange -> {
+            final ExchangeTimings timings = exchange.getProperty(TIMINGS_PROPERTY, ExchangeTimings.class);
+            if (timings != null) {
+                timings.handOff();
+            }
+        };
+    }
+
+    /**
+     * @return processor continuing the timings handed off by another route.
+     */
+    public Processor resume() {
+        return exchange -> {
+            final ExchangeTimings timings = exchange.getProperty(TIMINGS_PROPERTY, ExchangeTimings.class);
+            if (timings != null) {
+                track(exchange, timings.resume(exchange.getFromRouteId()));
+            }
+        };
+    }
+
+    /**
+     * Start the timings of an exchange.
+     * @param exchange
+     *   The exchange received.
+     */
+    private void start(final Exchange exchange) {
+        if (exchange.getProperty(TIMINGS_PROPERTY) != null) {
+            return;
+        }
+        final long now = nanoClock.getAsLong();
+        final Long sent = exchange.getIn().getHeader(JMS_TIMESTAMP, Long.class);
+        track(exchange, new ExchangeTimings(exchange.getFromRouteId(), sent == null ? -1 : sent,
+                millisClock.getAsLong(), now));
+    }
+
+    /**
+     * Keep the timings on the exchange and report them when it completes.
+     * @param exchange
+     *   The exchange.
+     * @param timings
+     *   Its timings.
+     */
+    private void track(final Exchange exchange, final ExchangeTimings timings) {
+        final RouteMeters meters = meters(timings.getRouteId());
+        exchange.setProperty(TIMINGS_PROPERTY, timings);
+        meters.inFlight.add(timings);
+        exchange.adapt(ExtendedExchange.class).addOnCompletion(new SynchronizationAdapter() {
+            @Override
+            public void onDone(final Exchange completed) {
+                meters.inFlight.remove(timings);
+                report(timings, completed);
+            }
+        });
+    }
+
+    /**
+     * Record the time from when the message was sent until it was written downstream.
+     * @param timings
+     *   The timings of the exchange.
+     * @param exchange
+     *   The exchange just written.
+     */
+    private void recordFreshness(final ExchangeTimings timings, final Exchange exchange) {
+        final RouteMeters meters = meters(timings.getRouteId());
+        final long now = millisClock.getAsLong();
+        if (timings.getBrokerMillis() > 0) {
+            meters.brokerLag.record(Math.max(0, now - timings.getBrokerMillis()), TimeUnit.MILLISECONDS);
+        }
+        final long published = publishedMillis(exchange);
+        if (published > 0) {
+            meters.publishedLag.record(Math.max(0, now - published), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param exchange
+     *   The exchange.
+     * @return when its event was published in epoch milliseconds, or -1 if it was not parsed or does not say.
+     */
+    private static long publishedMillis(final Exchange exchange) {
+        final AS2Event event = exchange.getProperty(AS2EventExpressions.EVENT_PROPERTY, AS2Event.class);
+        if (event == null || event.getPublished() == null) {
+            return -1;
+        }
+        try {
+            return OffsetDateTime.parse(event.getPublished()).toInstant().toEpochMilli();
+        } catch (final DateTimeParseException e) {
+            LOGGER.debug("Ignoring published time \"{}\" which is not an ISO 8601 date time", event.getPublished());
+            return -1;
+        }
+    }
+
+    /**
+     * Record the timings of a completed exchange.
+     * @param timings
+     *   The timings.
+     * @param exchange
+     *   The completed exchange.
+     */
+    void report(final ExchangeTimings timings, final Exchange exchange) {
+        if (timings.isHandedOff()) {
+            return;
+        }
+        timings.finish(nanoClock.getAsLong());
+        final Timer[] timers = meters(timings.getRouteId()).stages;
+        for (final Stage stage : Stage.values()) {
+            final long nanos = timings.getNanos(stage);
+            if (nanos >= 0) {
+                timers[stage.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (slowNanos >= 0 && timings.getNanos(Stage.TOTAL) >= slowNanos && LOGGER.isWarnEnabled()) {
+            final StringBuilder stages = new StringBuilder();
+            for (final Stage stage : Stage.values()) {
+                final long nanos = timings.getNanos(stage);
+                if (nanos >= 0) {
+                    stages.append(' ').append(stage.getLabel()).append('=')
+                            .append(TimeUnit.NANOSECONDS.toMillis(nanos)).append("ms");
+                }
+            }
+            LOGGER.warn("Slow exchange route={} exchangeId={} failed={}{}", timings.getRouteId(),
+                    exchange.getExchangeId(), exchange.isFailed(), stages);
+        }
+    }
+
+    /**
+     * @param routeId
+     *   A route.
+     * @return the meters of the route.
+     */
+    private RouteMeters meters(final String routeId) {
+        return routes.computeIfAbsent(routeId, RouteMeters::new);
+    }
+
+    /**
+     * The meters of a route and the messages it is processing.
+     */
+    private class RouteMeters {
+
+        private final Timer[] stages = new Timer[Stage.values().length];
+
+        private final Timer brokerLag;
+
+        private final Timer publishedLag;
+
+        private final Set<ExchangeTimings> inFlight = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Register the meters of a route.
+         * @param routeId
+         *   The route.
+         */
+        RouteMeters(final String routeId) {
+            for (final Stage stage : Stage.values()) {
+                stages[stage.ordinal()] = Timer.builder("alpaca.exchange.stage")
+                        .description("Time exchanges spent in each stage of processing")
+                        .tag("route", routeId)
+                        .tag("stage", stage.getLabel())
+                        .publishPercentiles(0.5, 0.95, 0.99)
+                        .register(registry);
+            }
+            brokerLag = lag(routeId, "broker");
+            publishedLag = lag(routeId, "published");
+            TimeGauge.builder("alpaca.freshness.inflight.age", this, TimeUnit.MILLISECONDS, RouteMeters::oldestAge)
+                    .description("Age of the oldest message being processed, not counting those waiting on the queue")
+                    .tag("route", routeId)
+                    .register(registry);
+        }
+
+        /**
+         * @param routeId
+         *   The route.
+         * @param from
+         *   What the lag is measured from.
+         * @return the freshness lag timer.
+         */
+        private Timer lag(final String routeId, final String from) {
+            return Timer.builder("alpaca.freshness.lag")
+                    .description("Time from sending an event until it was written downstream")
+                    .tag("route", routeId)
+                    .tag("from", from)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(registry);
+        }
+
+        /**
+         * @return milliseconds since the oldest message being processed was sent, or 0 if there are none.
+         */
+        private double oldestAge() {
+            long oldest = Long.MAX_VALUE;
+            for (final ExchangeTimings timings : inFlight) {
+                oldest = Math.min(oldest, timings.getOriginMillis());
+            }
+            return oldest == Long.MAX_VALUE ? 0 : Math.max(0, millisClock.getAsLong() - oldest);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.timing;
+
+import java.util.Arrays;
+
+/**
+ * The time an exchange spent in each stage, kept on the exchange while it is processed.
+ *
+ * Each mark adds the time since the previous mark to a stage, so the stages add up to the total apart from the steps
+ * which are not marked. The queue wait is measured separately, it is not part of the total.
+ *
+ * @author agent
+ */
+public class ExchangeTimings {
+
+    private static final int STAGES = Stage.values().length;
+
+    private final String routeId;
+
+    private final long brokerMillis;
+
+    private final long receivedMillis;
+
+    private final long startNanos;
+
+    private final long[] nanos;
+
+    private long lastMarkNanos;
+
+    private boolean handedOff;
+
+    /**
+     * Basic constructor.
+     * @param routeId
+     *   The route receiving the exchange.
+     * @param brokerMillis
+     *   When the broker accepted the message in epoch milliseconds, or a negative number if unknown.
+     * @param receivedMillis
+     *   When the message was received in epoch milliseconds.
+     * @param startNanos
+     *   System.nanoTime() when the message was received.
+     */
+    public ExchangeTimings(final String routeId, final long brokerMillis, final long receivedMillis,
+                           final long startNanos) {
+        this.routeId = routeId;
+        this.brokerMillis = brokerMillis > 0 ? brokerMillis : -1;
+        this.receivedMillis = receivedMillis;
+        this.startNanos = startNanos;
+        this.lastMarkNanos = startNanos;
+        this.nanos = new long[STAGES];
+        Arrays.fill(nanos, -1);
+        if (this.brokerMillis > 0) {
+            // The broker and Alpaca clocks may differ slightly.
+            nanos[Stage.QUEUE.ordinal()] = Math.max(0, receivedMillis - brokerMillis) * 1_000_000;
+        }
+    }
+
+    /**
+     * Copy the timings so far for another route continuing the processing.
+     * @param other
+     *   The timings handed off.
+     * @param routeId
+     *   The route continuing the processing.
+     */
+    private ExchangeTimings(final ExchangeTimings other, final String routeId) {
+        this.routeId = routeId;
+        this.brokerMillis = other.brokerMillis;
+        this.receivedMillis = other.receivedMillis;
+        this.startNanos = other.startNanos;
+        this.lastMarkNanos = other.lastMarkNanos;
+        this.nanos = other.nanos.clone();
+    }
+
+    /**
+     * Add the time since the previous mark to a stage.
+     * @param stage
+     *   The stage which just finished.
+     * @param now
+     *   System.nanoTime().
+     */
+    public void mark(final Stage stage, final long now) {
+        final int i = stage.ordinal();
+        nanos[i] = Math.max(nanos[i], 0) + now - lastMarkNanos;
+        lastMarkNanos = now;
+    }
+
+    /**
+     * Set the total time.
+     * @param now
+     *   System.nanoTime() when the exchange completed.
+     */
+    public void finish(final long now) {
+        nanos[Stage.TOTAL.ordinal()] = now - startNanos;
+    }
+
+    /**
+     * Mark these timings as handed off to other routes, which report them instead of this exchange.
+     */
+    public void handOff() {
+        handedOff = true;
+    }
+
+    /**
+     * @return whether the timings were handed off to other routes.
+     */
+    public boolean isHandedOff() {
+        return handedOff;
+    }
+
+    /**
+     * @param routeId
+     *   The route continuing the processing.
+     * @return a copy of the timings so far for the route.
+     */
+    public ExchangeTimings resume(final String routeId) {
+        return new ExchangeTimings(this, routeId);
+    }
+
+    /**
+     * @return the route the timings are reported for.
+     */
+    public String getRouteId() {
+        return routeId;
+    }
+
+    /**
+     * @return when the broker accepted the message in epoch milliseconds, or -1 if unknown.
+     */
+    public long getBrokerMillis() {
+        return brokerMillis;
+    }
+
+    /**
+     * @return when the message was received in epoch milliseconds.
+     */
+    public long getReceivedMillis() {
+        return receivedMillis;
+    }
+
+    /**
+     * @return when the broker accepted the message, or when it was received if that is unknown.
+     */
+    public long getOriginMillis() {
+        return brokerMillis > 0 ? brokerMillis : receivedMillis;
+    }
+
+    /**
+     * @param stage
+     *   The stage.
+     * @return the nanoseconds spent in the stage, or -1 if the exchange did not reach it.
+     */
+    public long getNanos(final Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+}
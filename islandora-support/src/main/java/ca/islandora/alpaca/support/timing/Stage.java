@@ -0,0 +1,69 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.timing;
+
+/**
+ * The stages of processing an exchange which are timed.
+ *
+ * @author agent
+ */
+public enum Stage {
+
+    /**
+     * Waiting on the broker, from the JMSTimestamp of the message until it was received.
+     */
+    QUEUE("queue"),
+
+    /**
+     * Parsing the event.
+     */
+    PARSE("parse"),
+
+    /**
+     * Requesting a resource, ie. the JSON-LD of a node or a derivative from a service.
+     */
+    FETCH("fetch"),
+
+    /**
+     * Converting the fetched resource, ie. JSON-LD to a SPARQL update.
+     */
+    CONVERT("convert"),
+
+    /**
+     * Sending the result downstream.
+     */
+    WRITE("write"),
+
+    /**
+     * Processing the whole exchange, from when it was received until it completed.
+     */
+    TOTAL("total");
+
+    private final String label;
+
+    Stage(final String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return the name of the stage used in metrics and logs.
+     */
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import org.junit.Test;
+
+import ca.islandora.alpaca.support.jms.ConsumerLane;
+
+/**
+ * Tests the message selectors of the routes' lanes.
+ *
+ * @author agent
+ */
+public class PropertyConfigTest {
+
+    @Test
+    public void testMessageSelector() {
+        assertEquals("islandoraHasFile = 'true'",
+                PropertyConfig.messageSelector("test.selector", " islandoraHasFile = 'true' "));
+        assertNull(PropertyConfig.messageSelector("test.selector", " "));
+        assertNull(PropertyConfig.messageSelector("test.selector", null));
+    }
+
+    @Test
+    public void testInvalidMessageSelector() {
+        assertNull(PropertyConfig.messageSelector("test.selector", "islandoraHasFile = "));
+        assertNull(PropertyConfig.messageSelector("test.selector", "islandoraHasFile == 'true'"));
+    }
+
+    @Test
+    public void testSelectorWithPriority() {
+        final List<ConsumerLane> lanes = PropertyConfig.consumerLanes("broker:queue:index", "test.bulk.mode",
+                "priority", 5, PropertyConfig.messageSelector("test.selector", "islandoraHasFile = 'true'"),
+                UnaryOperator.identity(), UnaryOperator.identity());
+        assertEquals("broker:queue:index?selector=RAW((islandoraHasFile = 'true') AND JMSPriority >= 5)",
+                lanes.get(0).getEndpoint());
+        assertEquals("broker:queue:index?selector=RAW((islandoraHasFile = 'true') AND JMSPriority < 5)",
+                lanes.get(1).getEndpoint());
+
+        // An invalid selector leaves only the priority.
+        final List<ConsumerLane> invalid = PropertyConfig.consumerLanes("broker:queue:index", "test.bulk.mode",
+                "priority", 5, PropertyConfig.messageSelector("test.selector", "islandoraHasFile ="),
+                UnaryOperator.identity(), UnaryOperator.identity());
+        assertEquals("broker:queue:index?selector=RAW(JMSPriority >= 5)", invalid.get(0).getEndpoint());
+        assertEquals("broker:queue:index?selector=RAW(JMSPriority < 5)", invalid.get(1).getEndpoint());
+    }
+}
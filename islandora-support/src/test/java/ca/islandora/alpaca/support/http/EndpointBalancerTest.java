@@ -0,0 +1,201 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ConnectException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.http.base.HttpOperationFailedException;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests balancing requests between the instances of a service.
+ *
+ * @author agent
+ */
+public class EndpointBalancerTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    public void testPrefersFewerOutstanding() {
+        final EndpointBalancer balancer = balancer("http://a/convert", "http://b/convert");
+        final EndpointBalancer.Endpoint a = balancer.getEndpoints().get(0);
+        final EndpointBalancer.Endpoint b = balancer.getEndpoints().get(1);
+        balancer.started(a);
+        for (int i = 0; i < 20; i++) {
+            assertSame(b, balancer.choose());
+        }
+        balancer.started(b);
+        balancer.started(b);
+        assertSame(a, balancer.choose());
+        assertEquals(1, registry.get("alpaca.service.outstanding").tag("endpoint", "http://a/convert").gauge()
+                .value(), 0);
+    }
+
+    @Test
+    public void testFasterOnTie() {
+        final EndpointBalancer balancer = balancer("http://a/convert", "http://b/convert");
+        final EndpointBalancer.Endpoint a = balancer.getEndpoints().get(0);
+        final EndpointBalancer.Endpoint b = balancer.getEndpoints().get(1);
+        request(balancer, a, 500, true);
+        request(balancer, b, 50, true);
+        for (int i = 0; i < 20; i++) {
+            assertSame(b, balancer.choose());
+        }
+        assertEquals(1, registry.get("alpaca.service.requests").tag("endpoint", "http://a/convert")
+                .tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    public void testEjectAndReturn() {
+        final EndpointBalancer balancer = balancer("http://a/convert", "http://b/convert");
+        final EndpointBalancer.Endpoint a = balancer.getEndpoints().get(0);
+        final EndpointBalancer.Endpoint b = balancer.getEndpoints().get(1);
+        request(balancer, a, 10, false);
+        request(balancer, a, 10, false);
+        request(balancer, a, 10, false);
+        for (int i = 0; i < 20; i++) {
+            assertSame(b, balancer.choose());
+        }
+        assertEquals(1, registry.get("alpaca.service.ejected").tag("endpoint", "http://a/convert").gauge().value(),
+                0);
+
+        // Back after the eject time, but out again at its next failure.
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        assertFalse(a.isEjected(clock.get()));
+        request(balancer, a, 10, false);
+        assertTrue(a.isEjected(clock.get()));
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        request(balancer, a, 10, true);
+        request(balancer, a, 10, false);
+        assertFalse(a.isEjected(clock.get()));
+    }
+
+    @Test
+    public void testAllEjected() {
+        final EndpointBalancer balancer = balancer("http://a/convert");
+        final EndpointBalancer.Endpoint a = balancer.getEndpoints().get(0);
+        for (int i = 0; i < 3; i++) {
+            request(balancer, a, 10, false);
+        }
+        assertSame(a, balancer.choose());
+    }
+
+    @Test
+    public void testEndpointFailure() {
+        assertTrue(BalancedSendProcessor.isEndpointFailure(new ConnectException("Connection refused")));
+        assertTrue(BalancedSendProcessor.isEndpointFailure(
+                new HttpOperationFailedException("http://a/convert", 503, "Unavailable", null, Map.of(), "")));
+        assertFalse(BalancedSendProcessor.isEndpointFailure(
+                new HttpOperationFailedException("http://a/convert", 400, "Bad Request", null, Map.of(), "")));
+        assertFalse(BalancedSendProcessor.isEndpointFailure(null));
+    }
+
+    @Test
+    public void testSendAroundFailedEndpoint() throws Exception {
+        final CamelContext context = new DefaultCamelContext();
+        final EndpointBalancer balancer = new EndpointBalancer("test", List.of("mock:a", "mock:b"), 2, 60000);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                errorHandler(defaultErrorHandler().maximumRedeliveries(3));
+                from("direct:start").process(new BalancedSendProcessor(context, balancer, exchange -> {
+                    assertNotNull(exchange.getProperty(BalancedSendProcessor.SERVICE_ENDPOINT_PROPERTY));
+                }));
+            }
+        });
+        context.start();
+        try {
+            final MockEndpoint down = context.getEndpoint("mock:a", MockEndpoint.class);
+            down.whenAnyExchangeReceived(exchange -> {
+                throw new ConnectException("Connection refused");
+            });
+            final MockEndpoint up = context.getEndpoint("mock:b", MockEndpoint.class);
+            up.expectedMessageCount(10);
+
+            final ProducerTemplate template = context.createProducerTemplate();
+            for (int i = 0; i < 10; i++) {
+                template.sendBody("direct:start", "request " + i);
+            }
+            up.assertIsSatisfied();
+            assertTrue(down.getReceivedCounter() <= 2);
+        } finally {
+            context.stop();
+        }
+    }
+
+    @Test
+    public void testSharedByRoutes() throws Exception {
+        final CamelContext context = new DefaultCamelContext();
+        final EndpointBalancer balancer = new EndpointBalancer("test", List.of("mock:a", "mock:b"), 2, 60000);
+        final BalancedSendProcessor send = new BalancedSendProcessor(context, balancer, exchange -> { });
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:small").routeId("small").process(send);
+                from("direct:large").routeId("large").process(send);
+            }
+        });
+        context.start();
+        try {
+            // Stopping one lane's route leaves the processor working for the other.
+            context.getRouteController().stopRoute("small");
+            assertTrue(send.isStarted());
+            final ProducerTemplate template = context.createProducerTemplate();
+            template.sendBody("direct:large", "request");
+            context.getRouteController().startRoute("small");
+            template.sendBody("direct:small", "request");
+            assertEquals(2, context.getEndpoint("mock:a", MockEndpoint.class).getReceivedCounter()
+                    + context.getEndpoint("mock:b", MockEndpoint.class).getReceivedCounter());
+        } finally {
+            context.stop();
+        }
+        assertTrue(send.isStopped());
+    }
+
+    private EndpointBalancer balancer(final String... uris) {
+        return new EndpointBalancer("test", List.of(uris), 3, 30000, clock::get, registry);
+    }
+
+    private void request(final EndpointBalancer balancer, final EndpointBalancer.Endpoint endpoint,
+                         final long millis, final boolean healthy) {
+        final long start = balancer.started(endpoint);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        balancer.finished(endpoint, start, healthy);
+    }
+}
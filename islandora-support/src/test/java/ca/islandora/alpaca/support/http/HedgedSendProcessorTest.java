@@ -0,0 +1,233 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Expression;
+import org.apache.camel.builder.ExpressionBuilder;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.http.HttpComponent;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.ExpressionAdapter;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests hedging slow requests.
+ *
+ * @author agent
+ */
+public class HedgedSendProcessorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    public void testDelayFromPercentile() {
+        final HedgePolicy policy = new HedgePolicy("test", -1, 100, registry);
+        for (int i = 1; i < 20; i++) {
+            policy.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        // Not enough response times yet.
+        assertEquals(-1, policy.delayNanos());
+        for (int i = 20; i <= 100; i++) {
+            policy.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(95), policy.delayNanos());
+    }
+
+    @Test
+    public void testBudget() {
+        final HedgePolicy policy = new HedgePolicy("test", 50, 10, registry);
+        for (int i = 1; i < 10; i++) {
+            assertEquals(-1, policy.delayNanos());
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), policy.delayNanos());
+        assertTrue(policy.tryHedge());
+        assertFalse(policy.tryHedge());
+        assertEquals(1, registry.get("alpaca.service.hedges").tag("result", "denied").counter().count(), 0);
+    }
+
+    @Test
+    public void testFirstAnswerWins() throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        final ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/", exchange -> {
+            final byte[] body = exchange.getRequestURI().getPath().getBytes(UTF_8);
+            if (exchange.getRequestURI().getPath().equals("/slow")) {
+                try {
+                    Thread.sleep(10000);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        final String url = "http://localhost:" + server.getAddress().getPort();
+
+        final CamelContext context = new DefaultCamelContext();
+        final HttpComponent http = new HttpComponent();
+        http.setHttpClientConfigurer(builder -> builder.setRequestExecutor(new CancellableRequestExecutor()));
+        context.addComponent("http", http);
+        final AtomicInteger sent = new AtomicInteger();
+        // The request goes to the slow endpoint, its hedge to the fast one.
+        final Expression uri = new ExpressionAdapter() {
+            @Override
+            public Object evaluate(final Exchange exchange) {
+                return sent.getAndIncrement() == 0 ? url + "/slow" : url + "/fast";
+            }
+        };
+        final List<Thread> senders = new CopyOnWriteArrayList<>();
+        final HedgePolicy policy = new HedgePolicy("test", 50, 100, registry);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:start").process(new HedgedSendProcessor(context, policy, uri,
+                        exchange -> senders.add(Thread.currentThread()), 2));
+            }
+        });
+        context.start();
+        try {
+            final long start = System.nanoTime();
+            assertEquals("/fast", context.createProducerTemplate().requestBody("direct:start", "", String.class));
+            // The slow request is aborted, rather than waited for.
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertEquals(1, registry.get("alpaca.service.hedges").tag("result", "won").counter().count(), 0);
+            // Only the hedge is sent from another thread.
+            assertEquals(2, senders.size());
+            assertEquals(Thread.currentThread(), senders.get(0));
+            assertNotEquals(Thread.currentThread(), senders.get(1));
+        } finally {
+            context.stop();
+            server.stop(0);
+            serverThreads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFirstAnswerUsed() throws Exception {
+        final CamelContext context = new DefaultCamelContext();
+        final HedgePolicy policy = new HedgePolicy("test", 50, 100, registry);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:start").process(new HedgedSendProcessor(context, policy,
+                        ExpressionBuilder.constantExpression("mock:service"), exchange -> { }, 1));
+            }
+        });
+        context.start();
+        try {
+            final AtomicInteger received = new AtomicInteger();
+            context.getEndpoint("mock:service", MockEndpoint.class).whenAnyExchangeReceived(exchange -> {
+                if (received.getAndIncrement() == 0) {
+                    // Answered after the hedge was sent, but before it.
+                    Thread.sleep(200);
+                    exchange.getMessage().setBody("first");
+                } else {
+                    Thread.sleep(2000);
+                    exchange.getMessage().setBody("hedge");
+                }
+            });
+            assertEquals("first", context.createProducerTemplate().requestBody("direct:start", "", String.class));
+            assertEquals(1, registry.get("alpaca.service.hedges").tag("result", "lost").counter().count(), 0);
+        } finally {
+            context.stop();
+        }
+    }
+
+    @Test
+    public void testCancelAbortsRequest() throws Exception {
+        final CountDownLatch received = new CountDownLatch(1);
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        final ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/", exchange -> {
+            received.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        final RequestCancellation cancellation = new RequestCancellation();
+        try (CloseableHttpClient client = HttpClients.custom()
+                .setRequestExecutor(new CancellableRequestExecutor()).build()) {
+            final Thread canceller = new Thread(() -> {
+                try {
+                    received.await(5, TimeUnit.SECONDS);
+                    cancellation.cancel("test");
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            canceller.start();
+            final long start = System.nanoTime();
+            try {
+                cancellation.run(() -> client.execute(new HttpGet("http://localhost:" +
+                        server.getAddress().getPort() + "/slow")));
+                fail("The request was not cancelled");
+            } catch (final InterruptedIOException e) {
+                assertTrue(e.getMessage().contains("cancelled"));
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+            // Requests sent after the cancellation fail before they are written.
+            try {
+                cancellation.run(() -> client.execute(new HttpGet("http://localhost:" +
+                        server.getAddress().getPort() + "/other")));
+                fail("The request was not cancelled");
+            } catch (final InterruptedIOException e) {
+                assertTrue(e.getMessage().contains("cancelled"));
+            }
+        } finally {
+            server.stop(0);
+            serverThreads.shutdownNow();
+        }
+    }
+}
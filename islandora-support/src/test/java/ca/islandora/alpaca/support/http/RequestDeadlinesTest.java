@@ -0,0 +1,165 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangeTimedOutException;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.http.HttpComponent;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests aborting the requests of exchanges past their deadline.
+ *
+ * @author agent
+ */
+public class RequestDeadlinesTest {
+
+    private final CountDownLatch received = new CountDownLatch(1);
+
+    private final ExecutorService serverThreads = Executors.newCachedThreadPool();
+
+    private HttpServer server;
+
+    private CamelContext context;
+
+    private RequestDeadlines deadlines;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(serverThreads);
+        server.createContext("/", exchange -> {
+            received.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+
+        context = new DefaultCamelContext();
+        final HttpComponent http = new HttpComponent();
+        http.setHttpClientConfigurer(builder -> builder.setRequestExecutor(new CancellableRequestExecutor()));
+        context.addComponent("http", http);
+        deadlines = RequestDeadlines.install(context);
+        final String slow = "http://localhost:" + server.getAddress().getPort() + "/slow";
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:deadline").process(deadlines.start(300)).to(slow);
+                from("direct:none").process(deadlines.start(-1)).to(slow);
+                from("direct:local").to("direct:sink");
+                from("direct:sink").log("received");
+            }
+        });
+        context.start();
+    }
+
+    @After
+    public void tearDown() {
+        context.stop();
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void testInstallOnce() {
+        assertEquals(deadlines, RequestDeadlines.install(context));
+        assertEquals(deadlines, RequestDeadlines.of(context));
+    }
+
+    @Test
+    public void testInstallWithoutDeadline() throws Exception {
+        final CamelContext other = new DefaultCamelContext();
+        final Processor deadline = RequestDeadlines.deadline(other, -1);
+        // Installed so the requests are aborted when Camel stops, but the exchange gets no deadline.
+        assertNotNull(RequestDeadlines.of(other));
+        final Exchange exchange = new DefaultExchange(other);
+        deadline.process(exchange);
+        assertNull(exchange.getProperty(RequestDeadlines.DEADLINE_PROPERTY));
+    }
+
+    @Test
+    public void testOnlyHttpEndpoints() {
+        final Exchange exchange = context.createProducerTemplate().send("direct:local", e ->
+                e.setProperty(RequestDeadlines.DEADLINE_PROPERTY, System.nanoTime() - 1));
+        assertNull(exchange.getException());
+        assertTrue(RequestDeadlines.isHttp(context, "https://localhost/convert"));
+        assertTrue(RequestDeadlines.isHttp(context, "${exchangeProperty." + HttpPathProcessor.HTTP_ORIGIN_PROPERTY +
+                "}?throwExceptionOnFailure=false"));
+        assertTrue(RequestDeadlines.isHttp(context, ServiceBulkhead.COMPONENT_PREFIX + "test:http://localhost/"));
+        assertFalse(RequestDeadlines.isHttp(context, "seda:nodeIndex"));
+    }
+
+    @Test
+    public void testAbortPastDeadline() {
+        final long start = System.nanoTime();
+        final Exchange exchange = context.createProducerTemplate().send("direct:deadline", e -> { });
+        assertTrue(exchange.getException() instanceof InterruptedIOException);
+        assertTrue(exchange.getException().getMessage().contains("past its deadline"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testFailBeforeSending() {
+        final Exchange exchange = context.createProducerTemplate().send("direct:none", e ->
+                e.setProperty(RequestDeadlines.DEADLINE_PROPERTY, System.nanoTime() - 1));
+        assertTrue(exchange.getException() instanceof ExchangeTimedOutException);
+        assertEquals(1, received.getCount());
+    }
+
+    @Test
+    public void testAbortOnStop() throws Exception {
+        final ProducerTemplate template = context.createProducerTemplate();
+        final Future<Exchange> sent = template.asyncSend("direct:none", e -> { });
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        final long start = System.nanoTime();
+        deadlines.stop();
+        final Exchange exchange = sent.get(5, TimeUnit.SECONDS);
+        assertNotNull(exchange.getException());
+        assertTrue(exchange.getException().getMessage().contains("Camel is stopping"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+}
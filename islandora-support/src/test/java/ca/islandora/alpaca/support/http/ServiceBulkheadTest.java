@@ -0,0 +1,141 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.http.HttpEndpoint;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests keeping a service's threads and connections apart.
+ *
+ * @author agent
+ */
+public class ServiceBulkheadTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private CamelContext context;
+
+    @Before
+    public void setUp() {
+        context = new DefaultCamelContext();
+    }
+
+    @After
+    public void tearDown() {
+        context.stop();
+    }
+
+    @Test
+    public void testRejectsWhenFull() throws Exception {
+        final ServiceBulkhead bulkhead = new ServiceBulkhead(context, "test", 1, 0, 0, registry);
+        context.addService(bulkhead, true);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:start")
+                        .threads().executorService(bulkhead.getExecutor()).callerRunsWhenRejected(false)
+                        .process(exchange -> {
+                            started.countDown();
+                            release.await(10, TimeUnit.SECONDS);
+                        });
+            }
+        });
+        context.start();
+
+        final ProducerTemplate template = context.createProducerTemplate();
+        template.asyncSendBody("direct:start", "slow");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, registry.get("alpaca.service.bulkhead.saturation").tag("pool", "threads").gauge().value(), 0);
+
+        final Exchange rejected = template.send("direct:start", exchange -> exchange.getIn().setBody("next"));
+        assertTrue(rejected.getException() instanceof RejectedExecutionException);
+        assertEquals(1, registry.get("alpaca.service.bulkhead.rejected").tag("service", "test").counter().count(), 0);
+        release.countDown();
+    }
+
+    @Test
+    public void testConnectionPool() throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            final byte[] body = "ok".getBytes(UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        try {
+            final ServiceBulkhead bulkhead = new ServiceBulkhead(context, "test", 0, 0, 2, registry);
+            context.addService(bulkhead, true);
+            context.start();
+            assertNull(bulkhead.getExecutor());
+
+            final String uri = bulkhead.addOptions("http://127.0.0.1:" + server.getAddress().getPort() +
+                    "/convert?connectionClose=true");
+            assertTrue(uri.startsWith("alpacaBulkhead-test:http://"));
+            final HttpEndpoint endpoint = context.getEndpoint(uri, HttpEndpoint.class);
+            assertSame(bulkhead.getConnectionManager(), endpoint.getClientConnectionManager());
+            assertEquals("http", endpoint.getHttpUri().getScheme());
+            assertTrue(endpoint.getEndpointKey().startsWith("http://127.0.0.1:"));
+
+            assertEquals("ok", context.createProducerTemplate().requestBody(endpoint, null, String.class));
+
+            // Stopping an endpoint leaves the pool to the others.
+            endpoint.stop();
+            context.removeEndpoint(endpoint);
+            assertEquals("ok", context.createProducerTemplate().requestBody(uri, null, String.class));
+            assertEquals(2, bulkhead.getConnectionManager().getTotalStats().getMax());
+            assertEquals(0, registry.get("alpaca.service.bulkhead.saturation").tag("pool", "connections").gauge()
+                    .value(), 0);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testSharedConnections() {
+        final ServiceBulkhead bulkhead = new ServiceBulkhead(context, "test", 0, 0, 0, registry);
+        assertNull(bulkhead.getConnectionManager());
+        assertEquals("http://localhost/convert", bulkhead.addOptions("http://localhost/convert"));
+        assertTrue(registry.getMeters().isEmpty());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the token bucket and host rate limiter.
+ *
+ * @author agent
+ */
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testSustainedRate() {
+        final TokenBucket bucket = new TokenBucket(10, 1);
+        final long now = System.nanoTime() + SECOND;
+        assertEquals(0, bucket.reserve(now));
+        assertEquals(SECOND / 10, bucket.reserve(now));
+        assertEquals(2 * SECOND / 10, bucket.reserve(now));
+    }
+
+    @Test
+    public void testBurst() {
+        final TokenBucket bucket = new TokenBucket(10, 3);
+        final long now = System.nanoTime() + SECOND;
+        assertEquals(0, bucket.reserve(now));
+        assertEquals(0, bucket.reserve(now));
+        assertEquals(0, bucket.reserve(now));
+        assertEquals(SECOND / 10, bucket.reserve(now));
+    }
+
+    @Test
+    public void testRefillsWhenIdle() {
+        final TokenBucket bucket = new TokenBucket(10, 1);
+        final long now = System.nanoTime() + SECOND;
+        assertEquals(0, bucket.reserve(now));
+        assertEquals(SECOND / 10, bucket.reserve(now));
+        assertEquals(0, bucket.reserve(now + SECOND));
+    }
+
+    @Test
+    public void testInterruptGivesPermitBack() {
+        final TokenBucket bucket = new TokenBucket(1, 1);
+        assertEquals(0, bucket.reserve());
+        Thread.currentThread().interrupt();
+        try {
+            bucket.acquire();
+            fail("The wait was not interrupted");
+        } catch (final InterruptedException e) {
+            // The permit it reserved is free again.
+        }
+        assertTrue(bucket.reserve() <= SECOND);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRate() {
+        new TokenBucket(0, 1);
+    }
+
+    @Test
+    public void testLimiterEnabled() {
+        assertFalse(new HostRateLimiter(-1, 1, Map.of()).isEnabled());
+        assertTrue(new HostRateLimiter(5, 1, Map.of()).isEnabled());
+        assertTrue(new HostRateLimiter(-1, 1, Map.of("example.org", 5.0)).isEnabled());
+    }
+
+    @Test
+    public void testLimiterIgnoresUnlimitedHosts() throws Exception {
+        final HostRateLimiter limiter = new HostRateLimiter(-1, 1, Map.of("limited.example.org", 1.0));
+        final long start = System.nanoTime();
+        for (int i = 0; i < 100; i += 1) {
+            limiter.acquire("http://unlimited.example.org/node/" + i);
+            limiter.acquire("not a uri");
+        }
+        assertTrue(System.nanoTime() - start < SECOND);
+    }
+
+    @Test
+    public void testLimitersDontShareBuckets() throws Exception {
+        new HostRateLimiter(1, 1, Map.of()).acquire("http://shared.example.org/node/1");
+        final HostRateLimiter limiter = new HostRateLimiter(1000, 1, Map.of());
+        final long start = System.nanoTime();
+        for (int i = 0; i < 10; i += 1) {
+            limiter.acquire("http://shared.example.org/node/" + i);
+        }
+        assertTrue(System.nanoTime() - start < SECOND / 2);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.idempotent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.event.AS2Object;
+
+/**
+ * Tests for event fingerprints.
+ *
+ * @author agent
+ */
+public class EventFingerprintTest {
+
+    @Test
+    public void testRedeliveredMessage() {
+        assertEquals("Update|urn:uuid:1|ID:broker-1:1:1:1:1", EventFingerprint.of("ID:broker-1:1:1:1:1",
+                event("Update", "urn:uuid:1")));
+    }
+
+    @Test
+    public void testSeparateEditsWithSamePayload() {
+        // Drupal sends the same event for each edit, only the message ids tell them apart.
+        assertNotEquals(EventFingerprint.of("ID:broker-1:1:1:1:1", event("Update", "urn:uuid:1")),
+                EventFingerprint.of("ID:broker-1:1:1:1:2", event("Update", "urn:uuid:1")));
+    }
+
+    @Test
+    public void testNoMessageId() {
+        assertNull(EventFingerprint.of(null, event("Update", "urn:uuid:1")));
+        assertNull(EventFingerprint.of(" ", event("Update", "urn:uuid:1")));
+    }
+
+    @Test
+    public void testNoObject() {
+        final AS2Event event = new AS2Event();
+        event.setType("Delete");
+        assertEquals("Delete||ID:1", EventFingerprint.of("ID:1", event));
+    }
+
+    private static AS2Event event(final String type, final String id) {
+        final AS2Object object = new AS2Object();
+        object.setId(id);
+        final AS2Event event = new AS2Event();
+        event.setType(type);
+        event.setSummary("Summary");
+        event.setObject(object);
+        return event;
+    }
+}
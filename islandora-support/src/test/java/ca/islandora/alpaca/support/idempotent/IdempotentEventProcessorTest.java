@@ -0,0 +1,154 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.idempotent;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.NotifyBuilder;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.event.AS2EventExpressions;
+import ca.islandora.alpaca.support.event.AS2Object;
+
+/**
+ * Tests skipping event messages already processed.
+ *
+ * @author agent
+ */
+public class IdempotentEventProcessorTest {
+
+    private static final String MESSAGE_ID = "JMSMessageID";
+
+    private final OffHeapIdempotentRepository repository = new OffHeapIdempotentRepository("test", 64, 60000);
+
+    private CamelContext context;
+
+    private ProducerTemplate template;
+
+    private MockEndpoint indexed;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new DefaultCamelContext();
+        final IdempotentEventProcessor idempotent = new IdempotentEventProcessor(repository);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:consume")
+                        .process(exchange -> exchange.setProperty(AS2EventExpressions.EVENT_PROPERTY, event()))
+                        .process(idempotent)
+                        .filter(header("fail"))
+                            .throwException(new IllegalStateException("Failed before the hand off"))
+                        .end()
+                        .to("seda:index");
+
+                from("seda:index")
+                        .process(idempotent)
+                        .filter(header("failIndex"))
+                            .throwException(new IllegalStateException("Failed after the hand off"))
+                        .end()
+                        .to("mock:indexed");
+            }
+        });
+        context.start();
+        template = context.createProducerTemplate();
+        indexed = context.getEndpoint("mock:indexed", MockEndpoint.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.stop();
+    }
+
+    @Test
+    public void testRedeliverySkipped() throws Exception {
+        indexed.expectedMessageCount(1);
+        send("ID:1", null);
+        send("ID:1", null);
+        indexed.assertIsSatisfied(1000);
+        assertTrue(repository.getHits() > 0);
+    }
+
+    @Test
+    public void testSeparateEditsWithSamePayload() throws Exception {
+        indexed.expectedMessageCount(2);
+        send("ID:1", null);
+        send("ID:2", null);
+        indexed.assertIsSatisfied();
+    }
+
+    @Test
+    public void testWithoutMessageId() throws Exception {
+        indexed.expectedMessageCount(2);
+        send(null, null);
+        send(null, null);
+        indexed.assertIsSatisfied();
+        assertFalse(repository.contains("Update|urn:uuid:1|null"));
+    }
+
+    @Test
+    public void testFailureForgetsEvent() throws Exception {
+        assertNotNull(send("ID:1", "fail").getException());
+        indexed.expectedMessageCount(1);
+        send("ID:1", null);
+        indexed.assertIsSatisfied();
+    }
+
+    @Test
+    public void testFailureAfterHandOffForgetsEvent() throws Exception {
+        final NotifyBuilder failed = new NotifyBuilder(context).from("seda:index").whenFailed(1).create();
+        send("ID:1", "failIndex");
+        assertTrue(failed.matches(5, TimeUnit.SECONDS));
+        assertFalse(repository.contains(EventFingerprint.of("ID:1", event())));
+
+        indexed.expectedMessageCount(1);
+        send("ID:1", null);
+        indexed.assertIsSatisfied();
+    }
+
+    private Exchange send(final String messageId, final String failure) {
+        return template.send("direct:consume", exchange -> {
+            exchange.getIn().setHeader(MESSAGE_ID, messageId);
+            if (failure != null) {
+                exchange.getIn().setHeader(failure, true);
+            }
+        });
+    }
+
+    private static AS2Event event() {
+        final AS2Object object = new AS2Object();
+        object.setId("urn:uuid:1");
+        final AS2Event event = new AS2Event();
+        event.setType("Update");
+        event.setObject(object);
+        return event;
+    }
+}
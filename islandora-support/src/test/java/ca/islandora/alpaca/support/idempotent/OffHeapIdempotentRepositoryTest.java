@@ -0,0 +1,147 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.idempotent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the off-heap idempotent repository.
+ *
+ * @author agent
+ */
+public class OffHeapIdempotentRepositoryTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    private OffHeapIdempotentRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new OffHeapIdempotentRepository("test", 64, 100, null, now::get);
+        repository.start();
+    }
+
+    @After
+    public void tearDown() {
+        repository.stop();
+    }
+
+    @Test
+    public void testDuplicate() {
+        assertTrue(repository.add("a"));
+        assertFalse(repository.add("a"));
+        assertTrue(repository.add("b"));
+        assertTrue(repository.contains("a"));
+        assertEquals(1, repository.getHits());
+        assertEquals(2, repository.getMisses());
+        assertEquals(1.0 / 3, repository.getHitRatio(), 0.0001);
+        assertEquals(2, repository.getEntries());
+    }
+
+    @Test
+    public void testExpiry() {
+        assertTrue(repository.add("a"));
+        now.addAndGet(100);
+        assertFalse(repository.contains("a"));
+        assertTrue(repository.add("a"));
+        assertEquals(1, repository.getEntries());
+    }
+
+    @Test
+    public void testRemove() {
+        assertTrue(repository.add("a"));
+        assertTrue(repository.remove("a"));
+        assertFalse(repository.contains("a"));
+        assertTrue(repository.add("a"));
+    }
+
+    @Test
+    public void testBounded() {
+        for (int i = 0; i < 1000; i += 1) {
+            repository.add("key" + i);
+        }
+        assertEquals(64, repository.getEntries());
+        assertEquals(1000 - 64, repository.getEvictions());
+        // The most recent key is still present.
+        assertTrue(repository.contains("key999"));
+    }
+
+    @Test
+    public void testClear() {
+        repository.add("a");
+        repository.clear();
+        assertFalse(repository.contains("a"));
+        assertEquals(0, repository.getEntries());
+    }
+
+    @Test
+    public void testMaxCapacity() {
+        // The table for the largest capacity still fits in an int.
+        assertEquals(67_108_864, OffHeapIdempotentRepository.MAX_CAPACITY);
+        new OffHeapIdempotentRepository("test", OffHeapIdempotentRepository.MAX_CAPACITY, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityTooLarge() {
+        // Rounds up to 2^24 sets, a table of over 3 GB.
+        new OffHeapIdempotentRepository("test", 100_000_000, 100);
+    }
+
+    @Test
+    public void testKeptInFile() throws Exception {
+        final Path directory = Files.createTempDirectory("alpaca-idempotent");
+        final Path file = directory.resolve("sub").resolve("test.idempotent");
+        try {
+            final OffHeapIdempotentRepository first = new OffHeapIdempotentRepository("file", 64, 100, file,
+                    now::get);
+            first.start();
+            assertTrue(first.add("a"));
+            first.stop();
+
+            // A new repository on the same file, as after a restart.
+            final OffHeapIdempotentRepository second = new OffHeapIdempotentRepository("file", 64, 100, file,
+                    now::get);
+            second.start();
+            assertEquals(1, second.getEntries());
+            assertFalse(second.add("a"));
+            second.stop();
+
+            // A different capacity starts empty.
+            final OffHeapIdempotentRepository resized = new OffHeapIdempotentRepository("file", 128, 100, file,
+                    now::get);
+            resized.start();
+            assertEquals(0, resized.getEntries());
+            assertTrue(resized.add("a"));
+            resized.stop();
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.getParent());
+            Files.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jfr;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Tests the flight recorder events emitted for exchanges, HTTP requests and stages.
+ *
+ * @author agent
+ */
+public class JfrEventNotifierTest {
+
+    private HttpServer server;
+
+    private CamelContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            final boolean missing = exchange.getRequestURI().getPath().equals("/missing");
+            final byte[] body = (missing ? "{\"ok\":\"\u00f1on\"}" : "{\"ok\":true}").getBytes(UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            // The missing response is chunked, without a Content-Length.
+            exchange.sendResponseHeaders(missing ? 404 : 200, missing ? 0 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        final String url = "http://localhost:" + server.getAddress().getPort();
+
+        context = new DefaultCamelContext();
+        context.getManagementStrategy().addEventNotifier(new JfrEventNotifier());
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:ok").routeId("ok")
+                        .process(exchange -> StageEvent.start("test.stage", exchange).commit())
+                        .setHeader(Exchange.HTTP_METHOD, constant("GET"))
+                        .to(url + "/ok");
+                from("direct:missing").routeId("missing")
+                        .to(url + "/missing");
+            }
+        });
+        context.start();
+    }
+
+    @After
+    public void tearDown() {
+        context.stop();
+        server.stop(0);
+    }
+
+    @Test
+    public void testEventsRecorded() throws Exception {
+        final List<RecordedEvent> events = record(() -> {
+            context.createProducerTemplate().sendBody("direct:ok", "");
+            context.createProducerTemplate().send("direct:missing", exchange -> { });
+        });
+
+        final List<RecordedEvent> exchanges = ofType(events, "ca.islandora.alpaca.Exchange");
+        assertEquals(2, exchanges.size());
+        assertEquals("ok", exchanges.get(0).getString("routeId"));
+        assertFalse(exchanges.get(0).getBoolean("failed"));
+        assertEquals("missing", exchanges.get(1).getString("routeId"));
+        assertTrue(exchanges.get(1).getBoolean("failed"));
+
+        final List<RecordedEvent> requests = ofType(events, "ca.islandora.alpaca.HttpRequest");
+        assertEquals(2, requests.size());
+        assertEquals("ok", requests.get(0).getString("routeId"));
+        assertEquals("GET", requests.get(0).getString("method"));
+        assertEquals("localhost:" + server.getAddress().getPort(), requests.get(0).getString("host"));
+        assertEquals(200, requests.get(0).getInt("status"));
+        assertEquals(11, requests.get(0).getLong("bytes"));
+        assertEquals(404, requests.get(1).getInt("status"));
+        assertEquals(13, requests.get(1).getLong("bytes"));
+
+        final List<RecordedEvent> stages = ofType(events, "ca.islandora.alpaca.Stage");
+        assertEquals(1, stages.size());
+        assertEquals("test.stage", stages.get(0).getString("stage"));
+        assertEquals("ok", stages.get(0).getString("routeId"));
+    }
+
+    @Test
+    public void testNothingRecordedWhenDisabled() throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.disable("ca.islandora.alpaca.Exchange");
+            recording.disable("ca.islandora.alpaca.HttpRequest");
+            recording.disable("ca.islandora.alpaca.Stage");
+            recording.start();
+            context.createProducerTemplate().sendBody("direct:ok", "");
+            recording.stop();
+            final Path file = Files.createTempFile("alpaca", ".jfr");
+            recording.dump(file);
+            assertTrue(RecordingFile.readAllEvents(file).stream()
+                    .noneMatch(e -> e.getEventType().getName().startsWith("ca.islandora.alpaca.")));
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> record(final Runnable action) throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.enable("ca.islandora.alpaca.Exchange");
+            recording.enable("ca.islandora.alpaca.HttpRequest");
+            recording.enable("ca.islandora.alpaca.Stage");
+            recording.start();
+            action.run();
+            recording.stop();
+            final Path file = Files.createTempFile("alpaca", ".jfr");
+            recording.dump(file);
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            Files.delete(file);
+            return events;
+        }
+    }
+
+    private static List<RecordedEvent> ofType(final List<RecordedEvent> events, final String type) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(type))
+                .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.plugin.StatisticsBrokerPlugin;
+import org.apache.camel.CamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.activemq.ActiveMQComponent;
+import org.apache.camel.component.jms.JmsConsumer;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+/**
+ * Tests resizing the consumers of a queue from its statistics.
+ *
+ * @author agent
+ */
+public class ConsumerAutoscalerTest {
+
+    private BrokerService broker;
+
+    private ActiveMQConnectionFactory connectionFactory;
+
+    private CamelContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName("autoscale");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setPlugins(new BrokerPlugin[] {new StatisticsBrokerPlugin()});
+        broker.start();
+        connectionFactory = new ActiveMQConnectionFactory("vm://autoscale?create=false");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (context != null) {
+            context.stop();
+        }
+        broker.stop();
+    }
+
+    @Test
+    public void testTargetGrowsWithBacklog() {
+        // First check, nothing known about the consumers' rate.
+        assertEquals(4, ConsumerAutoscaler.target(2, 1, 10, null, stats(100, 100, 0), 10000, 60000));
+        // 2 consumers took 20 messages/s, 120 waiting should drain in 2s and 10 more arrive each second.
+        assertEquals(7, ConsumerAutoscaler.target(2, 1, 10, stats(200, 300, 100), stats(120, 400, 300), 10000,
+                2000));
+        assertEquals(5, ConsumerAutoscaler.target(2, 1, 5, stats(200, 300, 100), stats(120, 400, 300), 10000, 2000));
+    }
+
+    @Test
+    public void testTargetShrinksWhenIdle() {
+        assertEquals(3, ConsumerAutoscaler.target(4, 1, 10, stats(0, 100, 100), stats(0, 100, 100), 10000, 60000));
+        assertEquals(2, ConsumerAutoscaler.target(2, 2, 10, stats(0, 100, 100), stats(0, 100, 100), 10000, 60000));
+        // The arriving messages still need 3 consumers.
+        assertEquals(3, ConsumerAutoscaler.target(3, 1, 10, stats(0, 100, 100), stats(0, 400, 400), 10000, 60000));
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        send("stats", 5);
+        try (StatisticsPluginClient client = new StatisticsPluginClient(connectionFactory, 5000)) {
+            final QueueStatistics stats = client.get("stats");
+            assertEquals(5, stats.getSize());
+            assertEquals(5, stats.getEnqueueCount());
+            assertEquals(0, stats.getDequeueCount());
+        }
+    }
+
+    @Test
+    public void testNoStatistics() throws Exception {
+        broker.stop();
+        broker.waitUntilStopped();
+        broker = new BrokerService();
+        broker.setBrokerName("autoscale");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        try (StatisticsPluginClient client = new StatisticsPluginClient(connectionFactory, 200)) {
+            assertNull(client.get("stats"));
+        }
+    }
+
+    @Test
+    public void testScale() throws Exception {
+        send("scale", 100);
+        context = new DefaultCamelContext();
+        final ActiveMQComponent component = new ActiveMQComponent();
+        component.setConnectionFactory(connectionFactory);
+        context.addComponent("activemq", component);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("activemq:queue:scale").routeId("scale")
+                        .process(exchange -> Thread.sleep(50));
+            }
+        });
+        context.start();
+
+        final ConsumerAutoscaler autoscaler = new ConsumerAutoscaler(context,
+                new StatisticsPluginClient(connectionFactory, 5000), TimeUnit.HOURS.toMillis(1), 8, 1000, null);
+        autoscaler.start();
+        try {
+            final DefaultMessageListenerContainer container = (DefaultMessageListenerContainer)
+                    ((JmsConsumer) context.getRoute("scale").getConsumer()).getListenerContainer();
+            assertEquals(1, container.getConcurrentConsumers());
+
+            autoscaler.scale();
+            assertEquals(2, container.getConcurrentConsumers());
+            assertEquals(2, container.getMaxConcurrentConsumers());
+
+            Thread.sleep(500);
+            autoscaler.scale();
+            assertTrue(container.getConcurrentConsumers() > 2);
+            assertTrue(container.getConcurrentConsumers() <= 8);
+        } finally {
+            autoscaler.stop();
+        }
+    }
+
+    private static QueueStatistics stats(final long size, final long enqueued, final long dequeued) {
+        return new QueueStatistics(size, enqueued, dequeued);
+    }
+
+    private void send(final String queue, final int count) throws Exception {
+        final Connection connection = connectionFactory.createConnection();
+        try {
+            final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            final MessageProducer producer = session.createProducer(session.createQueue(queue));
+            for (int i = 0; i < count; i++) {
+                producer.send(session.createTextMessage("message " + i));
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import javax.jms.Connection;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.CamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.activemq.ActiveMQComponent;
+import org.apache.camel.component.jms.JmsConsumer;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+/**
+ * Tests sharing a consumer budget between routes.
+ *
+ * @author agent
+ */
+public class ConsumerBudgetTest {
+
+    private BrokerService broker;
+
+    private ActiveMQConnectionFactory connectionFactory;
+
+    private CamelContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName("budget");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        connectionFactory = new ActiveMQConnectionFactory("vm://budget?create=false");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (context != null) {
+            context.stop();
+        }
+        broker.stop();
+    }
+
+    @Test
+    public void testAllocateByWeight() {
+        assertArrayEquals(new int[] {5, 5}, ConsumerBudget.allocate(10, new int[] {10, 10}, new double[] {1, 1}));
+        assertArrayEquals(new int[] {3, 6, 1}, ConsumerBudget.allocate(10, new int[] {10, 10, 1},
+                new double[] {1, 2, 1}));
+    }
+
+    @Test
+    public void testAllocateLendsUnwanted() {
+        // The idle routes keep one each, the busy route borrows the rest.
+        assertArrayEquals(new int[] {1, 8, 1}, ConsumerBudget.allocate(10, new int[] {1, 20, 1},
+                new double[] {1, 1, 4}));
+        // Nobody wants the rest of the budget.
+        assertArrayEquals(new int[] {2, 3}, ConsumerBudget.allocate(10, new int[] {2, 3}, new double[] {1, 1}));
+    }
+
+    @Test
+    public void testAllocateUnderBudget() {
+        assertArrayEquals(new int[] {1, 1, 1}, ConsumerBudget.allocate(2, new int[] {4, 4, 4},
+                new double[] {1, 1, 1}));
+    }
+
+    @Test
+    public void testShare() throws Exception {
+        send("busy", 50);
+        context = new DefaultCamelContext();
+        final ActiveMQComponent component = new ActiveMQComponent();
+        component.setConnectionFactory(connectionFactory);
+        context.addComponent("activemq", component);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("activemq:queue:busy?concurrentConsumers=2&maxConcurrentConsumers=8").routeId("busy")
+                        .process(exchange -> Thread.sleep(100));
+                from("activemq:queue:idle?concurrentConsumers=2&maxConcurrentConsumers=8").routeId("idle")
+                        .log("${body}");
+            }
+        });
+        context.start();
+
+        final ConsumerBudget budget = new ConsumerBudget(context, 6, Map.of("idle", 2.0), 60000);
+        while (context.getInflightRepository().size("busy") == 0) {
+            Thread.sleep(10);
+        }
+        budget.share();
+        assertEquals(1, container("idle").getMaxConcurrentConsumers());
+        assertEquals(1, container("idle").getConcurrentConsumers());
+        final int busy = container("busy").getMaxConcurrentConsumers();
+        assertTrue(busy >= 2 && busy <= 5);
+
+        budget.setDemand("busy", 8);
+        budget.setDemand("idle", 8);
+        budget.share();
+        // The idle queue has twice the weight.
+        assertEquals(4, container("idle").getMaxConcurrentConsumers());
+        assertEquals(2, container("idle").getConcurrentConsumers());
+        assertEquals(2, container("busy").getMaxConcurrentConsumers());
+        assertEquals(2, container("busy").getConcurrentConsumers());
+    }
+
+    private DefaultMessageListenerContainer container(final String routeId) throws Exception {
+        return (DefaultMessageListenerContainer) ((JmsConsumer) context.getRoute(routeId).getConsumer())
+                .getListenerContainer();
+    }
+
+    private void send(final String queue, final int count) throws Exception {
+        final Connection connection = connectionFactory.createConnection();
+        try {
+            final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            final MessageProducer producer = session.createProducer(session.createQueue(queue));
+            for (int i = 0; i < count; i++) {
+                producer.send(session.createTextMessage("message " + i));
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.CamelContext;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.activemq.ActiveMQComponent;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.Test;
+
+/**
+ * Tests consuming interactive and bulk events in lanes of their own.
+ *
+ * @author agent
+ */
+public class ConsumerLaneTest {
+
+    @Test
+    public void testOff() {
+        final List<ConsumerLane> lanes = ConsumerLane.lanes("broker:queue:index", ConsumerLane.Mode.of("off"), 5);
+        assertEquals(1, lanes.size());
+        assertEquals("broker:queue:index", lanes.get(0).getEndpoint());
+        assertFalse(lanes.get(0).isBulk());
+        assertEquals("Indexer", lanes.get(0).routeId("Indexer"));
+    }
+
+    @Test
+    public void testQueue() {
+        final List<ConsumerLane> lanes = ConsumerLane.lanes("broker:queue:index?concurrentConsumers=2",
+                ConsumerLane.Mode.of(" Queue "), 5);
+        assertEquals(2, lanes.size());
+        assertEquals("broker:queue:index?concurrentConsumers=2", lanes.get(0).getEndpoint());
+        assertEquals("broker:queue:index.bulk?concurrentConsumers=2", lanes.get(1).getEndpoint());
+        assertTrue(lanes.get(1).isBulk());
+        assertEquals("Indexer", lanes.get(0).routeId("Indexer"));
+        assertEquals("IndexerBulk", lanes.get(1).routeId("Indexer"));
+    }
+
+    @Test
+    public void testPriority() {
+        final List<ConsumerLane> lanes = ConsumerLane.lanes("broker:queue:index", ConsumerLane.Mode.PRIORITY, 5);
+        assertEquals("broker:queue:index?selector=RAW(JMSPriority >= 5)", lanes.get(0).getEndpoint());
+        assertEquals("broker:queue:index?selector=RAW(JMSPriority < 5)", lanes.get(1).getEndpoint());
+    }
+
+    @Test
+    public void testSelector() {
+        final String selector = " islandoraType <> 'media' ";
+        assertEquals("broker:queue:index?selector=RAW(islandoraType <> 'media')",
+                ConsumerLane.lanes("broker:queue:index", ConsumerLane.Mode.OFF, 5, selector).get(0).getEndpoint());
+
+        final List<ConsumerLane> queues = ConsumerLane.lanes("broker:queue:index?concurrentConsumers=2",
+                ConsumerLane.Mode.QUEUE, 5, selector);
+        assertEquals("broker:queue:index?concurrentConsumers=2&selector=RAW(islandoraType <> 'media')",
+                queues.get(0).getEndpoint());
+        assertEquals("broker:queue:index.bulk?concurrentConsumers=2&selector=RAW(islandoraType <> 'media')",
+                queues.get(1).getEndpoint());
+
+        final List<ConsumerLane> priorities = ConsumerLane.lanes("broker:queue:index", ConsumerLane.Mode.PRIORITY, 5,
+                selector);
+        assertEquals("broker:queue:index?selector=RAW((islandoraType <> 'media') AND JMSPriority >= 5)",
+                priorities.get(0).getEndpoint());
+        assertEquals("broker:queue:index?selector=RAW((islandoraType <> 'media') AND JMSPriority < 5)",
+                priorities.get(1).getEndpoint());
+
+        assertEquals("broker:queue:index",
+                ConsumerLane.lanes("broker:queue:index", ConsumerLane.Mode.OFF, 5, " ").get(0).getEndpoint());
+    }
+
+    @Test
+    public void testSelectorOfLane() {
+        assertEquals("islandoraType <> 'media'", ConsumerLane.selector("islandoraType <> 'media'"));
+        assertEquals("islandoraType <> 'media'",
+                ConsumerLane.selector("(islandoraType <> 'media') AND JMSPriority >= 5"));
+        assertEquals("a = 1 OR (b = 2)", ConsumerLane.selector("(a = 1 OR (b = 2)) AND JMSPriority < 5"));
+        assertNull(ConsumerLane.selector("JMSPriority >= 5"));
+        assertNull(ConsumerLane.selector(" "));
+        assertNull(ConsumerLane.selector(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMode() {
+        ConsumerLane.Mode.of("fast");
+    }
+
+    @Test
+    public void testPriorityLanes() throws Exception {
+        final BrokerService broker = new BrokerService();
+        broker.setBrokerName("lanes");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        final CamelContext context = new DefaultCamelContext();
+        try {
+            final ActiveMQComponent component = new ActiveMQComponent();
+            component.setConnectionFactory(new ActiveMQConnectionFactory("vm://lanes?create=false"));
+            context.addComponent("activemq", component);
+            context.addRoutes(new RouteBuilder() {
+                @Override
+                public void configure() {
+                    for (final ConsumerLane lane : ConsumerLane.lanes("activemq:queue:lanes",
+                            ConsumerLane.Mode.PRIORITY, 5, "skip IS NULL")) {
+                        from(lane.getEndpoint()).routeId(lane.routeId("lanes"))
+                                .to(lane.isBulk() ? "mock:bulk" : "mock:interactive");
+                    }
+                }
+            });
+            context.start();
+
+            final MockEndpoint interactive = context.getEndpoint("mock:interactive", MockEndpoint.class);
+            interactive.expectedBodiesReceived("save");
+            final MockEndpoint bulk = context.getEndpoint("mock:bulk", MockEndpoint.class);
+            bulk.expectedBodiesReceived("migrate 1", "migrate 2");
+
+            final ProducerTemplate template = context.createProducerTemplate();
+            template.sendBody("activemq:queue:lanes?explicitQosEnabled=true&priority=1", "migrate 1");
+            template.sendBody("activemq:queue:lanes?explicitQosEnabled=true&priority=7", "save");
+            template.sendBodyAndHeader("activemq:queue:lanes?explicitQosEnabled=true&priority=7", "skipped", "skip",
+                    "true");
+            template.sendBody("activemq:queue:lanes?explicitQosEnabled=true&priority=1", "migrate 2");
+
+            MockEndpoint.assertIsSatisfied(context);
+        } finally {
+            context.stop();
+            broker.stop();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.Destination;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.camel.CamelContext;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.activemq.ActiveMQComponent;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.Test;
+
+/**
+ * Tests consuming the events no route selects.
+ *
+ * @author agent
+ */
+public class UnselectedEventsTest {
+
+    @Test
+    public void testUnselected() {
+        assertEquals("NOT ((a = 1)) OR ((a = 1)) IS NULL", UnselectedEvents.unselected(List.of(" a = 1 ")));
+        assertEquals("NOT ((a = 1) OR (b = 2)) OR ((a = 1) OR (b = 2)) IS NULL",
+                UnselectedEvents.unselected(List.of("a = 1", "b = 2")));
+    }
+
+    @Test
+    public void testDropsUnselected() throws Exception {
+        final BrokerService broker = new BrokerService();
+        broker.setBrokerName("unselected");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        final CamelContext context = new DefaultCamelContext();
+        try {
+            final ActiveMQComponent component = new ActiveMQComponent();
+            component.setConnectionFactory(new ActiveMQConnectionFactory("vm://unselected?create=false"));
+            context.addComponent("activemq", component);
+            context.addStartupListener(new UnselectedEvents(context));
+            context.addRoutes(new RouteBuilder() {
+                @Override
+                public void configure() {
+                    for (final ConsumerLane lane : ConsumerLane.lanes("activemq:queue:selected",
+                            ConsumerLane.Mode.PRIORITY, 5, "skip IS NULL")) {
+                        from(lane.getEndpoint()).routeId(lane.routeId("selected")).to("mock:selected");
+                    }
+                    from("activemq:queue:shared?selector=RAW(skip IS NULL)").routeId("shared").to("mock:shared");
+                    from("activemq:queue:shared").routeId("all").to("mock:all");
+                    // Between them the priority lanes select every event.
+                    for (final ConsumerLane lane : ConsumerLane.lanes("activemq:queue:lanes",
+                            ConsumerLane.Mode.PRIORITY, 5, null)) {
+                        from(lane.getEndpoint()).routeId(lane.routeId("lanes")).to("mock:lanes");
+                    }
+                }
+            });
+            context.start();
+
+            assertNotNull(context.getRoute("AlpacaUnselected-selected"));
+            assertNull(context.getRoute("AlpacaUnselected-shared"));
+            assertNull(context.getRoute("AlpacaUnselected-lanes"));
+
+            final MockEndpoint selected = context.getEndpoint("mock:selected", MockEndpoint.class);
+            selected.expectedBodiesReceived("save", "migrate");
+            final ProducerTemplate template = context.createProducerTemplate();
+            template.sendBodyAndHeader("activemq:queue:selected", "skipped", "skip", "true");
+            template.sendBody("activemq:queue:selected?explicitQosEnabled=true&priority=7", "save");
+            template.sendBody("activemq:queue:selected?explicitQosEnabled=true&priority=1", "migrate");
+            MockEndpoint.assertIsSatisfied(context);
+
+            final Destination queue = broker.getDestination(new ActiveMQQueue("selected"));
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (queue.getDestinationStatistics().getMessages().getCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, queue.getDestinationStatistics().getMessages().getCount());
+        } finally {
+            context.stop();
+            broker.stop();
+        }
+    }
+}
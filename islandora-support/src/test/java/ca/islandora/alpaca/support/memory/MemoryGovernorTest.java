@@ -0,0 +1,133 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.service.ServiceHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests suspending and resuming consumers as memory pressure changes.
+ *
+ * @author agent
+ */
+public class MemoryGovernorTest {
+
+    private static final long MAX_HEAP = 10_000;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private CamelContext context;
+
+    private MemoryGovernor governor;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new DefaultCamelContext();
+        governor = new MemoryGovernor(context, 0.8, 0.5, 50, MAX_HEAP, registry, false);
+        context.getManagementStrategy().addEventNotifier(governor);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("timer:poll?period=10").routeId("external")
+                        .log("polled");
+                from("direct:large").routeId("large")
+                        .to("direct:fetch")
+                        .process(exchange -> release.await(10, TimeUnit.SECONDS));
+                from("direct:fetch").routeId("fetch")
+                        .setBody(exchange -> new byte[9000]);
+            }
+        });
+        context.start();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        context.stop();
+    }
+
+    @Test
+    public void testHeapWatermarks() throws Exception {
+        governor.afterGc(8500);
+        assertTrue(governor.isSuspended());
+        assertTrue(ServiceHelper.isSuspended(context.getRoute("external").getConsumer()));
+        // Only consumers of messages from outside Alpaca are suspended.
+        assertFalse(ServiceHelper.isSuspended(context.getRoute("large").getConsumer()));
+        assertEquals(1, registry.get("alpaca.memory.suspended").gauge().value(), 0.0);
+
+        governor.afterGc(6000);
+        assertTrue(governor.isSuspended());
+
+        governor.afterGc(4000);
+        assertFalse(governor.isSuspended());
+        assertTrue(ServiceHelper.isStarted(context.getRoute("external").getConsumer()));
+        assertEquals(0.4, registry.get("alpaca.memory.heap.after.gc").gauge().value(), 0.0001);
+    }
+
+    @Test
+    public void testResumeWhenIdle() throws Exception {
+        governor.afterGc(8500);
+        assertTrue(governor.isSuspended());
+        // No collection follows with nothing in flight, it resumes after ten intervals without forcing one.
+        await(() -> !governor.isSuspended());
+        assertTrue(ServiceHelper.isStarted(context.getRoute("external").getConsumer()));
+        assertEquals(0.0, governor.getHeapAfterGc(), 0.0);
+    }
+
+    @Test
+    public void testInflightBytes() throws Exception {
+        final Future<Exchange> sent = context.createProducerTemplate().asyncSend("direct:large", exchange -> { });
+        await(() -> governor.isSuspended());
+        assertEquals(9000, governor.getInflightBytes());
+        assertEquals(9000, registry.get("alpaca.memory.inflight.bytes").tag("route", "large").gauge().value(), 0.0);
+        assertTrue(ServiceHelper.isSuspended(context.getRoute("external").getConsumer()));
+
+        release.countDown();
+        sent.get(10, TimeUnit.SECONDS);
+        await(() -> governor.getInflightBytes() == 0);
+        await(() -> !governor.isSuspended());
+        assertTrue(ServiceHelper.isStarted(context.getRoute("external").getConsumer()));
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed to Islandora Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Islandora Foundation licenses this file to you under the MIT License.
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.islandora.alpaca.support.timing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import ca.islandora.alpaca.support.event.AS2Event;
+import ca.islandora.alpaca.support.event.AS2EventExpressions;
+
+/**
+ * Tests the timings of the stages of processing an exchange.
+ *
+ * @author agent
+ */
+public class ExchangeTimerTest {
+
+    private final AtomicLong nanos = new AtomicLong(0);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private CamelContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        final ExchangeTimer timing = new ExchangeTimer(true, 0, registry, nanos::get, () -> 5000);
+        final ExchangeTimer disabled = new ExchangeTimer(false, 0, registry, nanos::get, () -> 5000);
+        context = new DefaultCamelContext();
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:index").routeId("index")
+                        .process(timing.start())
+                        .process(exchange -> advance(10))
+                        .process(timing.stage(Stage.PARSE))
+                        .process(exchange -> advance(20))
+                        .process(timing.stage(Stage.FETCH))
+                        .process(exchange -> advance(30))
+                        .process(timing.stage(Stage.WRITE))
+                        .process(exchange -> advance(5));
+                from("direct:handOff").routeId("handOff")
+                        .process(timing.start())
+                        .process(exchange -> advance(10))
+                        .process(timing.stage(Stage.PARSE))
+                        .process(timing.handOff())
+                        .to("seda:continue?waitForTaskToComplete=Always");
+                from("seda:continue").routeId("continue")
+                        .process(timing.resume())
+                        .process(exchange -> advance(40))
+                        .process(timing.stage(Stage.WRITE));
+                from("direct:blocked").routeId("blocked")
+                        .process(timing.start())
+                        .process(exchange -> release.await(10, TimeUnit.SECONDS));
+                from("direct:disabled").routeId("disabled")
+                        .process(disabled.start())
+                        .process(exchange -> advance(10))
+                        .process(disabled.stage(Stage.PARSE));
+            }
+        });
+        context.start();
+    }
+
+    @After
+    public void tearDown() {
+        context.stop();
+    }
+
+    @Test
+    public void testStages() {
+        context.createProducerTemplate().sendBodyAndHeader("direct:index", "", ExchangeTimer.JMS_TIMESTAMP, 3000L);
+
+        assertMillis(2000, "index", Stage.QUEUE);
+        assertMillis(10, "index", Stage.PARSE);
+        assertMillis(20, "index", Stage.FETCH);
+        assertNull(timer("index", Stage.CONVERT));
+        assertMillis(30, "index", Stage.WRITE);
+        assertMillis(65, "index", Stage.TOTAL);
+    }
+
+    @Test
+    public void testNoTimestamp() {
+        context.createProducerTemplate().sendBody("direct:index", "");
+
+        assertNull(timer("index", Stage.QUEUE));
+        assertMillis(65, "index", Stage.TOTAL);
+    }
+
+    @Test
+    public void testHandOff() {
+        context.createProducerTemplate().sendBody("direct:handOff", "");
+
+        assertNull(timer("handOff", Stage.TOTAL));
+        assertMillis(10, "continue", Stage.PARSE);
+        assertMillis(40, "continue", Stage.WRITE);
+        assertMillis(50, "continue", Stage.TOTAL);
+    }
+
+    @Test
+    public void testFreshness() {
+        final AS2Event event = new AS2Event();
+        event.setPublished("1970-01-01T00:00:01Z");
+        context.createProducerTemplate().send("direct:index", exchange -> {
+            exchange.getIn().setHeader(ExchangeTimer.JMS_TIMESTAMP, 3000L);
+            exchange.setProperty(AS2EventExpressions.EVENT_PROPERTY, event);
+        });
+
+        final Timer broker = registry.find("alpaca.freshness.lag").tags("route", "index", "from", "broker").timer();
+        assertEquals(1, broker.count());
+        assertEquals(2000, broker.totalTime(TimeUnit.MILLISECONDS), 0.001);
+        final Timer published = registry.find("alpaca.freshness.lag").tags("route", "index", "from", "published")
+                .timer();
+        assertEquals(1, published.count());
+        assertEquals(4000, published.totalTime(TimeUnit.MILLISECONDS), 0.001);
+    }
+
+    @Test
+    public void testOldestInFlight() throws Exception {
+        final Future<Exchange> sent = context.createProducerTemplate().asyncSend("direct:blocked",
+                exchange -> exchange.getIn().setHeader(ExchangeTimer.JMS_TIMESTAMP, 3000L));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (oldest() != 2000 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2000, oldest(), 0.001);
+
+        release.countDown();
+        sent.get(10, TimeUnit.SECONDS);
+        assertEquals(0, oldest(), 0.001);
+    }
+
+    @Test
+    public void testDisabled() {
+        context.createProducerTemplate().sendBody("direct:disabled", "");
+
+        assertNull(timer("disabled", Stage.TOTAL));
+    }
+
+    private double oldest() {
+        final TimeGauge gauge = registry.find("alpaca.freshness.inflight.age").tags("route", "blocked").timeGauge();
+        return gauge == null ? -1 : gauge.value(TimeUnit.MILLISECONDS);
+    }
+
+    private void advance(final long millis) {
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private Timer timer(final String route, final Stage stage) {
+        final Timer timer = registry.find("alpaca.exchange.stage").tags("route", route, "stage", stage.getLabel())
+                .timer();
+        return timer == null || timer.count() == 0 ? null : timer;
+    }
+
+    private void assertMillis(final long expected, final String route, final Stage stage) {
+        final Timer timer = timer(route, stage);
+        assertEquals(1, timer.count());
+        assertEquals(expected, timer.totalTime(TimeUnit.MILLISECONDS), 0.001);
+    }
+}